@@ -0,0 +1,158 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Runs a file of operations without prompting.  Each non-blank line that does
+ * not start with # names a menu operation followed by its inputs, comma
+ * separated in the order the menu asks for them, e.g.
+ *
+ *    bookRoom,381,5,rzqs,eyeg,5/12/2015,1,150
+ *    numberOfBookedRooms,381
+ *
+ * Every line runs in one session, so the prepared statements are reused.
+ * With a group size greater than one, that many operations are committed
+ * together; a failure rolls back the whole group it belongs to.
+ *
+ */
+public class BatchRunner {
+
+   private final DBProject _esql;
+   private final int _groupSize;
+   private final ResultSink _sink;
+
+   // per-operation counts for the summary.
+   private final long[] _executed = new long[Operation.values ().length];
+   private final long[] _failed = new long[Operation.values ().length];
+   private long _rejected = 0;
+   private long _rolledBack = 0;
+
+   /**
+    * @param esql the database
+    * @param groupSize operations per transaction; 1 commits each one
+    * @param sink receives the output of the reports
+    */
+   public BatchRunner (DBProject esql, int groupSize, ResultSink sink) {
+      if (groupSize <= 0) {
+         throw new IllegalArgumentException ("Group size must be positive: " + groupSize);
+      }
+      this._esql = esql;
+      this._groupSize = groupSize;
+      this._sink = sink;
+   }//end BatchRunner
+
+   /**
+    * Runs every operation in the input and prints a throughput summary.
+    *
+    * @param in the command file
+    * @throws java.io.IOException when the input cannot be read
+    */
+   public void run (BufferedReader in) throws IOException {
+      long start = System.nanoTime ();
+      int lineNo = 0;
+      int pending = 0;
+      int groupStart = 0;
+      Operation[] group = new Operation[this._groupSize];
+
+      this._esql.openSession ();
+      try {
+         String line;
+         while ((line = in.readLine ()) != null) {
+            ++lineNo;
+            String trimmed = line.trim ();
+            if (trimmed.length () == 0 || trimmed.startsWith ("#")) {
+               continue;
+            }
+            String[] fields = line.split (",", -1);
+            Operation op = Operation.forName (fields[0].trim ());
+            if (op == null) {
+               System.err.println ("line " + lineNo + ": unknown operation '" + fields[0] + "'");
+               ++this._rejected;
+               continue;
+            }
+
+            try {
+               if (pending == 0) {
+                  groupStart = lineNo;
+                  if (this._groupSize > 1) {
+                     this._esql.beginTransaction ();
+                  }
+               }
+               op.execute (this._esql, Arrays.copyOfRange (fields, 1, fields.length), this._sink);
+               group[pending++] = op;
+               if (pending == this._groupSize) {
+                  commit (group, pending, groupStart);
+                  pending = 0;
+               }
+            } catch (RuntimeException e) {
+               // invalid input, rejected before anything was written.
+               System.err.println ("line " + lineNo + ": " + e.getMessage ());
+               ++this._failed[op.ordinal ()];
+            } catch (SQLException e) {
+               System.err.println ("line " + lineNo + ": " + e.getMessage ());
+               ++this._failed[op.ordinal ()];
+               if (this._groupSize > 1) {
+                  rollback (group, pending, groupStart);
+                  pending = 0;
+               }
+            }//end try
+         }//end while
+         if (pending > 0) {
+            commit (group, pending, groupStart);
+         }
+      } finally {
+         this._esql.rollback ();
+         this._esql.closeSession ();
+      }//end try
+
+      printSummary (System.nanoTime () - start);
+   }//end run
+
+   private void commit (Operation[] group, int count, int groupStart) {
+      try {
+         this._esql.commit ();
+         for (int i = 0; i < count; ++i) {
+            ++this._executed[group[i].ordinal ()];
+         }
+      } catch (SQLException e) {
+         System.err.println ("lines " + groupStart + "+: commit failed: " + e.getMessage ());
+         rollback (group, count, groupStart);
+      }//end try
+   }//end commit
+
+   private void rollback (Operation[] group, int count, int groupStart) {
+      this._esql.rollback ();
+      if (count > 0) {
+         System.err.println ("lines " + groupStart + "+: rolled back " + count +
+                             " earlier operation(s) in the same group");
+      }
+      for (int i = 0; i < count; ++i) {
+         ++this._failed[group[i].ordinal ()];
+      }
+      this._rolledBack += count;
+   }//end rollback
+
+   private void printSummary (long elapsedNanos) {
+      long executed = 0;
+      long failed = 0;
+      for (int i = 0; i < this._executed.length; ++i) {
+         executed += this._executed[i];
+         failed += this._failed[i];
+      }
+      double seconds = elapsedNanos / 1e9;
+      System.out.println ();
+      System.out.println ("BATCH SUMMARY");
+      System.out.println ("-------------");
+      System.out.println (String.format ("%d operations succeeded, %d failed (%d rolled back), %d unknown, in %.3fs: %.1f ops/sec",
+                                         executed, failed, this._rolledBack, this._rejected, seconds,
+                                         seconds > 0 ? executed / seconds : 0.0));
+      for (Operation op : Operation.values ()) {
+         int i = op.ordinal ();
+         if (this._executed[i] > 0 || this._failed[i] > 0) {
+            System.out.println (String.format ("\t%-36s %8d ok %8d failed",
+                                               op.operationName (), this._executed[i], this._failed[i]));
+         }
+      }//end for
+   }//end printSummary
+}//end BatchRunner
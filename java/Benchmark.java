@@ -0,0 +1,235 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times each DBProject operation end to end against a loaded database: the
+ * seven inserts, the nine reports, key generation by MAX() and by sequence,
+ * and checkErrors against an exists() probe.  Every benchmark runs single
+ * threaded in one session; after a warmup its latencies go into a
+ * LatencyHistogram and are reported as mean and percentiles.  Inputs are drawn from a KeySample of the data.
+ *
+ * Inserts run in a transaction that is rolled back, so the dataset is the
+ * same for every benchmark and every run.
+ *
+ * Runs are labelled, e.g. with the dataset and index variant, and can be
+ * appended to a CSV file so results from different runs can be compared;
+ * sql/measure.sh drives the with-index and without-index runs.
+ *
+ */
+public class Benchmark {
+
+   private final DBProject _esql;
+   private final KeySample _sample;
+   private final Random _rnd;
+   private final ResultSink _sink = new DiscardingResultSink ();
+
+   private final int _warmup;
+   private final int _iterations;
+
+   /**
+    * @param esql the database
+    * @param sample the keys to draw inputs from
+    * @param seed the seed for choosing inputs
+    * @param warmup untimed runs before each benchmark
+    * @param iterations timed runs of each benchmark
+    */
+   public Benchmark (DBProject esql, KeySample sample, long seed, int warmup, int iterations) {
+      this._esql = esql;
+      this._sample = sample;
+      this._rnd = new Random (seed);
+      this._warmup = warmup;
+      this._iterations = iterations;
+   }//end Benchmark
+
+   /**
+    * One timed unit of work.
+    */
+   private abstract class Case {
+      final String name;
+
+      Case (String name) {
+         this.name = name;
+      }
+
+      abstract void run () throws SQLException;
+   }//end Case
+
+   /**
+    * @return every benchmark, in menu order followed by the key lookups
+    */
+   private List<Case> cases () {
+      List<Case> cases = new ArrayList<Case> ();
+      for (final Operation op : Operation.values ()) {
+         cases.add (new Case (op.operationName ()) {
+            void run () throws SQLException {
+               execute (op);
+            }
+         });
+      }
+      cases.add (new Case ("nextBookingId.max") {
+         void run () throws SQLException {
+            // how bookRoom generated keys before the booking sequence.
+            _esql.checkErrors ("SELECT MAX(bID) FROM Booking");
+         }
+      });
+      cases.add (new Case ("nextBookingId.sequence") {
+         void run () throws SQLException {
+            _esql.queryInt (Query.NEXT_BOOKING_ID);
+         }
+      });
+      cases.add (new Case ("checkErrors") {
+         void run () throws SQLException {
+            _esql.checkErrors (Query.IS_MANAGER, Integer.valueOf (_sample.manager (_rnd)));
+         }
+      });
+      cases.add (new Case ("exists") {
+         void run () throws SQLException {
+            _esql.exists (Query.STAFF_EXISTS, Integer.valueOf (_sample.manager (_rnd)));
+         }
+      });
+      return cases;
+   }//end cases
+
+   private void execute (Operation op) throws SQLException {
+      String[] args = this._sample.args (op, this._rnd);
+      if (op.isReadOnly ()) {
+         op.execute (this._esql, args, this._sink);
+         return;
+      }
+      this._esql.beginTransaction ();
+      try {
+         op.execute (this._esql, args, this._sink);
+      } finally {
+         this._esql.rollback ();
+      }
+   }//end execute
+
+   /**
+    * Runs the benchmarks and prints one line per benchmark.
+    *
+    * @param only benchmark names to run, or null for all of them
+    * @param label identifies the run in the output
+    * @param csv a CSV file to append the results to, or null
+    * @throws java.io.IOException when the CSV file cannot be written
+    */
+   public void run (List<String> only, String label, String csv) throws IOException {
+      PrintWriter out = csv == null ? null : new PrintWriter (new FileWriter (csv, true));
+      System.out.println ("BENCHMARK " + label + " (" + this._warmup + " warmup, " +
+                          this._iterations + " measured)");
+      this._esql.openSession ();
+      try {
+         for (Case c : cases ()) {
+            if (only != null && !only.contains (c.name)) {
+               continue;
+            }
+            LatencyHistogram latency = new LatencyHistogram ();
+            int errors = measure (c, latency);
+            System.out.println (String.format ("%-36s %s errors=%d", c.name, latency.summary (), errors));
+            if (out != null) {
+               out.println (label + "," + c.name + "," + latency.count () + "," + errors + "," +
+                            latency.mean () / 1e3 + "," + latency.percentile (0.50) / 1e3 + "," +
+                            latency.percentile (0.99) / 1e3 + "," + latency.percentile (0.999) / 1e3 +
+                            "," + latency.max () / 1e3);
+            }
+         }//end for
+      } finally {
+         this._esql.closeSession ();
+         if (out != null) {
+            out.close ();
+         }
+      }//end try
+   }//end run
+
+   /*
+    * Warms a benchmark up, then records each timed run.  Failed runs are
+    * counted rather than timed.
+    */
+   private int measure (Case c, LatencyHistogram latency) {
+      int errors = 0;
+      String lastError = null;
+      for (int i = 0; i < this._warmup + this._iterations; ++i) {
+         long start = System.nanoTime ();
+         try {
+            c.run ();
+         } catch (SQLException e) {
+            ++errors;
+            lastError = e.getMessage ();
+            continue;
+         } catch (RuntimeException e) {
+            ++errors;
+            lastError = e.getMessage ();
+            continue;
+         }//end try
+         if (i >= this._warmup) {
+            latency.record (System.nanoTime () - start);
+         }
+      }//end for
+      if (lastError != null) {
+         System.err.println (c.name + ": " + lastError);
+      }
+      return errors;
+   }//end measure
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         usage ();
+         return;
+      }
+      int warmup = 100;
+      int iterations = 1000;
+      long seed = 42;
+      String label = "default";
+      String csv = null;
+      List<String> only = null;
+      try {
+         for (int i = 3; i < args.length; ++i) {
+            if (args[i].equals ("-warmup") && i + 1 < args.length) {
+               warmup = Integer.parseInt (args[++i]);
+            } else if (args[i].equals ("-iterations") && i + 1 < args.length) {
+               iterations = Integer.parseInt (args[++i]);
+            } else if (args[i].equals ("-seed") && i + 1 < args.length) {
+               seed = Long.parseLong (args[++i]);
+            } else if (args[i].equals ("-label") && i + 1 < args.length) {
+               label = args[++i];
+            } else if (args[i].equals ("-csv") && i + 1 < args.length) {
+               csv = args[++i];
+            } else if (args[i].equals ("-only") && i + 1 < args.length) {
+               only = Arrays.asList (args[++i].split (","));
+            } else {
+               throw new IllegalArgumentException ("Unrecognized option: " + args[i]);
+            }
+         }//end for
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+         usage ();
+         return;
+      }//end try
+
+      DBProject esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver");
+         esql = new DBProject (args[0], args[1], args[2], "");
+         KeySample sample = KeySample.load (esql, 1000);
+         new Benchmark (esql, sample, seed, warmup, iterations).run (only, label, csv);
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) {
+            esql.cleanup ();
+         }
+      }//end try
+   }//end main
+
+   public static void usage () {
+      System.err.println (
+         "Usage: java [-classpath <classpath>] " + Benchmark.class.getName () +
+         " <dbname> <port> <user> [-warmup <n>] [-iterations <n>] [-seed <n>]" +
+         " [-label <text>] [-csv <file>] [-only <name,...>]");
+   }//end usage
+}//end Benchmark
@@ -0,0 +1,64 @@
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a result in a compact binary row format that is quicker to write
+ * and read back than CSV and needs no quoting:
+ *
+ *    "DBPR" 1                  magic and format version
+ *    n name*n                  the column count and names
+ *    (1 value*n)*              a 1 byte before every row
+ *    0 rows                    a 0 byte and the row count
+ *
+ * Counts are unsigned LEB128 varints.  A name or value is a varint of its
+ * UTF-8 length plus one, then its bytes; a NULL value is the varint 0.
+ *
+ */
+public class BinaryResultSink extends ChannelResultSink {
+
+   private static final byte[] MAGIC = { 'D', 'B', 'P', 'R', 1 };
+
+   public BinaryResultSink (WritableByteChannel out) {
+      super (out);
+   }//end BinaryResultSink
+
+   public void columns (String[] names) throws IOException {
+      for (byte b : MAGIC) {
+         put (b);
+      }
+      varint (names.length);
+      for (String name : names) {
+         value (name);
+      }
+   }//end columns
+
+   public void row (String[] values) throws IOException {
+      put ((byte) 1);
+      for (String value : values) {
+         value (value);
+      }
+   }//end row
+
+   public void finish (int rowCount) throws IOException {
+      put ((byte) 0);
+      varint (rowCount);
+      super.finish (rowCount);
+   }//end finish
+
+   private void value (String value) throws IOException {
+      if (value == null) {
+         put ((byte) 0);
+         return;
+      }
+      varint (utf8Length (value) + 1L);
+      put (value);
+   }//end value
+
+   private void varint (long v) throws IOException {
+      while ((v & ~0x7FL) != 0) {
+         put ((byte) ((v & 0x7F) | 0x80));
+         v >>>= 7;
+      }
+      put ((byte) v);
+   }//end varint
+}//end BinaryResultSink
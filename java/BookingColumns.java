@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A column-wise copy of Booking held outside the Java heap, for the reports
+ * that aggregate over many bookings.  Each column (customer, hotel, room,
+ * booking date as an epoch day, price in cents) is a primitive int array in
+ * a direct buffer, split into chunks that also record their earliest and
+ * latest booking date, so a date-bounded report skips the chunks outside
+ * its range and runs a tight loop over the rest without touching the
+ * database.
+ *
+ * The snapshot is filled and appended to by BookingSnapshots.  It is read
+ * from Booking one month partition after another, so each chunk only spans
+ * a month or two and new bookings land in the last chunks.  There is a
+ * single writer; readers see every row appended before they start.
+ *
+ */
+public class BookingColumns {
+
+   // rows per chunk.
+   private static final int CHUNK = Integer.getInteger ("dbproject.bookingColumns.chunkRows", 1 << 16);
+
+   private final List<Chunk> _chunks = new ArrayList<Chunk> ();
+
+   // rows visible to readers; written after the row itself.
+   private volatile int _size = 0;
+
+   /*
+    * CHUNK rows of every column, with the range of their booking dates.
+    */
+   private static class Chunk {
+      final IntBuffer customer = column ();
+      final IntBuffer hotel = column ();
+      final IntBuffer room = column ();
+      final IntBuffer day = column ();
+      final IntBuffer cents = column ();
+      volatile int firstDay = Integer.MAX_VALUE;
+      volatile int lastDay = Integer.MIN_VALUE;
+
+      private static IntBuffer column () {
+         return ByteBuffer.allocateDirect (CHUNK * 4).order (ByteOrder.nativeOrder ()).asIntBuffer ();
+      }
+   }//end Chunk
+
+   /**
+    * Appends a booking.
+    *
+    * @param epochDay the booking date as days since 1970-01-01
+    * @param cents the price in cents
+    */
+   public synchronized void append (int customerid, int hotelid, int roomnum, int epochDay, int cents) {
+      int row = this._size;
+      if (row == this._chunks.size () * CHUNK) {
+         Chunk added = new Chunk ();
+         synchronized (this._chunks) {
+            this._chunks.add (added);
+         }
+      }
+      Chunk chunk = chunk (row / CHUNK);
+      int i = row % CHUNK;
+      chunk.customer.put (i, customerid);
+      chunk.hotel.put (i, hotelid);
+      chunk.room.put (i, roomnum);
+      chunk.day.put (i, epochDay);
+      chunk.cents.put (i, cents);
+      chunk.firstDay = Math.min (chunk.firstDay, epochDay);
+      chunk.lastDay = Math.max (chunk.lastDay, epochDay);
+      this._size = row + 1;
+   }//end append
+
+   /**
+    * @return the number of bookings held
+    */
+   public int size () {
+      return this._size;
+   }//end size
+
+   /**
+    * Sums the prices of a customer's bookings at a hotel in a date range,
+    * inclusive.
+    *
+    * @return the total in cents, or -1 if there is no such booking
+    */
+   public long totalCents (int customerid, int hotelid, int fromDay, int toDay) {
+      int size = this._size;
+      long total = 0;
+      int found = 0;
+      for (int c = 0; c * CHUNK < size; ++c) {
+         Chunk chunk = chunk (c);
+         if (chunk.lastDay < fromDay || chunk.firstDay > toDay) {
+            continue;
+         }
+         int rows = Math.min (CHUNK, size - c * CHUNK);
+         IntBuffer customer = chunk.customer;
+         IntBuffer hotel = chunk.hotel;
+         IntBuffer day = chunk.day;
+         IntBuffer cents = chunk.cents;
+         for (int i = 0; i < rows; ++i) {
+            int d = day.get (i);
+            // no branches on the data, so the loop can be unrolled and
+            // vectorized by the JIT.
+            int match = (customer.get (i) == customerid ? 1 : 0) & (hotel.get (i) == hotelid ? 1 : 0) &
+                        (d >= fromDay ? 1 : 0) & (d <= toDay ? 1 : 0);
+            total += match * (long) cents.get (i);
+            found += match;
+         }
+      }//end for
+      return found == 0 ? -1 : total;
+   }//end totalCents
+
+   /**
+    * @return the numbers of the hotel's rooms booked in a date range,
+    *         inclusive
+    */
+   public BitSet bookedRooms (int hotelid, int fromDay, int toDay) {
+      int size = this._size;
+      BitSet rooms = new BitSet ();
+      for (int c = 0; c * CHUNK < size; ++c) {
+         Chunk chunk = chunk (c);
+         if (chunk.lastDay < fromDay || chunk.firstDay > toDay) {
+            continue;
+         }
+         int rows = Math.min (CHUNK, size - c * CHUNK);
+         IntBuffer hotel = chunk.hotel;
+         IntBuffer room = chunk.room;
+         IntBuffer day = chunk.day;
+         for (int i = 0; i < rows; ++i) {
+            int d = day.get (i);
+            if (hotel.get (i) == hotelid && d >= fromDay && d <= toDay) {
+               rooms.set (room.get (i));
+            }
+         }
+      }//end for
+      return rooms;
+   }//end bookedRooms
+
+   /**
+    * Writes a customer's total at a hotel in a date range as the sum column
+    * of the report's query.
+    *
+    * @return the number of rows written
+    * @throws java.io.IOException when the sink cannot be written
+    */
+   public int totalCost (int customerid, int hotelid, int fromDay, int toDay, ResultSink sink) throws IOException {
+      long cents = totalCents (customerid, hotelid, fromDay, toDay);
+      sink.columns (new String[] { "sum" });
+      sink.row (new String[] { cents < 0 ? null : price (cents) });
+      sink.finish (1);
+      return 1;
+   }//end totalCost
+
+   /**
+    * Writes the rooms of a hotel booked in a date range as the roomno column
+    * of the report's query.
+    *
+    * @return the number of rows written
+    * @throws java.io.IOException when the sink cannot be written
+    */
+   public int weekBookings (int hotelid, int fromDay, int toDay, ResultSink sink) throws IOException {
+      BitSet rooms = bookedRooms (hotelid, fromDay, toDay);
+      sink.columns (new String[] { "roomno" });
+      String[] row = new String[1];
+      for (int room = rooms.nextSetBit (0); room >= 0; room = rooms.nextSetBit (room + 1)) {
+         row[0] = String.valueOf (room);
+         sink.row (row);
+      }
+      sink.finish (rooms.cardinality ());
+      return rooms.cardinality ();
+   }//end weekBookings
+
+   private Chunk chunk (int index) {
+      synchronized (this._chunks) {
+         return this._chunks.get (index);
+      }
+   }//end chunk
+
+   /*
+    * Formats cents as the server returns NUMERIC(6,2) sums.
+    */
+   private static String price (long cents) {
+      long fraction = cents % 100;
+      return (cents / 100) + (fraction < 10 ? ".0" : ".") + fraction;
+   }//end price
+}//end BookingColumns
@@ -0,0 +1,343 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the in-memory copies of Booking (OccupancyIndex, PriceIndex and
+ * BookingColumns) and keeps them current.  They are built on first use by a
+ * report, in the background, and not when DBProject connects, so runs that
+ * never need them never scan Booking.  The build reads every room and
+ * booking in one statement, on a replica when replicas are configured.
+ *
+ * After that the copies are refreshed, never rebuilt: sql/create.sql logs
+ * every booking and room added to BookingChange with the transaction that
+ * added it, and a refresh reads only the entries of transactions the last
+ * read's txid_current_snapshot() did not see, through the index on the
+ * transaction.  That catches bookings whose IDs commit out of order, and
+ * those of other clients, BulkLoader or another HTTP server.  This
+ * process's bookings and new rooms also reach the copies as soon as they
+ * commit, so they show up before the next refresh.  Every booking is
+ * applied once, whichever way it arrives first: a room is booked at most
+ * once a day (bookingRoomDateUnique), and a booking whose room and day are
+ * already taken in the copy is skipped.  The copies are only built again
+ * when PartitionManager has pruned log entries a refresh still needed.
+ *
+ * A report that finds the copies older than refreshMs starts a refresh;
+ * copies older than maxAgeMs, e.g. while the replicas lag or the database
+ * cannot be reached, are not used and the reports read the database.
+ *
+ *    dbproject.occupancyIndex          keep OccupancyIndex (default true)
+ *    dbproject.priceIndex              keep PriceIndex (default true)
+ *    dbproject.bookingColumns          keep BookingColumns (default true)
+ *    dbproject.snapshots.refreshMs     age after which a report starts a
+ *                                      refresh (default 1000, 0 for never)
+ *    dbproject.snapshots.maxAgeMs      age after which the copies are not
+ *                                      used (default 60000, 0 for never)
+ *
+ */
+public class BookingSnapshots {
+
+   /**
+    * The copies; a copy that is disabled is null.
+    */
+   public static class Snapshot {
+      public final OccupancyIndex occupancy;
+      public final PriceIndex prices;
+      public final BookingColumns columns;
+      // the rooms and booked days applied, which tells a booking that
+      // arrives twice; the occupancy index itself when it is kept.
+      final OccupancyIndex seen;
+      // the txid_current_snapshot() the copies are current to, and when
+      // it was read; written by the refresh thread only.
+      volatile String txids;
+      volatile long readAt;
+
+      Snapshot (OccupancyIndex seen, boolean occupancy, PriceIndex prices, BookingColumns columns) {
+         this.seen = seen;
+         this.occupancy = occupancy ? seen : null;
+         this.prices = prices;
+         this.columns = columns;
+      }
+   }//end Snapshot
+
+   /*
+    * A write this process committed while the copies were being built,
+    * applied to them once the build is done.
+    */
+   private abstract static class Change {
+      abstract void apply (Snapshot snapshot);
+   }//end Change
+
+   private final DBProject _esql;
+   private final boolean _occupancy;
+   private final boolean _prices;
+   private final boolean _columns;
+   private final long _refreshNanos;
+   private final long _maxAgeNanos;
+
+   private volatile Snapshot _current;
+
+   // guarded by this: whether a refresh runs, and the writes committed
+   // while a build runs, or null when none does.
+   private boolean _running = false;
+   private List<Change> _changes;
+   private boolean _closed = false;
+
+   /**
+    * @param esql the database to read from
+    * @param refreshMillis the age after which a refresh starts, or 0 to keep
+    *        the copies as first built
+    * @param maxAgeMillis the age after which the copies are not used, or 0
+    *        to use them however old
+    */
+   public BookingSnapshots (DBProject esql, boolean occupancy, boolean prices, boolean columns,
+                            long refreshMillis, long maxAgeMillis) {
+      this._esql = esql;
+      this._occupancy = occupancy;
+      this._prices = prices;
+      this._columns = columns;
+      this._refreshNanos = TimeUnit.MILLISECONDS.toNanos (refreshMillis);
+      this._maxAgeNanos = TimeUnit.MILLISECONDS.toNanos (maxAgeMillis);
+   }//end BookingSnapshots
+
+   /**
+    * Creates the snapshots from the dbproject.* system properties.
+    */
+   public static BookingSnapshots fromProperties (DBProject esql) {
+      return new BookingSnapshots (esql,
+                                   Boolean.parseBoolean (System.getProperty ("dbproject.occupancyIndex", "true")),
+                                   Boolean.parseBoolean (System.getProperty ("dbproject.priceIndex", "true")),
+                                   Boolean.parseBoolean (System.getProperty ("dbproject.bookingColumns", "true")),
+                                   Long.getLong ("dbproject.snapshots.refreshMs", 1000L),
+                                   Long.getLong ("dbproject.snapshots.maxAgeMs", 60000L));
+   }//end fromProperties
+
+   /**
+    * Returns the copies if they are recent enough to use.
+    *
+    * @param refresh true to start building or refreshing the copies when
+    *        they are missing or old; writers pass false so they never do
+    * @return the copies, or null when the database must be read instead
+    */
+   public Snapshot fresh (boolean refresh) {
+      if (!this._occupancy && !this._prices && !this._columns) {
+         return null;
+      }
+      Snapshot current = this._current;
+      long age = current == null ? Long.MAX_VALUE : System.nanoTime () - current.readAt;
+      if (refresh && (current == null || this._refreshNanos > 0 && age >= this._refreshNanos)) {
+         startRefresh ();
+      }
+      if (current != null && (this._maxAgeNanos == 0 || age < this._maxAgeNanos)) {
+         return current;
+      }
+      return null;
+   }//end fresh
+
+   /**
+    * Records a committed booking.
+    *
+    * @param bookingdate the booking date
+    * @param cents the price in cents
+    */
+   public void book (final int bookingid, final int customerid, final int hotelid, final int roomnum,
+                     java.sql.Date bookingdate, final int cents) {
+      final int day = Params.epochDay (bookingdate);
+      record (new Change () {
+         void apply (Snapshot snapshot) {
+            BookingSnapshots.book (snapshot, bookingid, customerid, hotelid, roomnum, day, cents);
+         }
+      });
+   }//end book
+
+   /**
+    * Records a committed new room.
+    */
+   public void addRoom (final int hotelid, final int roomnum) {
+      record (new Change () {
+         void apply (Snapshot snapshot) {
+            snapshot.seen.addRoom (hotelid, roomnum);
+         }
+      });
+   }//end addRoom
+
+   /**
+    * Stops starting refreshes; a running one is abandoned.
+    */
+   public synchronized void close () {
+      this._closed = true;
+   }//end close
+
+   /*
+    * Applies a booking unless its room is already booked that day.  Callers
+    * hold the lock on this.
+    */
+   private static void book (Snapshot snapshot, int bookingid, int customerid, int hotelid, int roomnum,
+                             int day, int cents) {
+      if (snapshot.seen.isBooked (hotelid, roomnum, day)) {
+         return;
+      }
+      snapshot.seen.book (hotelid, roomnum, day);
+      if (snapshot.prices != null) {
+         snapshot.prices.book (bookingid, customerid, day, cents);
+      }
+      if (snapshot.columns != null) {
+         snapshot.columns.append (customerid, hotelid, roomnum, day, cents);
+      }
+   }//end book
+
+   /*
+    * Applies a write to the current copies and, while they are being built,
+    * keeps it for the new ones.
+    */
+   private synchronized void record (Change change) {
+      Snapshot current = this._current;
+      if (current != null) {
+         change.apply (current);
+      }
+      if (this._changes != null) {
+         this._changes.add (change);
+      }
+   }//end record
+
+   private synchronized void startRefresh () {
+      if (this._running || this._closed) {
+         return;
+      }
+      this._running = true;
+      Thread refresher = new Thread (new Runnable () {
+         public void run () {
+            refresh ();
+         }
+      }, "booking-snapshots");
+      refresher.setDaemon (true);
+      refresher.start ();
+   }//end startRefresh
+
+   private void refresh () {
+      // reads go to a replica when there are replicas.
+      this._esql.setReadOnly (true);
+      try {
+         Snapshot current = this._current;
+         if (current == null || !readChanges (current)) {
+            build ();
+         }
+      } catch (Exception e) {
+         synchronized (this) {
+            if (this._closed) {
+               return;
+            }
+         }
+         System.err.println ("Unable to refresh the booking snapshots: " + e.getMessage ());
+      } finally {
+         synchronized (this) {
+            this._running = false;
+            this._changes = null;
+         }
+      }//end try
+   }//end refresh
+
+   /*
+    * Reads every room and booking into new copies and replaces the current
+    * ones, which are dropped first so two full sets are never held.
+    */
+   private void build () throws SQLException {
+      synchronized (this) {
+         // recording starts before the build's rows are read.
+         this._changes = new ArrayList<Change> ();
+         this._current = null;
+      }
+      long start = System.nanoTime ();
+      final Snapshot built = new Snapshot (new OccupancyIndex (), this._occupancy,
+                                           this._prices ? new PriceIndex () : null,
+                                           this._columns ? new BookingColumns () : null);
+      this._esql.executeQuery (Query.SNAPSHOT_ROWS, new DiscardingResultSink () {
+         public void row (String[] values) {
+            if (values[0] != null) {
+               built.txids = values[0];
+            } else if (values[1] == null) {
+               built.seen.addRoom (Integer.parseInt (values[3]), Integer.parseInt (values[4]));
+            } else {
+               // a room is booked at most once a day, so nothing is skipped.
+               int bookingid = Integer.parseInt (values[1]);
+               int customerid = Integer.parseInt (values[2]);
+               int hotelid = Integer.parseInt (values[3]);
+               int roomnum = Integer.parseInt (values[4]);
+               int day = Params.epochDay (values[5]);
+               int cents = cents (values[6]);
+               built.seen.book (hotelid, roomnum, day);
+               if (built.prices != null) {
+                  built.prices.append (bookingid, customerid, day, cents);
+               }
+               if (built.columns != null) {
+                  built.columns.append (customerid, hotelid, roomnum, day, cents);
+               }
+            }
+         }
+      });
+      if (built.prices != null) {
+         built.prices.sort ();
+      }
+      built.readAt = start;
+      synchronized (this) {
+         // the writes the build already read are skipped.
+         for (Change change : this._changes) {
+            change.apply (built);
+         }
+         this._changes = null;
+         if (!this._closed) {
+            this._current = built;
+         }
+      }
+   }//end build
+
+   /*
+    * Applies the rooms and bookings logged since the copies were last read.
+    *
+    * @return false if log entries the copies need were pruned, so they
+    *         must be built again
+    */
+   private boolean readChanges (final Snapshot current) throws SQLException {
+      long start = System.nanoTime ();
+      final String[] read = new String[2];
+      this._esql.executeQuery (Query.SNAPSHOT_CHANGES, new DiscardingResultSink () {
+         public void row (String[] values) {
+            if (values[0] != null) {
+               read[0] = values[0];
+               read[1] = values[1];
+            } else if (values[1] == null) {
+               synchronized (BookingSnapshots.this) {
+                  current.seen.addRoom (Integer.parseInt (values[3]), Integer.parseInt (values[4]));
+               }
+            } else {
+               synchronized (BookingSnapshots.this) {
+                  book (current, Integer.parseInt (values[1]), Integer.parseInt (values[2]),
+                        Integer.parseInt (values[3]), Integer.parseInt (values[4]),
+                        Params.epochDay (values[5]), cents (values[6]));
+               }
+            }
+         }
+      }, current.txids, current.txids);
+      // transactions below the old snapshot's xmin were all seen by it.
+      if (Long.parseLong (read[1]) > xmin (current.txids)) {
+         return false;
+      }
+      current.txids = read[0];
+      current.readAt = start;
+      return true;
+   }//end readChanges
+
+   /*
+    * Returns the oldest transaction still running in a
+    * txid_current_snapshot() value, written xmin:xmax:xip,...
+    */
+   private static long xmin (String txids) {
+      return Long.parseLong (txids.substring (0, txids.indexOf (':')));
+   }//end xmin
+
+   private static int cents (String price) {
+      return new BigDecimal (price).movePointRight (2).intValue ();
+   }//end cents
+}//end BookingSnapshots
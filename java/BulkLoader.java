@@ -0,0 +1,370 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Creates the database from sql/create.sql and loads data/*.csv over the
+ * client connection, without copying the files into the server's data
+ * directory.  The script is run in phases:
+ *
+ *    1. the DROP and CREATE statements before the first COPY, with the
+ *       primary keys and ALTER TABLE constraints taken out,
+ *    2. every COPY, rewritten to read from the client, loading independent
+ *       tables in parallel,
+ *    3. the statements after the first COPY, in order,
+ *    4. the primary keys (in parallel), then the constraints,
+ *    5. optionally an index script such as sql/create_indexes.sql,
+ *    6. ANALYZE.
+ *
+ * Building the indexes and checking the constraints once over the loaded
+ * tables is much faster than maintaining them row by row.
+ *
+ */
+public class BulkLoader {
+
+   private static final Pattern COPY = Pattern.compile (
+      "COPY\\s+(\\w+)\\s*\\((.*?)\\)\\s*FROM\\s+'([^']+)'\\s*(?:WITH\\s+)?(?:DELIMITER\\s+'(.)')?.*",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+   private static final Pattern CREATE_TABLE = Pattern.compile (
+      "CREATE\\s+TABLE\\s+(\\w+).*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+   private static final Pattern PRIMARY_KEY = Pattern.compile (
+      ",\\s*PRIMARY\\s+KEY\\s*\\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+
+   private final ConnectionPool _pool;
+   private final File _dataDir;
+   private final int _threads;
+
+   /*
+    * A COPY statement from the script.
+    */
+   private static class Copy {
+      final String table;
+      final String columns;
+      final String file;
+      final char delimiter;
+
+      Copy (String table, String columns, String file, char delimiter) {
+         this.table = table;
+         this.columns = columns;
+         this.file = file;
+         this.delimiter = delimiter;
+      }
+   }//end Copy
+
+   /**
+    * @param pool connections to load through, at least threads of them
+    * @param dataDir the folder holding the files named in the COPY statements
+    * @param threads how many tables to load at once
+    */
+   public BulkLoader (ConnectionPool pool, File dataDir, int threads) {
+      this._pool = pool;
+      this._dataDir = dataDir;
+      this._threads = threads;
+   }//end BulkLoader
+
+   /**
+    * Runs a schema script, loading its COPY statements from the data folder,
+    * then an optional index script, then ANALYZE.
+    *
+    * @param schema the schema script, e.g. sql/create.sql
+    * @param indexes an index script, or null
+    * @throws java.sql.SQLException when a statement failed
+    * @throws java.io.IOException when a file cannot be read
+    */
+   public void load (File schema, File indexes) throws SQLException, IOException {
+      List<String> preLoad = new ArrayList<String> ();
+      List<Copy> copies = new ArrayList<Copy> ();
+      List<String> postLoad = new ArrayList<String> ();
+      List<String> primaryKeys = new ArrayList<String> ();
+      List<String> constraints = new ArrayList<String> ();
+
+      for (String stmt : statements (read (schema))) {
+         Matcher copy = COPY.matcher (stmt);
+         if (copy.matches ()) {
+            char delimiter = copy.group (4) == null ? '\t' : copy.group (4).charAt (0);
+            copies.add (new Copy (copy.group (1), copy.group (2).replaceAll ("\\s+", " ").trim (),
+                                  copy.group (3), delimiter));
+         } else if (isConstraint (stmt)) {
+            constraints.add (stmt);
+         } else if (!copies.isEmpty ()) {
+            postLoad.add (stmt);
+         } else {
+            Matcher table = CREATE_TABLE.matcher (stmt);
+            Matcher pk = PRIMARY_KEY.matcher (stmt);
+            if (table.matches () && pk.find ()) {
+               primaryKeys.add ("ALTER TABLE " + table.group (1) + " ADD PRIMARY KEY (" + pk.group (1) + ")");
+               stmt = stmt.substring (0, pk.start ()) + stmt.substring (pk.end ());
+            }
+            preLoad.add (stmt);
+         }
+      }//end for
+
+      long start = System.nanoTime ();
+      phase ("schema", preLoad, false);
+      copyAll (copies);
+      phase ("post-load statements", postLoad, false);
+      phase ("primary keys", primaryKeys, true);
+      phase ("constraints", constraints, false);
+      if (indexes != null) {
+         List<String> drops = new ArrayList<String> ();
+         List<String> creates = new ArrayList<String> ();
+         for (String stmt : statements (read (indexes))) {
+            (stmt.toUpperCase ().startsWith ("CREATE") ? creates : drops).add (stmt);
+         }
+         phase ("drop indexes", drops, false);
+         phase ("indexes", creates, true);
+      }
+      List<String> analyze = new ArrayList<String> ();
+      analyze.add ("ANALYZE");
+      phase ("analyze", analyze, false);
+      System.out.println (String.format ("Loaded in %.1fs", (System.nanoTime () - start) / 1e9));
+   }//end load
+
+   /*
+    * Loads every table, several at a time.
+    */
+   private void copyAll (List<Copy> copies) throws SQLException, IOException {
+      System.out.println ("Loading " + copies.size () + " tables with " + this._threads + " threads, sending " +
+                          PgCopy.method ());
+      if (PgCopy.inserts ()) {
+         System.out.println ("WARNING: the rows are not loaded with COPY; leave dbproject.copy unset to use it");
+      }
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>> ();
+      for (final Copy copy : copies) {
+         tasks.add (new Callable<Void> () {
+            public Void call () throws Exception {
+               long start = System.nanoTime ();
+               PooledConnection pc = _pool.borrow ();
+               InputStream in = new BufferedInputStream (
+                  new FileInputStream (new File (_dataDir, copy.file)), 1 << 16);
+               try {
+                  long rows = PgCopy.copyIn (pc, copy.table, copy.columns,
+                                             copy.delimiter, in);
+                  System.out.println (String.format ("   %-20s %10d rows %8.1fs", copy.table, rows,
+                                                     (System.nanoTime () - start) / 1e9));
+               } catch (SQLException e) {
+                  pc.markBroken ();
+                  throw new SQLException ("Loading " + copy.file + " into " + copy.table + " failed: " +
+                                          e.getMessage (), e.getSQLState (), e);
+               } finally {
+                  in.close ();
+                  _pool.release (pc);
+               }
+               return null;
+            }
+         });
+      }//end for
+      runAll (tasks);
+   }//end copyAll
+
+   /*
+    * Runs statements in order, or all at once when they are independent.
+    */
+   private void phase (String name, List<String> stmts, boolean parallel) throws SQLException, IOException {
+      if (stmts.isEmpty ()) {
+         return;
+      }
+      long start = System.nanoTime ();
+      if (parallel) {
+         List<Callable<Void>> tasks = new ArrayList<Callable<Void>> ();
+         for (final String stmt : stmts) {
+            tasks.add (new Callable<Void> () {
+               public Void call () throws Exception {
+                  execute (stmt);
+                  return null;
+               }
+            });
+         }
+         runAll (tasks);
+      } else {
+         for (String stmt : stmts) {
+            execute (stmt);
+         }
+      }
+      System.out.println (String.format ("%s: %d statements in %.1fs", name, stmts.size (),
+                                         (System.nanoTime () - start) / 1e9));
+   }//end phase
+
+   private void execute (String sql) throws SQLException {
+      PooledConnection pc = this._pool.borrow ();
+      try {
+         Statement stmt = pc.connection ().createStatement ();
+         try {
+            stmt.execute (sql);
+         } finally {
+            stmt.close ();
+         }
+      } catch (SQLException e) {
+         pc.markBroken ();
+         throw new SQLException (e.getMessage () + "\n   in: " + sql, e.getSQLState (), e);
+      } finally {
+         this._pool.release (pc);
+      }
+   }//end execute
+
+   private void runAll (List<Callable<Void>> tasks) throws SQLException, IOException {
+      ExecutorService executor = Executors.newFixedThreadPool (this._threads);
+      try {
+         for (Future<Void> f : executor.invokeAll (tasks)) {
+            f.get ();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread ().interrupt ();
+         throw new SQLException ("Interrupted while loading");
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause ();
+         if (cause instanceof SQLException) {
+            throw (SQLException) cause;
+         }
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         throw new RuntimeException (cause);
+      } finally {
+         executor.shutdownNow ();
+      }//end try
+   }//end runAll
+
+   private static boolean isConstraint (String stmt) {
+      String upper = stmt.toUpperCase ();
+      return upper.startsWith ("ALTER TABLE") && upper.contains ("ADD CONSTRAINT");
+   }//end isConstraint
+
+   private static String read (File file) throws IOException {
+      return new String (Files.readAllBytes (file.toPath ()), Charset.forName ("UTF-8"));
+   }//end read
+
+   /**
+    * Splits a script into statements at semicolons, skipping comments and
+    * leaving quoted strings, quoted names and $$ dollar quoted bodies whole.
+    *
+    * @param script the SQL script
+    * @return the statements without their semicolons
+    */
+   public static List<String> statements (String script) {
+      List<String> stmts = new ArrayList<String> ();
+      StringBuilder current = new StringBuilder ();
+      int i = 0;
+      int n = script.length ();
+      while (i < n) {
+         char c = script.charAt (i);
+         if (c == '-' && i + 1 < n && script.charAt (i + 1) == '-') {
+            while (i < n && script.charAt (i) != '\n') {
+               ++i;
+            }
+         } else if (c == '/' && i + 1 < n && script.charAt (i + 1) == '*') {
+            int end = script.indexOf ("*/", i + 2);
+            i = end < 0 ? n : end + 2;
+         } else if (c == '\'' || c == '"') {
+            int end = i + 1;
+            while (end < n && script.charAt (end) != c) {
+               ++end;
+            }
+            current.append (script, i, Math.min (end + 1, n));
+            i = end + 1;
+         } else if (c == '$' && dollarTag (script, i) != null) {
+            String tag = dollarTag (script, i);
+            int end = script.indexOf (tag, i + tag.length ());
+            end = end < 0 ? n : end + tag.length ();
+            current.append (script, i, end);
+            i = end;
+         } else if (c == ';') {
+            add (stmts, current);
+            ++i;
+         } else {
+            current.append (c);
+            ++i;
+         }
+      }//end while
+      add (stmts, current);
+      return stmts;
+   }//end statements
+
+   /*
+    * Returns the $tag$ starting at i, or null if there is none.
+    */
+   private static String dollarTag (String script, int i) {
+      int j = i + 1;
+      while (j < script.length () && (Character.isLetterOrDigit (script.charAt (j)) || script.charAt (j) == '_')) {
+         ++j;
+      }
+      return j < script.length () && script.charAt (j) == '$' ? script.substring (i, j + 1) : null;
+   }//end dollarTag
+
+   private static void add (List<String> stmts, StringBuilder current) {
+      String stmt = current.toString ().trim ();
+      if (stmt.length () > 0) {
+         stmts.add (stmt);
+      }
+      current.setLength (0);
+   }//end add
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         usage ();
+         return;
+      }
+      File schema = new File ("../sql/create.sql");
+      File dataDir = new File ("../data");
+      File indexes = null;
+      int threads = Integer.getInteger ("dbproject.load.threads", 4);
+      try {
+         for (int i = 3; i < args.length; ++i) {
+            if (args[i].equals ("-schema") && i + 1 < args.length) {
+               schema = new File (args[++i]);
+            } else if (args[i].equals ("-data") && i + 1 < args.length) {
+               dataDir = new File (args[++i]);
+            } else if (args[i].equals ("-indexes") && i + 1 < args.length) {
+               indexes = new File (args[++i]);
+            } else if (args[i].equals ("-threads") && i + 1 < args.length) {
+               threads = Integer.parseInt (args[++i]);
+            } else {
+               throw new IllegalArgumentException ("Unrecognized option: " + args[i]);
+            }
+         }//end for
+         if (threads <= 0) {
+            throw new IllegalArgumentException ("The number of threads must be positive: " + threads);
+         }
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+         usage ();
+         return;
+      }//end try
+
+      ConnectionPool pool = null;
+      try {
+         Class.forName ("org.postgresql.Driver");
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         pool = new ConnectionPool (url, args[2], "", threads, 0, Long.MAX_VALUE / 2, 300000L, 5000L);
+         new BulkLoader (pool, dataDir, threads).load (schema, indexes);
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (pool != null) {
+            pool.close ();
+         }
+      }//end try
+   }//end main
+
+   public static void usage () {
+      System.err.println (
+         "Usage: java [-classpath <classpath>] " + BulkLoader.class.getName () +
+         " <dbname> <port> <user> [-schema <create.sql>] [-data <csv folder>]" +
+         " [-indexes <create_indexes.sql>] [-threads <n>]");
+   }//end usage
+}//end BulkLoader
@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Base of the sinks that write a result to a file.  Rows are encoded into
+ * one direct buffer that is written to the channel whenever it fills, so an
+ * export of any size uses the same small amount of memory and the bytes go
+ * from the buffer to the file without another copy.  The channel is not
+ * closed.
+ *
+ */
+public abstract class ChannelResultSink implements ResultSink {
+
+   private static final int BUFFER_SIZE = Integer.getInteger ("dbproject.export.bufferSize", 1 << 20);
+
+   private final WritableByteChannel _out;
+   private final ByteBuffer _buffer = ByteBuffer.allocateDirect (BUFFER_SIZE);
+   private final CharsetEncoder _encoder = Charset.forName ("UTF-8").newEncoder ()
+      .onMalformedInput (CodingErrorAction.REPLACE).onUnmappableCharacter (CodingErrorAction.REPLACE);
+
+   // bytes written to the channel so far.
+   private long _written = 0;
+
+   protected ChannelResultSink (WritableByteChannel out) {
+      this._out = out;
+   }//end ChannelResultSink
+
+   public void finish (int rowCount) throws IOException {
+      drain ();
+   }//end finish
+
+   /**
+    * Files hold one page as it is; the token is not written.
+    */
+   public void nextPage (String token) {
+   }//end nextPage
+
+   /**
+    * @return the bytes written to the channel so far
+    */
+   public long written () {
+      return this._written;
+   }//end written
+
+   protected void put (byte b) throws IOException {
+      if (!this._buffer.hasRemaining ()) {
+         drain ();
+      }
+      this._buffer.put (b);
+   }//end put
+
+   /**
+    * Writes a string as UTF-8.
+    */
+   protected void put (String s) throws IOException {
+      int n = s.length ();
+      int i = 0;
+      // ASCII, the common case, is copied a byte at a time.
+      while (i < n && s.charAt (i) < 0x80) {
+         put ((byte) s.charAt (i++));
+      }
+      if (i == n) {
+         return;
+      }
+      CharBuffer chars = CharBuffer.wrap (s, i, n);
+      this._encoder.reset ();
+      while (this._encoder.encode (chars, this._buffer, true).isOverflow ()) {
+         drain ();
+      }
+      while (this._encoder.flush (this._buffer).isOverflow ()) {
+         drain ();
+      }
+   }//end put
+
+   /**
+    * @return the length of a string in UTF-8
+    */
+   protected static int utf8Length (String s) {
+      int length = 0;
+      for (int i = 0; i < s.length (); ++i) {
+         char c = s.charAt (i);
+         if (c < 0x80) {
+            length += 1;
+         } else if (c < 0x800) {
+            length += 2;
+         } else if (Character.isHighSurrogate (c) && i + 1 < s.length ()
+                    && Character.isLowSurrogate (s.charAt (i + 1))) {
+            length += 4;
+            ++i;
+         } else {
+            // lone surrogates are replaced by '?'.
+            length += Character.isSurrogate (c) ? 1 : 3;
+         }
+      }//end for
+      return length;
+   }//end utf8Length
+
+   /**
+    * Writes out the buffered bytes.
+    */
+   protected void drain () throws IOException {
+      this._buffer.flip ();
+      while (this._buffer.hasRemaining ()) {
+         this._written += this._out.write (this._buffer);
+      }
+      this._buffer.clear ();
+   }//end drain
+}//end ChannelResultSink
@@ -0,0 +1,280 @@
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of PostgreSQL connections.  At most maxSize connections are
+ * open at once; callers that find the pool exhausted wait up to maxWait for
+ * one to be released.  Idle connections are validated before reuse when they
+ * have been idle for a while, and closed by a background evictor once they
+ * exceed the idle timeout.
+ *
+ * Settings are read from system properties:
+ *    dbproject.pool.maxSize        maximum open connections (default 8)
+ *    dbproject.pool.minIdle        idle connections kept by the evictor (default 1)
+ *    dbproject.pool.maxWaitMs      how long borrow() waits (default 30000)
+ *    dbproject.pool.idleTimeoutMs  idle time before eviction (default 300000)
+ *    dbproject.pool.validateMs     idle time before validation (default 5000)
+ *
+ */
+public class ConnectionPool {
+
+   // connection parameters.
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+
+   // pool limits.
+   private final int _maxSize;
+   private final int _minIdle;
+   private final long _maxWaitMillis;
+   private final long _idleTimeoutMillis;
+   private final long _validateMillis;
+
+   // one permit per connection that may be handed out.
+   private final Semaphore _permits;
+
+   // idle connections, most recently used first.
+   private final LinkedBlockingDeque<PooledConnection> _idle =
+      new LinkedBlockingDeque<PooledConnection> ();
+
+   private final ScheduledExecutorService _evictor;
+   private volatile boolean _closed = false;
+
+   // usage metrics.
+   private final AtomicInteger _open = new AtomicInteger ();
+   private final AtomicInteger _active = new AtomicInteger ();
+   private final AtomicInteger _peakActive = new AtomicInteger ();
+   private final AtomicLong _borrows = new AtomicLong ();
+   private final AtomicLong _waitNanos = new AtomicLong ();
+   private final AtomicLong _maxWaitNanos = new AtomicLong ();
+   private final AtomicLong _timeouts = new AtomicLong ();
+   private final AtomicLong _created = new AtomicLong ();
+   private final AtomicLong _evicted = new AtomicLong ();
+   private final AtomicLong _invalidated = new AtomicLong ();
+
+   /**
+    * Creates a pool configured from the dbproject.pool.* system properties.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    */
+   public ConnectionPool (String url, String user, String passwd) {
+      this (url, user, passwd,
+            Integer.getInteger ("dbproject.pool.maxSize", 8),
+            Integer.getInteger ("dbproject.pool.minIdle", 1),
+            Long.getLong ("dbproject.pool.maxWaitMs", 30000L),
+            Long.getLong ("dbproject.pool.idleTimeoutMs", 300000L),
+            Long.getLong ("dbproject.pool.validateMs", 5000L));
+   }//end ConnectionPool
+
+   public ConnectionPool (String url, String user, String passwd, int maxSize,
+                          int minIdle, long maxWaitMillis, long idleTimeoutMillis,
+                          long validateMillis) {
+      if (maxSize <= 0) {
+         throw new IllegalArgumentException ("Pool size must be positive: " + maxSize);
+      }
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = maxSize;
+      this._minIdle = Math.max (0, Math.min (minIdle, maxSize));
+      this._maxWaitMillis = maxWaitMillis;
+      this._idleTimeoutMillis = idleTimeoutMillis;
+      this._validateMillis = validateMillis;
+      this._permits = new Semaphore (maxSize, true);
+
+      this._evictor = Executors.newSingleThreadScheduledExecutor (new ThreadFactory () {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread (r, "pool-evictor");
+            t.setDaemon (true);
+            return t;
+         }
+      });
+      long period = Math.max (1000L, idleTimeoutMillis / 2);
+      this._evictor.scheduleWithFixedDelay (new Runnable () {
+         public void run () {
+            evictIdle ();
+         }
+      }, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection, waiting up to maxWait if all are in use.  Every
+    * borrowed connection must be handed back with release().
+    *
+    * @return a validated connection
+    * @throws java.sql.SQLException when the pool is exhausted or a new
+    *         connection cannot be opened
+    */
+   public PooledConnection borrow () throws SQLException {
+      if (this._closed) {
+         throw new SQLException ("Connection pool is closed");
+      }
+      long start = System.nanoTime ();
+      try {
+         if (!this._permits.tryAcquire (this._maxWaitMillis, TimeUnit.MILLISECONDS)) {
+            this._timeouts.incrementAndGet ();
+            throw new SQLException ("Timed out after " + this._maxWaitMillis +
+                                    "ms waiting for a database connection");
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread ().interrupt ();
+         throw new SQLException ("Interrupted while waiting for a database connection");
+      }//end try
+      recordWait (System.nanoTime () - start);
+
+      try {
+         PooledConnection pc;
+         while ((pc = this._idle.pollFirst ()) != null) {
+            long idleFor = System.currentTimeMillis () - pc.lastUsed ();
+            if (idleFor < this._validateMillis || pc.validate ()) {
+               break;
+            }
+            this._invalidated.incrementAndGet ();
+            discard (pc);
+         }//end while
+         if (pc == null) {
+            pc = open ();
+         }
+         this._borrows.incrementAndGet ();
+         int active = this._active.incrementAndGet ();
+         int peak;
+         while (active > (peak = this._peakActive.get ())
+                && !this._peakActive.compareAndSet (peak, active)) {
+            // retry until the peak reflects this borrow.
+         }
+         return pc;
+      } catch (SQLException e) {
+         this._permits.release ();
+         throw e;
+      } catch (RuntimeException e) {
+         this._permits.release ();
+         throw e;
+      }//end try
+   }//end borrow
+
+   /**
+    * Hands a borrowed connection back to the pool.  Broken or closed
+    * connections are discarded rather than reused.
+    *
+    * @param pc the connection obtained from borrow()
+    */
+   public void release (PooledConnection pc) {
+      if (pc == null) {
+         return;
+      }
+      this._active.decrementAndGet ();
+      try {
+         boolean reusable = !this._closed && !pc.isBroken ();
+         if (reusable) {
+            try {
+               pc.reset ();
+               reusable = !pc.connection ().isClosed ();
+            } catch (SQLException e) {
+               reusable = false;
+            }//end try
+         }
+         if (reusable) {
+            pc.touch ();
+            this._idle.offerFirst (pc);
+         } else {
+            this._invalidated.incrementAndGet ();
+            discard (pc);
+         }
+      } finally {
+         this._permits.release ();
+      }//end try
+   }//end release
+
+   /**
+    * Closes every idle connection and stops the evictor.  Connections still
+    * borrowed are closed as they are released.
+    */
+   public void close () {
+      this._closed = true;
+      this._evictor.shutdownNow ();
+      PooledConnection pc;
+      while ((pc = this._idle.pollFirst ()) != null) {
+         discard (pc);
+      }
+   }//end close
+
+   /**
+    * @return a one line summary of pool usage
+    */
+   public String stats () {
+      long borrows = this._borrows.get ();
+      double avgWait = borrows == 0 ? 0 : this._waitNanos.get () / 1e6 / borrows;
+      return String.format (Locale.ROOT,
+         "pool: open=%d idle=%d active=%d peak=%d max=%d borrows=%d " +
+         "wait(avg=%.3fms max=%.3fms) timeouts=%d created=%d evicted=%d invalidated=%d",
+         this._open.get (), this._idle.size (), this._active.get (),
+         this._peakActive.get (), this._maxSize, borrows, avgWait,
+         this._maxWaitNanos.get () / 1e6, this._timeouts.get (),
+         this._created.get (), this._evicted.get (), this._invalidated.get ());
+   }//end stats
+
+   public int maxSize () {
+      return this._maxSize;
+   }//end maxSize
+
+   /**
+    * Opens a CopyProtocol session to the pool's database with its login;
+    * it is not pooled and the caller closes it.
+    *
+    * @throws java.sql.SQLException when the server cannot be reached or
+    *         refuses the login
+    */
+   public CopyProtocol copyConnection () throws SQLException {
+      return CopyProtocol.connect (this._url, this._user, this._passwd);
+   }//end copyConnection
+
+   private PooledConnection open () throws SQLException {
+      PooledConnection pc = new PooledConnection (
+         DriverManager.getConnection (this._url, this._user, this._passwd), this);
+      this._open.incrementAndGet ();
+      this._created.incrementAndGet ();
+      return pc;
+   }//end open
+
+   private void discard (PooledConnection pc) {
+      this._open.decrementAndGet ();
+      pc.close ();
+   }//end discard
+
+   private void recordWait (long nanos) {
+      this._waitNanos.addAndGet (nanos);
+      long max;
+      while (nanos > (max = this._maxWaitNanos.get ())
+             && !this._maxWaitNanos.compareAndSet (max, nanos)) {
+         // retry until the maximum reflects this wait.
+      }
+   }//end recordWait
+
+   /*
+    * Closes idle connections past the idle timeout, oldest first, keeping at
+    * least minIdle of them open.
+    */
+   private void evictIdle () {
+      long now = System.currentTimeMillis ();
+      Iterator<PooledConnection> it = this._idle.descendingIterator ();
+      while (it.hasNext () && this._idle.size () > this._minIdle) {
+         PooledConnection pc = it.next ();
+         if (now - pc.lastUsed () >= this._idleTimeoutMillis && this._idle.remove (pc)) {
+            this._evicted.incrementAndGet ();
+            discard (pc);
+         }
+      }//end while
+   }//end evictIdle
+}//end ConnectionPool
@@ -0,0 +1,349 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A connection that speaks just enough of the PostgreSQL frontend/backend
+ * protocol (version 3.0) to run COPY ... FROM STDIN and COPY ... TO STDOUT,
+ * for drivers such as the bundled pg73jdbc3 that have no CopyManager.  It
+ * opens its own session to the server named by a JDBC URL, so a COPY sent
+ * through it commits on its own and does not see uncommitted work of the
+ * JDBC connections.
+ *
+ * Only trust, password and md5 authentication are supported, as by
+ * pg73jdbc3; the connection is not encrypted.
+ *
+ */
+public class CopyProtocol {
+
+   private static final Charset UTF8 = Charset.forName ("UTF-8");
+
+   // jdbc:postgresql://host[:port]/database[?...] or jdbc:postgresql:database
+   private static final Pattern URL = Pattern.compile (
+      "jdbc:postgresql:(?://([^/:]+)(?::(\\d+))?/)?([^?]+)(?:\\?.*)?");
+
+   private static final int PROTOCOL_3_0 = 196608;
+   private static final int AUTH_OK = 0;
+   private static final int AUTH_CLEARTEXT = 3;
+   private static final int AUTH_MD5 = 5;
+
+   // the most sent in one CopyData message.
+   private static final int CHUNK = 1 << 16;
+
+   private final Socket _socket;
+   private final DataInputStream _in;
+   private final DataOutputStream _out;
+
+   private CopyProtocol (Socket socket) throws IOException {
+      this._socket = socket;
+      this._in = new DataInputStream (new BufferedInputStream (socket.getInputStream (), CHUNK));
+      this._out = new DataOutputStream (new BufferedOutputStream (socket.getOutputStream (), CHUNK + 5));
+   }//end CopyProtocol
+
+   /**
+    * Opens a session to the server and database of a JDBC URL.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @throws java.sql.SQLException when the server cannot be reached or
+    *         refuses the login
+    */
+   public static CopyProtocol connect (String url, String user, String passwd) throws SQLException {
+      Matcher m = URL.matcher (url);
+      if (!m.matches ()) {
+         throw new SQLException ("Unable to read the server from " + url);
+      }
+      String host = m.group (1) == null ? "localhost" : m.group (1);
+      int port = m.group (2) == null ? 5432 : Integer.parseInt (m.group (2));
+      Socket socket = new Socket ();
+      try {
+         socket.setTcpNoDelay (true);
+         socket.connect (new InetSocketAddress (host, port));
+         CopyProtocol conn = new CopyProtocol (socket);
+         conn.startup (user, passwd == null ? "" : passwd, m.group (3));
+         return conn;
+      } catch (IOException e) {
+         close (socket);
+         throw new SQLException ("Unable to connect to " + host + ":" + port + " for COPY: " + e.getMessage ());
+      } catch (SQLException e) {
+         close (socket);
+         throw e;
+      }//end try
+   }//end connect
+
+   /**
+    * Runs a COPY ... FROM STDIN statement, sending a stream as it is read.
+    *
+    * @param sql the COPY statement
+    * @param data the rows in the statement's format; not closed
+    * @return the number of rows copied
+    * @throws java.sql.SQLException when the server rejected the statement
+    *         or the data
+    * @throws java.io.IOException when the data cannot be read, or the
+    *         connection was lost
+    */
+   public long copyIn (String sql, InputStream data) throws SQLException, IOException {
+      query (sql);
+      char type = expect ('G');
+      if (type != 'G') {
+         return finish (type, null);
+      }
+      byte[] buf = new byte[CHUNK];
+      try {
+         int n;
+         while ((n = data.read (buf)) > 0) {
+            this._out.writeByte ('d');
+            this._out.writeInt (4 + n);
+            this._out.write (buf, 0, n);
+         }
+      } catch (IOException e) {
+         // the server rolls the COPY back.
+         byte[] reason = utf8 ("Unable to read the data: " + e.getMessage ());
+         this._out.writeByte ('f');
+         this._out.writeInt (4 + reason.length + 1);
+         this._out.write (reason);
+         this._out.writeByte (0);
+         this._out.flush ();
+         try {
+            finish (next (), null);
+         } catch (SQLException | IOException ignored) {
+            // the failure reported by the server is this one.
+         }
+         throw e;
+      }//end try
+      this._out.writeByte ('c');
+      this._out.writeInt (4);
+      this._out.flush ();
+      return finish (next (), null);
+   }//end copyIn
+
+   /**
+    * Runs a COPY ... TO STDOUT statement and writes what the server sends,
+    * as it arrives, to a stream.
+    *
+    * @param sql the COPY statement
+    * @param out receives the data; not closed
+    * @return the number of rows copied
+    * @throws java.sql.SQLException when the server rejected the statement
+    * @throws java.io.IOException when the stream cannot be written, or the
+    *         connection was lost
+    */
+   public long copyOut (String sql, OutputStream out) throws SQLException, IOException {
+      query (sql);
+      return finish (expect ('H'), out);
+   }//end copyOut
+
+   /**
+    * Ends the session.
+    */
+   public void close () {
+      try {
+         this._out.writeByte ('X');
+         this._out.writeInt (4);
+         this._out.flush ();
+      } catch (IOException e) {
+         // closed below anyway.
+      }
+      close (this._socket);
+   }//end close
+
+   private void startup (String user, String passwd, String database) throws IOException, SQLException {
+      byte[] params = utf8 ("user\0" + user + "\0database\0" + database + "\0client_encoding\0UTF8\0\0");
+      this._out.writeInt (8 + params.length);
+      this._out.writeInt (PROTOCOL_3_0);
+      this._out.write (params);
+      this._out.flush ();
+      while (true) {
+         char type = next ();
+         byte[] body = body ();
+         if (type == 'E') {
+            throw error (body);
+         }
+         if (type == 'R') {
+            int code = readInt (body, 0);
+            if (code == AUTH_CLEARTEXT) {
+               password (passwd);
+            } else if (code == AUTH_MD5) {
+               password ("md5" + md5 (md5 (utf8 (passwd + user)), body));
+            } else if (code != AUTH_OK) {
+               throw new SQLException ("COPY needs trust, password or md5 authentication; the server asked for method " + code);
+            }
+         } else if (type == 'Z') {
+            return;
+         }
+         // ParameterStatus, BackendKeyData and notices are not needed.
+      }//end while
+   }//end startup
+
+   private void password (String passwd) throws IOException {
+      byte[] p = utf8 (passwd);
+      this._out.writeByte ('p');
+      this._out.writeInt (4 + p.length + 1);
+      this._out.write (p);
+      this._out.writeByte (0);
+      this._out.flush ();
+   }//end password
+
+   private void query (String sql) throws IOException {
+      byte[] q = utf8 (sql);
+      this._out.writeByte ('Q');
+      this._out.writeInt (4 + q.length + 1);
+      this._out.write (q);
+      this._out.writeByte (0);
+      this._out.flush ();
+   }//end query
+
+   /*
+    * Reads messages up to the expected one, skipping notices, and returns
+    * its type without reading its body; any other message is left for
+    * finish() to report.
+    */
+   private char expect (char wanted) throws IOException, SQLException {
+      while (true) {
+         char type = next ();
+         if (type == wanted || type != 'N') {
+            return type;
+         }
+         body ();
+      }
+   }//end expect
+
+   /*
+    * Reads the rest of a statement's response up to ReadyForQuery, writing
+    * any CopyData to out.
+    *
+    * @param type the type of the message already read
+    * @return the row count of the CommandComplete tag
+    */
+   private long finish (char type, OutputStream out) throws IOException, SQLException {
+      long rows = 0;
+      SQLException failed = null;
+      while (true) {
+         if (type == 'd' && out != null) {
+            int len = this._in.readInt () - 4;
+            byte[] buf = new byte[Math.min (len, CHUNK)];
+            while (len > 0) {
+               int n = Math.min (len, buf.length);
+               this._in.readFully (buf, 0, n);
+               out.write (buf, 0, n);
+               len -= n;
+            }
+         } else {
+            byte[] body = body ();
+            if (type == 'E' && failed == null) {
+               failed = error (body);
+            } else if (type == 'C') {
+               String tag = new String (body, 0, body.length - 1, UTF8);
+               if (tag.startsWith ("COPY ")) {
+                  rows = Long.parseLong (tag.substring (5));
+               }
+            } else if (type == 'G') {
+               // not a COPY ... FROM STDIN statement; end it.
+               this._out.writeByte ('f');
+               this._out.writeInt (4 + 1);
+               this._out.writeByte (0);
+               this._out.flush ();
+            } else if (type == 'Z') {
+               if (failed != null) {
+                  throw failed;
+               }
+               return rows;
+            }
+         }
+         type = next ();
+      }//end while
+   }//end finish
+
+   private char next () throws IOException {
+      int type = this._in.read ();
+      if (type < 0) {
+         throw new EOFException ("The server closed the COPY connection");
+      }
+      return (char) type;
+   }//end next
+
+   private byte[] body () throws IOException {
+      byte[] body = new byte[this._in.readInt () - 4];
+      this._in.readFully (body);
+      return body;
+   }//end body
+
+   /*
+    * Builds the exception for an ErrorResponse, whose fields are a type byte
+    * followed by a null terminated string.
+    */
+   private static SQLException error (byte[] body) {
+      String message = null;
+      String state = null;
+      int i = 0;
+      while (i < body.length && body[i] != 0) {
+         byte field = body[i++];
+         int end = i;
+         while (body[end] != 0) {
+            ++end;
+         }
+         String value = new String (body, i, end - i, UTF8);
+         if (field == 'M') {
+            message = value;
+         } else if (field == 'C') {
+            state = value;
+         }
+         i = end + 1;
+      }//end while
+      return new SQLException (message, state);
+   }//end error
+
+   private static int readInt (byte[] b, int off) {
+      return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16 | (b[off + 2] & 0xff) << 8 | (b[off + 3] & 0xff);
+   }//end readInt
+
+   /*
+    * Returns the hex MD5 of a hex string followed by the four byte salt of
+    * an AuthenticationMD5Password body.
+    */
+   private static String md5 (String hex, byte[] body) {
+      byte[] salted = new byte[hex.length () + 4];
+      System.arraycopy (utf8 (hex), 0, salted, 0, hex.length ());
+      System.arraycopy (body, 4, salted, hex.length (), 4);
+      return md5 (salted);
+   }//end md5
+
+   private static String md5 (byte[] b) {
+      try {
+         byte[] digest = MessageDigest.getInstance ("MD5").digest (b);
+         StringBuilder hex = new StringBuilder (32);
+         for (byte d : digest) {
+            hex.append (Character.forDigit ((d >> 4) & 0xf, 16)).append (Character.forDigit (d & 0xf, 16));
+         }
+         return hex.toString ();
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException (e);
+      }//end try
+   }//end md5
+
+   private static byte[] utf8 (String s) {
+      return s.getBytes (UTF8);
+   }//end utf8
+
+   private static void close (Socket socket) {
+      try {
+         socket.close ();
+      } catch (IOException e) {
+         // nothing left to do.
+      }
+   }//end close
+}//end CopyProtocol
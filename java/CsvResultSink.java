@@ -0,0 +1,64 @@
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a result as CSV the way COPY ... WITH CSV HEADER does: a header line
+ * of column names, then one line per row.  Values holding a comma, quote or
+ * line break are quoted, with quotes doubled; NULL is an empty field and an
+ * empty string is "".
+ *
+ */
+public class CsvResultSink extends ChannelResultSink {
+
+   public CsvResultSink (WritableByteChannel out) {
+      super (out);
+   }//end CsvResultSink
+
+   public void columns (String[] names) throws IOException {
+      line (names);
+   }//end columns
+
+   public void row (String[] values) throws IOException {
+      line (values);
+   }//end row
+
+   private void line (String[] values) throws IOException {
+      for (int i = 0; i < values.length; ++i) {
+         if (i > 0) {
+            put ((byte) ',');
+         }
+         field (values[i]);
+      }
+      put ((byte) '\n');
+   }//end line
+
+   private void field (String value) throws IOException {
+      if (value == null) {
+         return;
+      }
+      if (value.length () > 0 && !needsQuotes (value)) {
+         put (value);
+         return;
+      }
+      put ((byte) '"');
+      int start = 0;
+      int quote;
+      while ((quote = value.indexOf ('"', start)) >= 0) {
+         put (value.substring (start, quote + 1));
+         put ((byte) '"');
+         start = quote + 1;
+      }
+      put (start == 0 ? value : value.substring (start));
+      put ((byte) '"');
+   }//end field
+
+   private static boolean needsQuotes (String value) {
+      for (int i = 0; i < value.length (); ++i) {
+         char c = value.charAt (i);
+         if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+            return true;
+         }
+      }
+      return false;
+   }//end needsQuotes
+}//end CsvResultSink
@@ -11,13 +11,19 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -29,8 +35,94 @@ import java.io.InputStreamReader;
  */
 public class DBProject {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by all sessions.
+   private ConnectionPool _pool = null;
+
+   // the connection bound to the calling thread's session, if any.
+   private final ThreadLocal<Session> _session = new ThreadLocal<Session> ();
+
+   // replicas the read-only operations are sent to, or null when
+   // dbproject.replicas is not set.
+   private ReplicaRouter _replicas = null;
+
+   // queue the inserts are written behind from, or null when
+   // dbproject.writeBehind is off.
+   private WriteBehind _writeBehind = null;
+
+   // the calling thread's last queued insert, which afterCommit() actions
+   // wait for.
+   private final ThreadLocal<WriteBehind.Write> _queuedWrite = new ThreadLocal<WriteBehind.Write> ();
+
+   // true while the calling thread runs a read-only operation.
+   private final ThreadLocal<Boolean> _readOnly = new ThreadLocal<Boolean> () {
+      protected Boolean initialValue () {
+         return Boolean.FALSE;
+      }
+   };
+
+   // rows fetched per round trip when streaming query results through a
+   // server-side cursor; 0 lets the driver buffer the whole result.
+   private final int _fetchSize = Integer.getInteger ("dbproject.fetchSize", 500);
+
+   // false when the driver does not implement setFetchSize (pg73jdbc3),
+   // in which case cursors are declared and fetched with SQL.
+   private boolean _driverFetch = true;
+
+   // keys for new bookings, assignments and requests, reserved in blocks
+   // of each sequence's INCREMENT BY.
+   private IdAllocator _bookingIds;
+   private IdAllocator _assignedIds;
+   private IdAllocator _requestIds;
+
+   // in-memory copies of Booking for the reports, built on first use.
+   private BookingSnapshots _snapshots;
+
+   // known primary keys, or null when dbproject.keySets=false.
+   private KeySets _keys;
+
+   // companies ranked by repairs, or null when dbproject.repairRanking=false.
+   private RepairRanking _repairRanking;
+
+   // serializes bookings of the same room in this process.
+   private final RoomLocks _roomLocks =
+      new RoomLocks (Integer.getInteger ("dbproject.roomLocks.stripes", 1024));
+
+   // latency and row counts of every operation and statement.
+   private final Metrics _metrics = new Metrics ();
+
+   // statements over dbproject.slowQuery.thresholdMs, or null when unset.
+   private SlowQueryLog _slowQueries;
+
+   // read-through caches for the name and role lookups the writes depend
+   // on; writes invalidate the keys they add.
+   private final LookupCache<List<String>, Integer> _customerIds =
+      new LookupCache<List<String>, Integer> (new LookupCache.Loader<List<String>, Integer> () {
+         public Integer load (List<String> name) throws SQLException {
+            return queryInt (Query.CUSTOMER_ID_BY_NAME, name.get (0), name.get (1));
+         }
+      });
+   private final LookupCache<Integer, String> _staffRoles =
+      new LookupCache<Integer, String> (new LookupCache.Loader<Integer, String> () {
+         public String load (Integer ssn) throws SQLException {
+            return queryString (Query.STAFF_ROLE, ssn);
+         }
+      });
+   private final LookupCache<String, Integer> _companyIds =
+      new LookupCache<String, Integer> (new LookupCache.Loader<String, Integer> () {
+         public Integer load (String name) throws SQLException {
+            return queryInt (Query.COMPANY_ID_BY_NAME, name);
+         }
+      });
+
+   // buffered standard out formatter, one per thread so it can be reused.
+   private static final ThreadLocal<TabularResultSink> _stdout = new ThreadLocal<TabularResultSink> () {
+      protected TabularResultSink initialValue () {
+         return new TabularResultSink (System.out);
+      }
+   };
+
+   // rows per screen of the menu's paginated listings.
+   private static final int MENU_PAGE_SIZE = Integer.getInteger ("dbproject.pageSize", 20);
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -54,8 +146,32 @@ public class DBProject {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // create the connection pool and make sure we can reach the server
+         this._pool = new ConnectionPool(url, user, passwd);
+         PooledConnection probe = this._pool.borrow();
+         this._driverFetch = supportsFetchSize(probe.connection());
+         this._pool.release(probe);
+         this._replicas = ReplicaRouter.fromProperties(dbname, user, passwd);
+         this._writeBehind = WriteBehind.fromProperties(this._pool);
+         this._metrics.register();
+         this._metrics.startDump();
+         this._slowQueries = SlowQueryLog.fromProperties(this._pool, this._replicas);
+
+         this._bookingIds = IdAllocator.forSequence(this, Query.NEXT_BOOKING_ID, "booking_seq");
+         this._assignedIds = IdAllocator.forSequence(this, Query.NEXT_ASSIGNED_ID, "assigned_seq");
+         this._requestIds = IdAllocator.forSequence(this, Query.NEXT_REQUEST_ID, "request_seq");
+
+         this._snapshots = BookingSnapshots.fromProperties(this);
+         if (Boolean.parseBoolean (System.getProperty ("dbproject.repairRanking", "true"))) {
+            RepairRanking ranking = RepairRanking.fromProperties(this);
+            ranking.load();
+            this._repairRanking = ranking;
+         }
+         if (Boolean.parseBoolean (System.getProperty ("dbproject.keySets", "true"))) {
+            KeySets keys = new KeySets();
+            keys.load(this);
+            this._keys = keys;
+         }
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -65,133 +181,1472 @@ public class DBProject {
    }//end DBProject
 
    /**
-    * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    * Method to execute an update SQL statement.  Update SQL instructions
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    *
+    * @param sql the input SQL string
+    * @throws java.sql.SQLException when update failed
+    */
+   public void executeUpdate (String sql) throws SQLException {
+      PooledConnection pc = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      try {
+         // creates a statement object
+         Statement stmt = pc.connection ().createStatement ();
+
+         // issues the update instruction
+         rows = stmt.executeUpdate (sql);
+
+         // close the instruction
+         stmt.close ();
+      } catch (SQLException e) {
+         throw failed (pc, e);
+      } finally {
+         this._metrics.statement (sql, System.nanoTime () - start, rows, rows < 0);
+         release (pc);
+      }
+   }//end executeUpdate
+
+   /**
+    * Method to execute a cached, parameterized update statement.  Outside of
+    * a transaction, the inserts WriteBehind handles are queued instead when
+    * write-behind is on, and count as one row.
+    *
+    * @param query the statement to execute
+    * @param params the values bound to the statement's placeholders
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (Query query, Object... params) throws SQLException {
+      Session session = this._session.get ();
+      if (session != null) {
+         session.wrote = true;
+      }
+      if (this._writeBehind != null && this._writeBehind.handles (query)
+          && (session == null || !session.inTransaction)) {
+         this._queuedWrite.set (this._writeBehind.submit (query, params));
+         return 1;
+      }
+      this._queuedWrite.remove ();
+      PooledConnection pc = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      try {
+         PreparedStatement ps = pc.statements ().prepare (query);
+         Params.bind (ps, params);
+         rows = ps.executeUpdate ();
+         return rows;
+      } catch (SQLException e) {
+         throw failed (pc, query, e);
+      } finally {
+         completed (query, params, start, rows);
+         release (pc);
+      }
+   }//end executeUpdate
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and outputs the results to
+    * standard out.
+    *
+    * @param query the input query string
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query) throws SQLException {
+      PooledConnection pc = acquire ();
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try {
+         // creates a statement object
+         Statement stmt = pc.connection ().createStatement ();
+
+         // issues the query instruction
+         rowCount = printResult (stmt.executeQuery (query));
+         stmt.close ();
+         return rowCount;
+      } catch (SQLException e) {
+         throw failed (pc, e);
+      } finally {
+         this._metrics.statement (query, System.nanoTime () - start, rowCount, rowCount < 0);
+         release (pc);
+      }
+   }//end executeQuery
+
+   /**
+    * Method to execute a cached, parameterized query and output the results
+    * to standard out.
+    *
+    * @param query the statement to execute
+    * @param params the values bound to the statement's placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (Query query, Object... params) throws SQLException {
+      return executeQuery (query, _stdout.get (), params);
+   }//end executeQuery
+
+   /**
+    * Method to execute a cached, parameterized query and stream the results
+    * to a sink.  The rows are read through a server-side cursor,
+    * dbproject.fetchSize rows per round trip, in the session's transaction or
+    * in one of their own, so memory use does not grow with the size of the
+    * result.
+    *
+    * @param query the statement to execute
+    * @param sink receives the result rows
+    * @param params the values bound to the statement's placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (Query query, ResultSink sink, Object... params) throws SQLException {
+      PooledConnection pc = acquire ();
+      Connection conn = pc.connection ();
+      boolean cursor = this._fetchSize > 0;
+      // cursors only live inside a transaction; outside of one the cursor
+      // gets its own.
+      boolean own = cursor && conn.getAutoCommit ();
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try {
+         if (own) {
+            conn.setAutoCommit (false);
+         }
+         int rows;
+         if (cursor && !this._driverFetch) {
+            rows = fetch (conn, query.sql (), sink, !own, params);
+         } else {
+            PreparedStatement ps = pc.statements ().prepare (query);
+            Params.bind (ps, params);
+            if (cursor) {
+               ps.setFetchSize (this._fetchSize);
+            }
+            rows = drain (ps.executeQuery (), sink);
+         }
+         if (own) {
+            conn.commit ();
+         }
+         rowCount = rows;
+         return rowCount;
+      } catch (SQLException e) {
+         throw failed (pc, query, e);
+      } finally {
+         completed (query, params, start, rowCount);
+         if (own) {
+            endCursor (conn);
+         }
+         release (pc);
+      }
+   }//end executeQuery
+
+   /**
+    * Method to execute a cached, parameterized query that returns a single
+    * integer, such as a key lookup or an aggregate.
+    *
+    * @param query the statement to execute
+    * @param params the values bound to the statement's placeholders
+    * @return the first column of the first row, or null when there are no
+    *         rows or the value is NULL
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Integer queryInt (Query query, Object... params) throws SQLException {
+      PooledConnection pc = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      try {
+         PreparedStatement ps = pc.statements ().prepare (query);
+         Params.bind (ps, params);
+         ResultSet rs = ps.executeQuery ();
+         try {
+            if (!rs.next ()) {
+               rows = 0;
+               return null;
+            }
+            int value = rs.getInt (1);
+            rows = 1;
+            return rs.wasNull () ? null : value;
+         } finally {
+            rs.close ();
+         }
+      } catch (SQLException e) {
+         throw failed (pc, query, e);
+      } finally {
+         completed (query, params, start, rows);
+         release (pc);
+      }
+   }//end queryInt
+
+   /**
+    * Method to execute a cached, parameterized query that returns a single
+    * text value.
+    *
+    * @param query the statement to execute
+    * @param params the values bound to the statement's placeholders
+    * @return the first column of the first row, or null when there are no
+    *         rows or the value is NULL
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public String queryString (Query query, Object... params) throws SQLException {
+      PooledConnection pc = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      try {
+         PreparedStatement ps = pc.statements ().prepare (query);
+         Params.bind (ps, params);
+         ResultSet rs = ps.executeQuery ();
+         try {
+            rows = rs.next () ? 1 : 0;
+            return rows == 1 ? rs.getString (1) : null;
+         } finally {
+            rs.close ();
+         }
+      } catch (SQLException e) {
+         throw failed (pc, query, e);
+      } finally {
+         completed (query, params, start, rows);
+         release (pc);
+      }
+   }//end queryString
+
+   /**
+    * Method to probe whether a cached, parameterized query returns any row.
+    * Only the first row is fetched, so probes should end in LIMIT 1.
+    *
+    * @param query the statement to execute
+    * @param params the values bound to the statement's placeholders
+    * @return true if there is at least one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean exists (Query query, Object... params) throws SQLException {
+      PooledConnection pc = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      try {
+         PreparedStatement ps = pc.statements ().prepare (query);
+         Params.bind (ps, params);
+         ResultSet rs = ps.executeQuery ();
+         try {
+            rows = rs.next () ? 1 : 0;
+            return rows == 1;
+         } finally {
+            rs.close ();
+         }
+      } catch (SQLException e) {
+         throw failed (pc, query, e);
+      } finally {
+         completed (query, params, start, rows);
+         release (pc);
+      }
+   }//end exists
+
+   public int checkErrors (String query) throws SQLException {
+      PooledConnection pc = acquire ();
+      long start = System.nanoTime ();
+      int rowCount = -1;
+      try {
+         // creates a statement object
+         Statement stmt = pc.connection ().createStatement ();
+
+         // issues the query instruction
+         rowCount = countRows (stmt.executeQuery (query));
+         stmt.close ();
+         return rowCount;
+      } catch (SQLException e) {
+         throw failed (pc, e);
+      } finally {
+         this._metrics.statement (query, System.nanoTime () - start, rowCount, rowCount < 0);
+         release (pc);
+      }
+   }//end checkErrors
+
+   /**
+    * Method to execute a cached, parameterized query without printing it.
+    *
+    * @param query the statement to execute
+    * @param params the values bound to the statement's placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int checkErrors (Query query, Object... params) throws SQLException {
+      PooledConnection pc = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      try {
+         PreparedStatement ps = pc.statements ().prepare (query);
+         Params.bind (ps, params);
+         rows = countRows (ps.executeQuery ());
+         return rows;
+      } catch (SQLException e) {
+         throw failed (pc, query, e);
+      } finally {
+         completed (query, params, start, rows);
+         release (pc);
+      }
+   }//end checkErrors
+
+   /*
+    * Outputs a result set to standard out and closes it.
+    */
+   private static int printResult (ResultSet rs) throws SQLException {
+      return drain (rs, _stdout.get ());
+   }//end printResult
+
+   /*
+    * Writes a single count the way a COUNT(*) query would print it.
+    */
+   private static void printCount (long count, ResultSink sink) throws SQLException {
+      try {
+         sink.columns (new String[] { "count" });
+         sink.row (new String[] { String.valueOf (count) });
+         sink.finish (1);
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write query results: " + e.getMessage ());
+      }//end try
+   }//end printCount
+
+   /*
+    * Streams a result set to a sink and closes it.  One values array is
+    * reused for every row.
+    */
+   private static int drain (ResultSet rs, ResultSink sink) throws SQLException {
+      try {
+         int rowCount = copyRows (rs, sink, columns (rs, sink));
+         sink.finish (rowCount);
+         return rowCount;
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write query results: " + e.getMessage ());
+      } finally {
+         rs.close ();
+      }//end try
+   }//end drain
+
+   /*
+    * Reads a query through a cursor declared in SQL, dbproject.fetchSize rows
+    * per FETCH, for drivers without setFetchSize.  Must run in a
+    * transaction; ending it closes the cursor.
+    *
+    * @param close true to close the cursor when done, in a transaction that
+    *        goes on
+    */
+   private int fetch (Connection conn, String sql, ResultSink sink, boolean close, Object... params)
+      throws SQLException {
+      PreparedStatement declare = conn.prepareStatement ("DECLARE dbproject_cursor NO SCROLL CURSOR FOR " + sql);
+      try {
+         Params.bind (declare, params);
+         declare.execute ();
+      } finally {
+         declare.close ();
+      }//end try
+      String next = "FETCH FORWARD " + this._fetchSize + " FROM dbproject_cursor";
+      Statement stmt = conn.createStatement ();
+      try {
+         ResultSet rs = stmt.executeQuery (next);
+         String[] values = columns (rs, sink);
+         int rowCount = 0;
+         while (true) {
+            int rows;
+            try {
+               rows = copyRows (rs, sink, values);
+            } finally {
+               rs.close ();
+            }//end try
+            rowCount += rows;
+            // a short batch is the last one.
+            if (rows < this._fetchSize) {
+               break;
+            }
+            rs = stmt.executeQuery (next);
+         }//end while
+         if (close) {
+            stmt.execute ("CLOSE dbproject_cursor");
+         }
+         sink.finish (rowCount);
+         return rowCount;
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write query results: " + e.getMessage ());
+      } finally {
+         stmt.close ();
+      }//end try
+   }//end fetch
+
+   /*
+    * Hands a result's column names to a sink.
+    *
+    * @return a buffer for the row values
+    */
+   private static String[] columns (ResultSet rs, ResultSink sink) throws SQLException, IOException {
+      /*
+       ** obtains the metadata object for the returned result set.  The metadata
+       ** contains row and column info.
+       */
+      ResultSetMetaData rsmd = rs.getMetaData ();
+      int numCol = rsmd.getColumnCount ();
+      String[] values = new String[numCol];
+      for (int i = 1; i <= numCol; ++i) {
+         values[i - 1] = rsmd.getColumnName (i);
+      }
+      sink.columns (values);
+      return new String[numCol];
+   }//end columns
+
+   /*
+    * Hands the remaining rows of a result to a sink.
+    *
+    * @return the number of rows
+    */
+   private static int copyRows (ResultSet rs, ResultSink sink, String[] values) throws SQLException, IOException {
+      int rowCount = 0;
+      while (rs.next ()) {
+         for (int i = 1; i <= values.length; ++i) {
+            values[i - 1] = rs.getString (i);
+         }
+         sink.row (values);
+         ++rowCount;
+      }//end while
+      return rowCount;
+   }//end copyRows
+
+   /*
+    * Checks whether the driver implements setFetchSize; pg73jdbc3 throws
+    * "This method is not yet implemented." for any size.
+    */
+   private static boolean supportsFetchSize (Connection conn) {
+      try {
+         Statement stmt = conn.createStatement ();
+         try {
+            stmt.setFetchSize (1);
+            return true;
+         } finally {
+            stmt.close ();
+         }//end try
+      } catch (SQLException e) {
+         return false;
+      }//end try
+   }//end supportsFetchSize
+
+   /*
+    * Closes the transaction a cursor was read in and restores autocommit.
+    */
+   private static void endCursor (Connection conn) {
+      try {
+         if (!conn.getAutoCommit ()) {
+            conn.rollback ();
+            conn.setAutoCommit (true);
+         }
+      } catch (SQLException e) {
+         // the pool resets the connection when it is released.
+      }//end try
+   }//end endCursor
+
+   /*
+    * Counts the rows of a result set and closes it.
+    */
+   private static int countRows (ResultSet rs) throws SQLException {
+      int rowCount = 0;
+      while (rs.next()){
+         ++rowCount;
+      }//end while
+      rs.close ();
+      return rowCount;
+   }//end countRows
+
+   /*
+    * Marks the connection broken when the error means the connection itself
+    * failed (SQLSTATE class 08), so the pool does not hand it out again.
+    */
+   private static SQLException failed (PooledConnection pc, SQLException e) {
+      String state = e.getSQLState ();
+      if (state != null && state.startsWith ("08")) {
+         pc.markBroken ();
+      }
+      return e;
+   }//end failed
+
+   /*
+    * As above, and also drops the cached statement that failed.
+    */
+   private static SQLException failed (PooledConnection pc, Query query, SQLException e) {
+      pc.statements ().evict (query);
+      return failed (pc, e);
+   }//end failed
+
+   /*
+    * Records a statement in the metrics and, if it was slow, in the slow
+    * query log; rows is negative if it failed.
+    */
+   private void completed (Query query, Object[] params, long start, int rows) {
+      long nanos = System.nanoTime () - start;
+      this._metrics.statement (query, nanos, rows, rows < 0);
+      if (this._slowQueries != null) {
+         this._slowQueries.record (query, params, nanos, rows);
+      }
+   }//end completed
+
+   /**
+    * Starts a session on the calling thread.  The first statement executed in
+    * the session borrows a connection from the pool, and every later
+    * statement reuses it until closeSession() hands it back.
+    */
+   public void openSession () {
+      if (this._session.get () == null) {
+         this._session.set (new Session ());
+      }
+   }//end openSession
+
+   /**
+    * Ends the calling thread's session and returns its connection, if one
+    * was borrowed, to the pool.
+    */
+   public void closeSession () {
+      Session session = this._session.get ();
+      this._session.remove ();
+      if (session != null && session.pc != null) {
+         this._pool.release (session.pc);
+      }
+      if (session != null && session.replica != null) {
+         session.replica.pool ().release (session.replica);
+      }
+   }//end closeSession
+
+   /**
+    * Marks the statements the calling thread runs next as part of a
+    * read-only operation, which may read from a replica.  Reads inside a
+    * transaction, or after a write in the same session, stay on the primary
+    * so they see that write.
+    *
+    * @param readOnly true for a read-only operation
+    * @return the previous setting, to restore when the operation is done
+    */
+   public boolean setReadOnly (boolean readOnly) {
+      boolean previous = this._readOnly.get ();
+      this._readOnly.set (readOnly);
+      return previous;
+   }//end setReadOnly
+
+   /**
+    * Starts a transaction on the calling thread's session.  Statements run
+    * until commit() or rollback() are applied atomically.
+    *
+    * @throws java.sql.SQLException when no session is open or the
+    *         connection cannot be borrowed
+    */
+   public void beginTransaction () throws SQLException {
+      Session session = this._session.get ();
+      if (session == null) {
+         throw new SQLException ("No session is open on this thread");
+      }
+      acquire ().connection ().setAutoCommit (false);
+      session.inTransaction = true;
+   }//end beginTransaction
+
+   /**
+    * Commits the session's transaction and then runs the actions deferred
+    * with afterCommit().
+    *
+    * @throws java.sql.SQLException when the commit failed
+    */
+   public void commit () throws SQLException {
+      Session session = this._session.get ();
+      if (session == null || !session.inTransaction) {
+         return;
+      }
+      Connection conn = session.pc.connection ();
+      try {
+         conn.commit ();
+         conn.setAutoCommit (true);
+      } catch (SQLException e) {
+         rollback ();
+         throw failed (session.pc, e);
+      }//end try
+      session.inTransaction = false;
+      List<Runnable> actions = new ArrayList<Runnable> (session.afterCommit);
+      session.afterCommit.clear ();
+      for (Runnable action : actions) {
+         action.run ();
+      }
+   }//end commit
+
+   /**
+    * Rolls back the session's transaction and discards the actions deferred
+    * with afterCommit().
+    */
+   public void rollback () {
+      Session session = this._session.get ();
+      if (session == null || !session.inTransaction) {
+         return;
+      }
+      session.inTransaction = false;
+      session.afterCommit.clear ();
+      try {
+         session.pc.reset ();
+      } catch (SQLException e) {
+         session.pc.markBroken ();
+      }//end try
+   }//end rollback
+
+   /**
+    * Runs an action once the current write is durable: immediately outside
+    * of a transaction, after commit() inside one, or after the writer
+    * commits a queued insert.  In-memory indexes use this so that rolled
+    * back writes never reach them.
+    *
+    * @param action the action to run
+    */
+   public void afterCommit (Runnable action) {
+      Session session = this._session.get ();
+      WriteBehind.Write queued = this._queuedWrite.get ();
+      if (session != null && session.inTransaction) {
+         session.afterCommit.add (action);
+      } else if (queued != null) {
+         queued.afterCommit (action);
+      } else {
+         action.run ();
+      }
+   }//end afterCommit
+
+   /**
+    * @return the room occupancy calendar, or null when it is disabled or
+    *         may be stale and the database must answer
+    */
+   public OccupancyIndex occupancy () {
+      BookingSnapshots.Snapshot snapshot = this._snapshots.fresh (true);
+      return snapshot == null ? null : snapshot.occupancy;
+   }//end occupancy
+
+   /*
+    * The booking prices by date and customer, or null when the database
+    * must answer.
+    */
+   private PriceIndex prices () {
+      BookingSnapshots.Snapshot snapshot = this._snapshots.fresh (true);
+      return snapshot == null ? null : snapshot.prices;
+   }//end prices
+
+   /*
+    * The column-wise copy of Booking, or null when the database must answer.
+    */
+   private BookingColumns columns () {
+      BookingSnapshots.Snapshot snapshot = this._snapshots.fresh (true);
+      return snapshot == null ? null : snapshot.columns;
+   }//end columns
+
+   /**
+    * Counts a hotel's available rooms.  Without dates this is the number of
+    * rooms that have never been booked; with a date range it is the number
+    * of rooms free on every day of the range.  The occupancy index answers
+    * when it is enabled and fresh, otherwise the database does.
+    *
+    * @param hotelid the hotel
+    * @param firstdate the first day of the range, or null for all dates
+    * @param lastdate the last day of the range, inclusive
+    * @param sink receives the single count row
+    * @throws java.sql.SQLException when the query failed
+    */
+   public void availableRooms (int hotelid, java.sql.Date firstdate, java.sql.Date lastdate,
+                               ResultSink sink) throws SQLException {
+      OccupancyIndex occupancy = occupancy ();
+      if (occupancy == null) {
+         if (firstdate == null) {
+            executeQuery (Query.AVAILABLE_ROOMS, sink, hotelid);
+         } else {
+            executeQuery (Query.AVAILABLE_ROOMS_FOR_DATES, sink, hotelid, firstdate, lastdate);
+         }
+      } else if (firstdate == null) {
+         printCount (occupancy.neverBookedRooms (hotelid), sink);
+      } else {
+         printCount (occupancy.availableRooms (hotelid, Params.epochDay (firstdate),
+                                               Params.epochDay (lastdate)), sink);
+      }
+   }//end availableRooms
+
+   /**
+    * Counts a hotel's bookings.  Without dates this is the number of
+    * bookings ever made; with a date range it is the number of rooms booked
+    * on at least one day of the range.  The occupancy index answers when it
+    * is enabled and fresh, otherwise the database does.
+    *
+    * @param hotelid the hotel
+    * @param firstdate the first day of the range, or null for all dates
+    * @param lastdate the last day of the range, inclusive
+    * @param sink receives the single count row
+    * @throws java.sql.SQLException when the query failed
+    */
+   public void bookedRooms (int hotelid, java.sql.Date firstdate, java.sql.Date lastdate,
+                            ResultSink sink) throws SQLException {
+      OccupancyIndex occupancy = occupancy ();
+      if (occupancy == null) {
+         if (firstdate == null) {
+            executeQuery (Query.BOOKED_ROOMS, sink, hotelid);
+         } else {
+            executeQuery (Query.BOOKED_ROOMS_FOR_DATES, sink, hotelid, firstdate, lastdate);
+         }
+      } else if (firstdate == null) {
+         printCount (occupancy.bookings (hotelid), sink);
+      } else {
+         printCount (occupancy.bookedRooms (hotelid, Params.epochDay (firstdate),
+                                            Params.epochDay (lastdate)), sink);
+      }
+   }//end bookedRooms
+
+   /**
+    * Adds a customer.
+    *
+    * @throws java.sql.SQLException when the insert failed
+    */
+   public void insertCustomer (int customerid, String firstname, String lastname, String address,
+                               int phonenum, java.sql.Date dateofbirth, String gender) throws SQLException {
+      requireNew (KeySets.Kind.CUSTOMER, customerid);
+      executeUpdate (Query.ADD_CUSTOMER, customerid, firstname, lastname, address, phonenum,
+                     dateofbirth, gender);
+      invalidate (this._customerIds, Arrays.asList (firstname, lastname));
+      remember (KeySets.Kind.CUSTOMER, customerid);
+   }//end insertCustomer
+
+   /**
+    * Adds a room to an existing hotel.
+    *
+    * @throws java.sql.SQLException when the insert failed
+    */
+   public void insertRoom (final int hotelid, final int roomnum, String roomtype) throws SQLException {
+      require (KeySets.Kind.HOTEL, hotelid);
+      if (this._keys != null && this._keys.containsRoom (hotelid, roomnum)) {
+         throw new IllegalArgumentException ("Room " + roomnum + " of hotel " + hotelid + " already exists.");
+      }
+      executeUpdate (Query.ADD_ROOM, hotelid, roomnum, roomtype);
+      afterCommit (new Runnable () {
+         public void run () {
+            if (_keys != null) {
+               _keys.addRoom (hotelid, roomnum);
+            }
+            _snapshots.addRoom (hotelid, roomnum);
+         }
+      });
+   }//end insertRoom
+
+   /**
+    * Adds a maintenance company.
+    *
+    * @throws java.sql.SQLException when the insert failed
+    */
+   public void insertMaintenanceCompany (final int companyid, final String companyname,
+                                         String companyaddress, boolean certified) throws SQLException {
+      requireNew (KeySets.Kind.COMPANY, companyid);
+      executeUpdate (Query.ADD_MAINTENANCE_COMPANY, companyid, companyname, companyaddress, certified);
+      invalidate (this._companyIds, companyname);
+      remember (KeySets.Kind.COMPANY, companyid);
+      if (this._repairRanking != null) {
+         afterCommit (new Runnable () {
+            public void run () {
+               _repairRanking.addCompany (companyid, companyname);
+            }
+         });
+      }
+   }//end insertMaintenanceCompany
+
+   /**
+    * Adds a repair of an existing room by an existing company.
+    *
+    * @throws java.sql.SQLException when the insert failed
+    */
+   public void insertRepair (int repairid, int hotelid, int roomnum, final int companyid,
+                             java.sql.Date repairdate) throws SQLException {
+      requireNew (KeySets.Kind.REPAIR, repairid);
+      requireRoom (hotelid, roomnum);
+      require (KeySets.Kind.COMPANY, companyid);
+      executeUpdate (Query.ADD_REPAIR, repairid, hotelid, roomnum, companyid, repairdate);
+      remember (KeySets.Kind.REPAIR, repairid);
+      if (this._repairRanking != null) {
+         afterCommit (new Runnable () {
+            public void run () {
+               _repairRanking.addRepair (companyid);
+            }
+         });
+      }
+   }//end insertRepair
+
+   /**
+    * Looks up a customer by name.
+    *
+    * @return the customer ID, or null if there is no such customer
+    * @throws java.sql.SQLException when the query failed
+    */
+   public Integer customerId (String firstname, String lastname) throws SQLException {
+      return this._customerIds.get (Arrays.asList (firstname, lastname));
+   }//end customerId
+
+   /**
+    * @return true if the hotel exists
+    * @throws java.sql.SQLException when the probe failed
+    */
+   public boolean hotelExists (int hotelid) throws SQLException {
+      return keyExists (KeySets.Kind.HOTEL, hotelid);
+   }//end hotelExists
+
+   /**
+    * @return true if the hotel has a room with this number
+    * @throws java.sql.SQLException when the probe failed
+    */
+   public boolean roomExists (int hotelid, int roomnum) throws SQLException {
+      if (this._keys != null && this._keys.containsRoom (hotelid, roomnum)) {
+         return true;
+      }
+      if (!exists (Query.ROOM_EXISTS, hotelid, roomnum)) {
+         return false;
+      }
+      if (this._keys != null) {
+         this._keys.addRoom (hotelid, roomnum);
+      }
+      return true;
+   }//end roomExists
+
+   /**
+    * Checks a key against the key sets, probing the database only when the
+    * key is not known, e.g. because another program added it.
+    *
+    * @return true if the key exists
+    * @throws java.sql.SQLException when the probe failed
+    */
+   public boolean keyExists (KeySets.Kind kind, int key) throws SQLException {
+      if (this._keys != null && this._keys.contains (kind, key)) {
+         return true;
+      }
+      if (!exists (kind.probe (), key)) {
+         return false;
+      }
+      if (this._keys != null) {
+         this._keys.add (kind, key);
+      }
+      return true;
+   }//end keyExists
+
+   /**
+    * Drops every cached lookup, e.g. after the tables were changed by
+    * another program.
+    */
+   public void invalidateLookups () {
+      this._customerIds.invalidateAll ();
+      this._staffRoles.invalidateAll ();
+      this._companyIds.invalidateAll ();
+   }//end invalidateLookups
+
+   /**
+    * Books a room for a customer.  Bookings of the same room are serialized
+    * by a room lock and a room already booked on the date is rejected; the
+    * bookingRoomDateUnique constraint rejects any double booking made around
+    * the lock, by another process or another open transaction.
+    *
+    * @return the new booking ID
+    * @throws java.sql.SQLException when the insert failed, with SQLSTATE
+    *         23505 if the room is already booked on the date
+    */
+   public int insertBooking (final int customerid, final int hotelid, final int roomnum,
+                             final java.sql.Date bookingdate, int partypeople, final int price) throws SQLException {
+      requireRoom (hotelid, roomnum);
+      final int day = Params.epochDay (bookingdate);
+      ReentrantLock lock = this._roomLocks.lock (hotelid, roomnum, this._metrics);
+      try {
+         // a booking never starts a snapshot build.
+         BookingSnapshots.Snapshot snapshot = this._snapshots.fresh (false);
+         OccupancyIndex occupancy = snapshot == null ? null : snapshot.occupancy;
+         if (occupancy != null ? occupancy.isBooked (hotelid, roomnum, day)
+                               : exists (Query.ROOM_BOOKED, hotelid, roomnum, bookingdate)) {
+            throw alreadyBooked (hotelid, roomnum, bookingdate);
+         }
+         final int bookingid = this._bookingIds.next ();
+         try {
+            executeUpdate (Query.BOOK_ROOM, bookingid, customerid, hotelid, roomnum, bookingdate,
+                           partypeople, price);
+         } catch (SQLException e) {
+            if (!"23505".equals (e.getSQLState ())
+                && (e.getMessage () == null || !e.getMessage ().toLowerCase ().contains ("bookingroomdateunique"))) {
+               throw e;
+            }
+            throw alreadyBooked (hotelid, roomnum, bookingdate);
+         }//end try
+         afterCommit (new Runnable () {
+            public void run () {
+               _snapshots.book (bookingid, customerid, hotelid, roomnum, bookingdate, price * 100);
+            }
+         });
+         return bookingid;
+      } finally {
+         lock.unlock ();
+      }//end try
+   }//end insertBooking
+
+   /**
+    * Assigns a house cleaning staff member to a room.
+    *
+    * @return the new assignment ID
+    * @throws java.sql.SQLException when the insert failed
+    */
+   public int insertAssignment (int staffid, int hotelid, int roomnum) throws SQLException {
+      require (KeySets.Kind.STAFF, staffid);
+      requireRoom (hotelid, roomnum);
+      int assignedid = this._assignedIds.next ();
+      executeUpdate (Query.ASSIGN_HOUSE_CLEANING, assignedid, staffid, hotelid, roomnum);
+      return assignedid;
+   }//end insertAssignment
+
+   /**
+    * @return true if the staff member exists and is a manager
+    * @throws java.sql.SQLException when the query failed
+    */
+   public boolean isManager (int staffid) throws SQLException {
+      return "Manager".equals (this._staffRoles.get (staffid));
+   }//end isManager
+
+   /**
+    * Raises a repair request on behalf of a manager.
+    *
+    * @return the new request ID
+    * @throws java.sql.SQLException when the insert failed
+    */
+   public int insertRequest (int managerid, int repairid, java.sql.Date requestdate) throws SQLException {
+      require (KeySets.Kind.REPAIR, repairid);
+      int requestid = this._requestIds.next ();
+      executeUpdate (Query.REPAIR_REQUEST, requestid, managerid, repairid, requestdate);
+      return requestid;
+   }//end insertRequest
+
+   /**
+    * Lists the rooms of a hotel booked in the week starting on a date.
+    *
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when the query failed
+    */
+   public int weekBookings (int hotelid, java.sql.Date bookingdate, ResultSink sink) throws SQLException {
+      BookingColumns columns = columns ();
+      if (columns == null) {
+         return executeQuery (Query.WEEK_BOOKINGS, sink, bookingdate, bookingdate, hotelid);
+      }
+      int firstday = Params.epochDay (bookingdate);
+      try {
+         return columns.weekBookings (hotelid, firstday, firstday + 7, sink);
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write query results: " + e.getMessage ());
+      }//end try
+   }//end weekBookings
+
+   /**
+    * Lists one page of the rooms of a hotel booked in the week from a date,
+    * by room number.  Pages continue after the last room of the one before,
+    * through the bookingRoomDateUnique index, so deep pages cost no more
+    * than the first.
+    *
+    * @param pageSize the most rows in the page
+    * @param token the token of the previous page, or null for the first
+    * @return the number of rows in the page
+    * @throws java.sql.SQLException when the query failed
+    * @throws IllegalArgumentException when the token is not for this listing
+    */
+   public int weekBookingsPage (int hotelid, java.sql.Date bookingdate, int pageSize, String token,
+                                ResultSink sink) throws SQLException {
+      String[] scope = { "week", String.valueOf (hotelid), bookingdate.toString () };
+      int after = token == null ? Integer.MIN_VALUE
+                                : Integer.parseInt (PageToken.decode (token, scope)[0]);
+      PageResultSink page = new PageResultSink (sink, requirePageSize (pageSize));
+      executeQuery (Query.WEEK_BOOKINGS_PAGE, page, hotelid, bookingdate, bookingdate, after,
+                    pageLimit (pageSize));
+      if (page.more ()) {
+         nextPage (page, PageToken.encode (scope, page.last ()[0]));
+      }
+      return page.rows ();
+   }//end weekBookingsPage
+
+   /**
+    * Lists the k highest booking prices in a date range.
+    *
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when the query failed
+    */
+   public int topKRoomPrices (java.sql.Date firstdate, java.sql.Date lastdate, int k,
+                              ResultSink sink) throws SQLException {
+      PriceIndex prices = prices ();
+      if (prices == null) {
+         return executeQuery (Query.TOP_K_ROOM_PRICE, sink, firstdate, lastdate, k);
+      }
+      try {
+         return prices.topKForDates (Params.epochDay (firstdate), Params.epochDay (lastdate), k, sink);
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write query results: " + e.getMessage ());
+      }//end try
+   }//end topKRoomPrices
+
+   /**
+    * Lists a customer's k most expensive bookings.
+    *
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when the query failed
+    */
+   public int topKCustomerBookings (String firstname, String lastname, int k,
+                                    ResultSink sink) throws SQLException {
+      PriceIndex prices = prices ();
+      if (prices == null) {
+         return executeQuery (Query.TOP_K_CUSTOMER_BOOKINGS, sink, firstname, lastname, k);
+      }
+      // every customer with the name, as the query joins on it.
+      List<Integer> customerids = customerIds (firstname, lastname);
+      try {
+         return prices.topKForCustomers (customerids, k, sink);
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write query results: " + e.getMessage ());
+      }//end try
+   }//end topKCustomerBookings
+
+   /**
+    * Sums what a customer spent at a hotel in a date range.
+    *
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when the query failed
+    */
+   public int totalCost (int hotelid, String firstname, String lastname, java.sql.Date firstdate,
+                         java.sql.Date lastdate, ResultSink sink) throws SQLException {
+      BookingColumns columns = columns ();
+      List<Integer> customerids = columns == null ? null : customerIds (firstname, lastname);
+      // the query names one customer; let the server reject a shared name.
+      if (customerids == null || customerids.size () > 1) {
+         return executeQuery (Query.TOTAL_COST, sink, hotelid, firstname, lastname, firstdate, lastdate);
+      }
+      try {
+         // no customer gives no bookings, and a NULL sum as in the query.
+         return columns.totalCost (customerids.isEmpty () ? -1 : customerids.get (0), hotelid,
+                                   Params.epochDay (firstdate), Params.epochDay (lastdate), sink);
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write query results: " + e.getMessage ());
+      }//end try
+   }//end totalCost
+
+   /*
+    * Returns the IDs of every customer with the name.
+    */
+   private List<Integer> customerIds (String firstname, String lastname) throws SQLException {
+      final List<Integer> customerids = new ArrayList<Integer> ();
+      executeQuery (Query.CUSTOMER_ID_BY_NAME, new DiscardingResultSink () {
+         public void row (String[] values) {
+            customerids.add (Integer.parseInt (values[0]));
+         }
+      }, firstname, lastname);
+      return customerids;
+   }//end customerIds
+
+   /**
+    * Lists the repairs made by a maintenance company.
+    *
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when the query failed
+    */
+   public int repairsMade (String companyname, ResultSink sink) throws SQLException {
+      Integer companyid = this._companyIds.get (companyname);
+      if (companyid != null) {
+         return executeQuery (Query.REPAIRS_BY_COMPANY, sink, companyid);
+      }
+      // no company, or several sharing the name.
+      return executeQuery (Query.LIST_REPAIRS_MADE, sink, companyname);
+   }//end repairsMade
+
+   /**
+    * Lists one page of the repairs made by a maintenance company, by repair
+    * ID.  Pages continue after the last ID of the one before.
+    *
+    * @param pageSize the most rows in the page
+    * @param token the token of the previous page, or null for the first
+    * @return the number of rows in the page
+    * @throws java.sql.SQLException when the query failed
+    * @throws IllegalArgumentException when the token is not for this listing
+    */
+   public int repairsMadePage (String companyname, int pageSize, String token, ResultSink sink)
+      throws SQLException {
+      String[] scope = { "repairs", companyname };
+      int after = token == null ? Integer.MIN_VALUE
+                                : Integer.parseInt (PageToken.decode (token, scope)[0]);
+      PageResultSink page = new PageResultSink (sink, requirePageSize (pageSize));
+      Integer companyid = this._companyIds.get (companyname);
+      if (companyid != null) {
+         executeQuery (Query.REPAIRS_BY_COMPANY_PAGE, page, companyid, after, pageLimit (pageSize));
+      } else {
+         executeQuery (Query.LIST_REPAIRS_MADE_PAGE, page, companyname, after, pageLimit (pageSize));
+      }
+      if (page.more ()) {
+         nextPage (page, PageToken.encode (scope, page.last ()[0]));
+      }
+      return page.rows ();
+   }//end repairsMadePage
+
+   /**
+    * Lists the k maintenance companies with the most repairs.
+    *
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when the query failed
+    */
+   public int topKMaintenanceCompanies (int k, ResultSink sink) throws SQLException {
+      if (this._repairRanking == null || !this._repairRanking.fresh ()) {
+         return executeQuery (Query.TOP_K_MAINTENANCE_COMPANY, sink, k);
+      }
+      try {
+         return this._repairRanking.topK (k, sink);
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write query results: " + e.getMessage ());
+      }//end try
+   }//end topKMaintenanceCompanies
+
+   /**
+    * Counts a room's repairs per year.
+    *
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when the query failed
+    */
+   public int repairsPerYear (int hotelid, int roomnum, ResultSink sink) throws SQLException {
+      return executeQuery (Query.REPAIRS_PER_YEAR, sink, hotelid, roomnum);
+   }//end repairsPerYear
+
+   /*
+    * Drops a key that a write is about to make stale, and again once the
+    * write commits, so a concurrent lookup cannot cache the old value.
+    */
+   private <K> void invalidate (final LookupCache<K, ?> cache, final K key) {
+      cache.invalidate (key);
+      afterCommit (new Runnable () {
+         public void run () {
+            cache.invalidate (key);
+         }
+      });
+   }//end invalidate
+
+   /*
+    * Rejects a reference to a key that does not exist.
+    */
+   private void require (KeySets.Kind kind, int key) throws SQLException {
+      if (!keyExists (kind, key)) {
+         throw new IllegalArgumentException (kind.label () + " " + key + " does not exist.");
+      }
+   }//end require
+
+   /*
+    * The error for a double booking; SQLSTATE 23505 is unique_violation, as
+    * the constraint would report it.
+    */
+   private static SQLException alreadyBooked (int hotelid, int roomnum, java.sql.Date bookingdate) {
+      return new SQLException ("Room " + roomnum + " of hotel " + hotelid + " is already booked on "
+                               + bookingdate + ".", "23505");
+   }//end alreadyBooked
+
+   private static int requirePageSize (int pageSize) {
+      if (pageSize <= 0) {
+         throw new IllegalArgumentException ("Page size must be positive: " + pageSize);
+      }
+      return pageSize;
+   }//end requirePageSize
+
+   /*
+    * The LIMIT of a page query: one row more than the page, to tell whether
+    * a next page follows, as a long so that no page size overflows.
+    */
+   private static long pageLimit (int pageSize) {
+      return (long) pageSize + 1;
+   }//end pageLimit
+
+   private static void nextPage (ResultSink sink, String token) throws SQLException {
+      try {
+         sink.nextPage (token);
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write query results: " + e.getMessage ());
+      }//end try
+   }//end nextPage
+
+   private static void requireTableName (String table) {
+      if (!table.matches ("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?")) {
+         throw new IllegalArgumentException ("Not a table name: " + table);
+      }
+   }//end requireTableName
+
+   private void requireRoom (int hotelid, int roomnum) throws SQLException {
+      if (!roomExists (hotelid, roomnum)) {
+         throw new IllegalArgumentException ("Room " + roomnum + " of hotel " + hotelid + " does not exist.");
+      }
+   }//end requireRoom
+
+   /*
+    * Rejects a new key that is known to be taken.  Unknown keys are left to
+    * the primary key constraint rather than probed.
+    */
+   private void requireNew (KeySets.Kind kind, int key) {
+      if (this._keys != null && this._keys.contains (kind, key)) {
+         throw new IllegalArgumentException (kind.label () + " " + key + " already exists.");
+      }
+   }//end requireNew
+
+   /*
+    * Adds a key to the key sets once the insert that created it commits.
+    * A queued insert's key is added at once, so requireNew rejects it while
+    * it waits, and taken out again if the insert fails.
+    */
+   private void remember (final KeySets.Kind kind, final int key) {
+      if (this._keys == null) {
+         return;
+      }
+      Session session = this._session.get ();
+      WriteBehind.Write queued = this._queuedWrite.get ();
+      if (queued != null && (session == null || !session.inTransaction)) {
+         this._keys.add (kind, key);
+         queued.afterFailure (new Runnable () {
+            public void run () {
+               _keys.remove (kind, key);
+            }
+         });
+         return;
+      }
+      afterCommit (new Runnable () {
+         public void run () {
+            _keys.add (kind, key);
+         }
+      });
+   }//end remember
+
+   /**
+    * Lists the repairs made at a hotel, optionally in a date range.
     *
-    * @param sql the input SQL string
-    * @throws java.sql.SQLException when update failed
+    * @param firstdate the start of the range, or null for every repair
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when the query failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
+   public int hotelRepairs (int hotelid, java.sql.Date firstdate, java.sql.Date lastdate,
+                            ResultSink sink) throws SQLException {
+      if (firstdate == null) {
+         return executeQuery (Query.HOTEL_REPAIRS, sink, hotelid);
+      }
+      return executeQuery (Query.HOTEL_REPAIRS_FOR_DATES, sink, hotelid, firstdate, lastdate);
+   }//end hotelRepairs
 
    /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and outputs the results to
-    * standard out.
+    * Counts the repairs of every room of a hotel per year.
     *
-    * @param query the input query string
     * @return the number of rows returned
-    * @throws java.sql.SQLException when failed to execute the query
+    * @throws java.sql.SQLException when the query failed
     */
-   public int executeQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public int hotelRepairsPerYear (int hotelid, ResultSink sink) throws SQLException {
+      return executeQuery (Query.HOTEL_REPAIRS_PER_YEAR, sink, hotelid);
+   }//end hotelRepairsPerYear
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Streams every row of a table to a sink through a server-side cursor.
+    *
+    * @param table the table name
+    * @return the number of rows written
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public int dumpTable (String table, ResultSink sink) throws SQLException {
+      requireTableName (table);
+      PooledConnection pc = acquire ();
+      Connection conn = pc.connection ();
+      boolean cursor = this._fetchSize > 0 && conn.getAutoCommit ();
+      try {
+         if (cursor) {
+            conn.setAutoCommit (false);
+         }
+         int rows;
+         if (cursor && !this._driverFetch) {
+            rows = fetch (conn, "SELECT * FROM " + table, sink, false);
+         } else {
+            Statement stmt = conn.createStatement ();
+            try {
+               if (cursor) {
+                  stmt.setFetchSize (this._fetchSize);
+               }
+               rows = drain (stmt.executeQuery ("SELECT * FROM " + table), sink);
+            } finally {
+               stmt.close ();
+            }//end try
+         }
+         if (cursor) {
+            conn.commit ();
+         }
+         return rows;
+      } catch (SQLException e) {
+         throw failed (pc, e);
+      } finally {
+         if (cursor) {
+            endCursor (conn);
+         }
+         release (pc);
+      }//end try
+   }//end dumpTable
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+   /**
+    * Writes every row of a table to a stream as CSV with a header line,
+    * using COPY ... TO STDOUT so the server formats the rows.
+    *
+    * @param table the table name
+    * @return the number of rows written
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public long copyTable (String table, OutputStream out) throws SQLException {
+      requireTableName (table);
+      PooledConnection pc = acquire ();
+      try {
+         // partitioned tables can only be copied through a query.
+         return PgCopy.copyOut (pc, "COPY (SELECT * FROM " + table + ") TO STDOUT WITH CSV HEADER", out);
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write query results: " + e.getMessage ());
+      } catch (SQLException e) {
+         throw failed (pc, e);
+      } finally {
+         release (pc);
+      }//end try
+   }//end copyTable
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-   if(outputHeader){
-      for(int i = 1; i <= numCol; i++){
-    System.out.print(rsmd.getColumnName(i) + "\t");
-      }
-      System.out.println();
-      outputHeader = false;
-   }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
-   }//end executeQuery
+   /**
+    * @return the operation and statement metrics
+    */
+   public Metrics metrics () {
+      return this._metrics;
+   }//end metrics
 
-   public int checkErrors (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   /**
+    * @return the connection pool backing this instance
+    */
+   public ConnectionPool pool () {
+      return this._pool;
+   }//end pool
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * @return the replicas reads are sent to, or null when there are none
+    */
+   public ReplicaRouter replicas () {
+      return this._replicas;
+   }//end replicas
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+   /**
+    * @return the write-behind queue, or null when it is off
+    */
+   public WriteBehind writeBehind () {
+      return this._writeBehind;
+   }//end writeBehind
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-   if(outputHeader){
-      for(int i = 1; i <= numCol; i++){
-    //System.out.print(rsmd.getColumnName(i) + "\t");
-      }
-      //System.out.println();
-      outputHeader = false;
-   }
-         for (int i=1; i<=numCol; ++i)
-        //    System.out.print (rs.getString (i) + "\t");
-         //System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
-   }//end checkErrors
+   /*
+    * Returns the session connection, borrowing it on first use, or borrows a
+    * connection for a single statement when no session is open.
+    */
+   private PooledConnection acquire () throws SQLException {
+      Session session = this._session.get ();
+      boolean replica = this._replicas != null && this._readOnly.get ()
+                        && (session == null || !session.inTransaction && !session.wrote);
+      if (session == null) {
+         return replica ? this._replicas.borrow (this._pool) : this._pool.borrow ();
+      }
+      if (replica) {
+         if (session.replica == null) {
+            session.replica = this._replicas.borrow (this._pool);
+         }
+         return session.replica;
+      }
+      if (session.pc == null) {
+         session.pc = this._pool.borrow ();
+      }
+      return session.pc;
+   }//end acquire
+
+   /*
+    * Hands back a connection obtained from acquire() unless it belongs to
+    * the current session.
+    */
+   private void release (PooledConnection pc) {
+      Session session = this._session.get ();
+      if (session == null || session.pc != pc && session.replica != pc) {
+         pc.pool ().release (pc);
+      }
+   }//end release
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to close the connection pool if it is open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      // the queued inserts need the pool.
+      if (this._writeBehind != null) {
+         this._writeBehind.close ();
+      }
+      if (this._snapshots != null) {
+         this._snapshots.close ();
+      }
+      this._metrics.stop ();
+      if (this._slowQueries != null) {
+         this._slowQueries.close ();
+      }
+      if (this._replicas != null) {
+         this._replicas.close ();
+      }
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
+   /*
+    * Per-thread session state.
+    */
+   private static class Session {
+      PooledConnection pc;
+      // the replica connection of read-only operations, if one was borrowed.
+      PooledConnection replica;
+      boolean inTransaction;
+      // set by the first write, after which reads stay on the primary.
+      boolean wrote;
+      final List<Runnable> afterCommit = new ArrayList<Runnable> ();
+   }//end Session
+
    /**
     * The main execution method
     *
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
-         System.err.println (
-            "Usage: " +
-            "java [-classpath <classpath>] " +
-            DBProject.class.getName () +
-            " <dbname> <port> <user>");
+      if (args.length < 3) {
+         usage();
          return;
       }//end if
-      
-      Greeting();
+
+      // optional non-interactive modes
+      String batchFile = null;
+      int groupSize = 1;
+      int servePort = -1;
+      String export = null;
+      String dumpTable = null;
+      String outFile = null;
+      try {
+         for (int i = 3; i < args.length; ++i) {
+            if (args[i].equals("-batch") && i + 1 < args.length) {
+               batchFile = args[++i];
+            } else if (args[i].equals("-group") && i + 1 < args.length) {
+               groupSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-serve") && i + 1 < args.length) {
+               servePort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-export") && i + 1 < args.length) {
+               export = args[++i];
+            } else if (args[i].equals("-dump") && i + 1 < args.length) {
+               dumpTable = args[++i];
+            } else if (args[i].equals("-out") && i + 1 < args.length) {
+               outFile = args[++i];
+            } else {
+               throw new IllegalArgumentException("Unrecognized option: " + args[i]);
+            }
+         }//end for
+         if ((export != null || dumpTable != null) && outFile == null) {
+            throw new IllegalArgumentException("-export and -dump need -out <file>");
+         }
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+         usage();
+         return;
+      }//end try
+
+      boolean exporting = export != null || dumpTable != null;
+      if (batchFile == null && servePort < 0 && !exporting) {
+         Greeting();
+      }
       DBProject esql = null;
       try{
          // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
+         Class.forName ("org.postgresql.Driver");
          // instantiate the DBProject object and creates a physical
          // connection.
          String dbname = args[0];
@@ -199,9 +1654,63 @@ public class DBProject {
          String user = args[2];
          esql = new DBProject (dbname, dbport, user, "");
 
-         boolean keepon = true;
-         while(keepon) {
-            // These are sample SQL statements
+         if (batchFile != null) {
+            BufferedReader batch = new BufferedReader(new FileReader(batchFile));
+            try {
+               new BatchRunner(esql, groupSize, _stdout.get()).run(batch);
+            } finally {
+               batch.close();
+            }
+         } else if (servePort >= 0) {
+            new HttpApiServer(esql, servePort).run();
+         } else if (exporting) {
+            long start = System.nanoTime();
+            long rows = export != null ? new Exporter(esql).exportOperation(export, new File(outFile))
+                                       : new Exporter(esql).dumpTable(dumpTable, new File(outFile));
+            System.out.println(String.format("Exported %d rows to %s in %.1fs", rows, outFile,
+                                             (System.nanoTime() - start) / 1e9));
+         } else {
+            runMenu(esql);
+         }
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         // make sure to cleanup the created table and close the connection.
+         try{
+            if(esql != null) {
+               System.out.println(esql.pool().stats());
+               if (esql.replicas() != null) {
+                  System.out.println(esql.replicas().stats());
+               }
+               if (esql.writeBehind() != null) {
+                  System.out.println(esql.writeBehind().stats());
+               }
+               System.out.print("Disconnecting from database...");
+               esql.cleanup ();
+               System.out.println("Done\n\nBye !");
+            }//end if
+         }catch (Exception e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
+
+   public static void usage(){
+      System.err.println (
+         "Usage: " +
+         "java [-classpath <classpath>] " +
+         DBProject.class.getName () +
+         " <dbname> <port> <user> [-batch <file> [-group <n>] | -serve <httpPort> |" +
+         " -export <operation,inputs> -out <file> | -dump <table> -out <file>]");
+   }//end usage
+
+   /*
+    * Shows the main menu and runs the chosen operations until the user exits.
+    */
+   public static void runMenu(DBProject esql) {
+      boolean keepon = true;
+      while(keepon) {
+         // These are sample SQL statements
         System.out.println("MAIN MENU");
         System.out.println("---------");
         System.out.println("1. Add new customer");
@@ -220,9 +1729,15 @@ public class DBProject {
         System.out.println("14. List the repairs made by maintenance company");
         System.out.println("15. Get top k maintenance companies based on repair count");
         System.out.println("16. Get number of repairs occurred per year for a given hotel room");
-        System.out.println("17. < EXIT");
-
-            switch (readChoice()){
+        System.out.println("17. Show the dashboard for a hotel");
+        System.out.println("18. < EXIT");
+
+         int choice = readChoice();
+         esql.openSession();
+         // the reports, 8 to 17, may read from a replica.
+         esql.setReadOnly(choice >= 8 && choice <= 17);
+         try {
+            switch (choice){
            case 1: addCustomer(esql); break;
            case 2: addRoom(esql); break;
            case 3: addMaintenanceCompany(esql); break;
@@ -239,25 +1754,16 @@ public class DBProject {
            case 14: listRepairsMade(esql); break;
            case 15: topKMaintenanceCompany(esql); break;
            case 16: numberOfRepairsForEachRoomPerYear(esql); break;
-           case 17: keepon = false; break;
+           case 17: hotelDashboard(esql); break;
+           case 18: keepon = false; break;
            default : System.out.println("Unrecognized choice!"); break;
             }//end switch
-         }//end while
-      }catch(Exception e) {
-         System.err.println (e.getMessage ());
-      }finally{
-         // make sure to cleanup the created table and close the connection.
-         try{
-            if(esql != null) {
-               System.out.print("Disconnecting from database...");
-               esql.cleanup ();
-               System.out.println("Done\n\nBye !");
-            }//end if
-         }catch (Exception e) {
-            // ignored.
+         } finally {
+            esql.setReadOnly(false);
+            esql.closeSession();
          }//end try
-      }//end try
-   }//end main
+      }//end while
+   }//end runMenu
    
    public static void Greeting(){
       System.out.println(
@@ -266,6 +1772,39 @@ public class DBProject {
          "*******************************************************\n");
    }//end Greeting
 
+   /*
+    * One of the menu's paginated listings.
+    */
+   private abstract static class Listing {
+      abstract int page(DBProject esql, String token, ResultSink sink) throws SQLException;
+   }//end Listing
+
+   /*
+    * Prints a listing a page at a time, asking before each further page.
+    */
+   private static void showPages(Listing listing, DBProject esql) throws SQLException, IOException {
+      final String[] next = new String[1];
+      TabularResultSink sink = new TabularResultSink(System.out) {
+         public void nextPage(String token) {
+            next[0] = token;
+         }
+      };
+      String token = null;
+      do {
+         next[0] = null;
+         listing.page(esql, token, sink);
+         token = next[0];
+         if (token == null) {
+            break;
+         }
+         System.out.print("Press Enter for the next page, or q to stop: ");
+         String input = in.readLine();
+         if (input == null || input.trim().equalsIgnoreCase("q")) {
+            break;
+         }
+      } while(true);
+   }//end showPages
+
    /*
     * Reads the users choice given from the keyboard
     * @int
@@ -379,6 +1918,7 @@ public class DBProject {
           if(dateofbirth.length() <= 0) {
             throw new RuntimeException("Invalid input, please try again.");
           }
+          Params.date(dateofbirth);
           break;
         } catch(Exception e){
           System.err.println (e.getMessage());
@@ -398,10 +1938,14 @@ public class DBProject {
         }
       } while(true);
 
-      String newcustomer = "INSERT INTO Customer VALUES (" + customerid + ", " + "'" + firstname + "', '"  + lastname + "', '" + address + "', " + phonenum + ", '" + dateofbirth + "', '" + gender + "')";
-      //System.out.println(newcustomer);
-
-      esql.executeUpdate(newcustomer);
+      long started = System.nanoTime();
+      int result = -1;
+      try {
+        esql.insertCustomer(customerid, firstname, lastname, address, phonenum, Params.date(dateofbirth), gender);
+        result = 1;
+      } finally {
+        Operation.ADD_CUSTOMER.record(esql, started, result);
+      }
 
       System.out.print("\nSuccessfully added the following customer to the database:\n");
       System.out.print("\tCustomer ID: " + customerid + "\n");
@@ -471,9 +2015,14 @@ public class DBProject {
 
         } while(true);
 
-        String query = "INSERT INTO Room VALUES (" + hotelid + ", " + roomnum + ", '" + roomtype + "')";
-        
-        esql.executeUpdate(query);
+        long started = System.nanoTime();
+        int result = -1;
+        try {
+          esql.insertRoom(hotelid, roomnum, roomtype);
+          result = 1;
+        } finally {
+          Operation.ADD_ROOM.record(esql, started, result);
+        }
 
         System.out.print("\nSuccessfully added the following room to the database:\n");
         System.out.print("\tHotel ID: " + hotelid + "\n");
@@ -562,9 +2111,14 @@ public class DBProject {
         }
       } while(true);
 
-      String query = "INSERT INTO MaintenanceCompany VALUES (" + companyid + ", '" + companyname + "', '" + companyaddress + "', '" + companycert + "')";
-  
-      esql.executeUpdate(query);
+      long started = System.nanoTime();
+      int result = -1;
+      try {
+        esql.insertMaintenanceCompany(companyid, companyname, companyaddress, Boolean.valueOf(companycert));
+        result = 1;
+      } finally {
+        Operation.ADD_MAINTENANCE_COMPANY.record(esql, started, result);
+      }
 
       System.out.print("\nSuccessfully added the following company:\n");
       System.out.print("\tCompany name: " + companyname + "\n");
@@ -650,6 +2204,7 @@ public class DBProject {
             if(repairdate.length() <= 0){
               throw new RuntimeException("Invalid input, please try again.");
             }
+            Params.date(repairdate);
             break;
 
           } catch(Exception e){
@@ -658,8 +2213,14 @@ public class DBProject {
           }
         } while(true);
 
-        String query = "INSERT INTO Repair VALUES (" + repairid + ", " + hotelid + ", " + roomnum + ", " + companyid + ", '" + repairdate + "')";
-        esql.executeUpdate(query);
+        long started = System.nanoTime();
+        int result = -1;
+        try {
+          esql.insertRepair(repairid, hotelid, roomnum, companyid, Params.date(repairdate));
+          result = 1;
+        } finally {
+          Operation.ADD_REPAIR.record(esql, started, result);
+        }
 
         System.out.print("\nSuccessfully added the following repair:\n");
         System.out.print("\tRepair ID: " + repairid + "\n");
@@ -755,6 +2316,7 @@ public class DBProject {
           if(bookingdate.length() <= 0) {
             throw new RuntimeException("Invalid input, please try again.");
           }
+          Params.date(bookingdate);
           break;
         } catch(Exception e){
           System.err.println (e.getMessage());
@@ -762,20 +2324,11 @@ public class DBProject {
         }
       } while(true);
 
-      //make a new bookingid
-      String getbookingid = "(SELECT MAX(bID) FROM Booking)";
-      Statement stmt = esql._connection.createStatement();
-      ResultSet rs = stmt.executeQuery(getbookingid);
-      rs.next();
-      bookingid = rs.getInt(1) + 1;
-
       //get an existing customerid
-      String getcustomerid = "SELECT C.customerID FROM Customer C WHERE C.fname = '" + firstname + "' AND C.lname = '" + lastname + "'";
-      Statement stmt1 = esql._connection.createStatement();
-      ResultSet rs1 = stmt1.executeQuery(getcustomerid);
+      Integer existingcustomerid = esql.customerId(firstname, lastname);
       customerid = 0;
-      if(rs1.next()){
-        customerid = rs1.getInt(1);
+      if(existingcustomerid != null){
+        customerid = existingcustomerid;
 
       }else{
         // throw error saying user don't exist
@@ -819,8 +2372,14 @@ public class DBProject {
         }
       } while(true);
 
-      String query = "INSERT INTO Booking VALUES (" + bookingid + ", " + customerid + ", " + hotelid + ", " + roomnum + ", \'" + bookingdate + "\', " + partypeople + ", " + price + ")";
-      esql.executeUpdate(query);
+      long started = System.nanoTime();
+      int result = -1;
+      try {
+        bookingid = esql.insertBooking(customerid, hotelid, roomnum, Params.date(bookingdate), partypeople, price);
+        result = bookingid;
+      } finally {
+        Operation.BOOK_ROOM.record(esql, started, result);
+      }
 
       System.out.print("\nSuccessfully added the following booking:\n");
       System.out.print("\tBooking ID: " + bookingid + "\n");
@@ -887,14 +2446,15 @@ public class DBProject {
           } while(true);
 
           //getting the next assigned id
-          String getassignedid = "(SELECT MAX(asgID) FROM Assigned)";
-          Statement stmt = esql._connection.createStatement();
-          ResultSet rs = stmt.executeQuery(getassignedid);
-          rs.next();
-          int assignedid = rs.getInt(1) + 1;
-
-          String query = "INSERT INTO Assigned VALUES (" + assignedid + ", "  + staffid + ", " + hotelid + ", " + roomnum + ")";
-          esql.executeUpdate(query);
+          int assignedid;
+          long started = System.nanoTime();
+          int result = -1;
+          try {
+            assignedid = esql.insertAssignment(staffid, hotelid, roomnum);
+            result = assignedid;
+          } finally {
+            Operation.ASSIGN_HOUSE_CLEANING.record(esql, started, result);
+          }
 
           System.out.print("\nSuccessfully assigned house cleaning staff to room:\n");
           System.out.print("\tAssigned ID: " + assignedid + "\n");
@@ -923,9 +2483,7 @@ public class DBProject {
         System.out.print("Please enter your Staff ID: ");
         try {
           managerid = Integer.parseInt(in.readLine());
-          String errorCheck = "SELECT S.SSN FROM Staff S WHERE S.SSN = " + managerid + " AND S.role = 'Manager'";
-          int checkErrors = esql.checkErrors(errorCheck);
-          if(checkErrors == 0) {
+          if(!esql.isManager(managerid)) {
             throw new RuntimeException("ERROR: Please enter a valid Staff ID. Only Managers can add repair requests.");
           }
           else {
@@ -954,6 +2512,7 @@ public class DBProject {
                     if(requestdate.length() <= 0) {
                       throw new RuntimeException("Invalid input");
                     }
+                    Params.date(requestdate);
                     break;
                   } catch(Exception e){
                     System.err.println (e.getMessage());
@@ -969,15 +2528,14 @@ public class DBProject {
       } while(true);
 
       //get a new requestid
-      String getrequestid = "(SELECT MAX(reqID) FROM REQUEST)";
-      Statement stmt = esql._connection.createStatement();
-      ResultSet rs = stmt.executeQuery(getrequestid);
-      rs.next();
-      requestid = rs.getInt(1) + 1;
-
-      String requestinsert = "INSERT INTO Request VALUES (" + requestid + ", " + managerid + ", " + repairid + ", '" + requestdate + "')";
-
-      esql.executeUpdate(requestinsert);
+      long started = System.nanoTime();
+      int result = -1;
+      try {
+        requestid = esql.insertRequest(managerid, repairid, Params.date(requestdate));
+        result = requestid;
+      } finally {
+        Operation.REPAIR_REQUEST.record(esql, started, result);
+      }
 
       System.out.print("\nSuccessfully added the following request:\n");
       System.out.print("\tRequest ID: " + requestid + "\n");
@@ -995,6 +2553,8 @@ public class DBProject {
     // Given a hotelID, get the count of rooms available 
       try {
           int hotelid;
+          java.sql.Date firstdate;
+          java.sql.Date lastdate;
 
           System.out.println(
           "\n\n*******************************************************\n" +
@@ -1013,11 +2573,43 @@ public class DBProject {
             }
           } while(true);
 
+          //date range validation
+          do {
+            System.out.print("Enter the first date in the format MM/DD/YY, or leave blank for all dates: ");
+            try {
+              String input = in.readLine();
+              firstdate = input.trim().length() == 0 ? null : Params.date(input);
+              break;
+            } catch(Exception e){
+              System.err.println (e.getMessage());
+              continue;
+            }
+          } while(true);
+
+          lastdate = firstdate;
+          while(firstdate != null) {
+            System.out.print("Enter the last date in the format MM/DD/YY, or leave blank for the same day: ");
+            try {
+              String input = in.readLine();
+              lastdate = input.trim().length() == 0 ? firstdate : Params.date(input);
+              break;
+            } catch(Exception e){
+              System.err.println (e.getMessage());
+              continue;
+            }
+          }
+
           System.out.print("\n\tRESULTS\n");
           System.out.print("-----------------------\n");
 
-          String query = "SELECT COUNT(*) FROM Room R, Booking B WHERE R.hotelID = B.hotelID AND R.roomNo NOT IN (SELECT R.roomNo FROM Booking B WHERE R.roomNo = B.roomNo ) AND R.hotelID = " + hotelid;
-          esql.executeQuery(query);
+          long started = System.nanoTime();
+          int result = -1;
+          try {
+            esql.availableRooms(hotelid, firstdate, lastdate, _stdout.get());
+            result = 1;
+          } finally {
+            Operation.AVAILABLE_ROOMS.record(esql, started, result);
+          }
 
           System.out.print("\n\n");
           
@@ -1031,6 +2623,8 @@ public class DBProject {
     // Given a hotelID, get the count of rooms booked
     try {
       int hotelid;
+      java.sql.Date firstdate;
+      java.sql.Date lastdate;
 
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -1049,11 +2643,43 @@ public class DBProject {
         }
       } while(true);
 
+      //date range validation
+      do {
+        System.out.print("Enter the first date in the format MM/DD/YY, or leave blank for all dates: ");
+        try {
+          String input = in.readLine();
+          firstdate = input.trim().length() == 0 ? null : Params.date(input);
+          break;
+        } catch(Exception e){
+          System.err.println (e.getMessage());
+          continue;
+        }
+      } while(true);
+
+      lastdate = firstdate;
+      while(firstdate != null) {
+        System.out.print("Enter the last date in the format MM/DD/YY, or leave blank for the same day: ");
+        try {
+          String input = in.readLine();
+          lastdate = input.trim().length() == 0 ? firstdate : Params.date(input);
+          break;
+        } catch(Exception e){
+          System.err.println (e.getMessage());
+          continue;
+        }
+      }
+
       System.out.print("\n\tRESULTS\n");
       System.out.print("-----------------------\n");
 
-      String query = "SELECT COUNT(roomNo) FROM Booking B WHERE B.hotelID = " + hotelid;
-      esql.executeQuery(query);
+      long started = System.nanoTime();
+      int result = -1;
+      try {
+        esql.bookedRooms(hotelid, firstdate, lastdate, _stdout.get());
+        result = 1;
+      } finally {
+        Operation.BOOKED_ROOMS.record(esql, started, result);
+      }
 
       System.out.print("\n\n");
 
@@ -1082,6 +2708,7 @@ public class DBProject {
           if(bookingdate.length() <= 0) {
             throw new RuntimeException("Invalid input, please try again.");
           }
+          Params.date(bookingdate);
           break;
         } catch(Exception e){
           System.err.println (e.getMessage());
@@ -1104,8 +2731,20 @@ public class DBProject {
       System.out.print("\n\tRESULTS\n");
       System.out.print("-----------------------\n");
 
-      String query = "SELECT B.roomNo FROM Booking B WHERE (B.bookingDate BETWEEN \'" + bookingdate + "\' AND DATE \'" + bookingdate + "\' + INTERVAL \'1 week\') AND B.hotelID = " + hotelid + " GROUP BY B.roomNo";
-      esql.executeQuery(query);
+      final int hotel = hotelid;
+      final java.sql.Date date = Params.date(bookingdate);
+      showPages(new Listing() {
+         int page(DBProject esql, String token, ResultSink sink) throws SQLException {
+            long started = System.nanoTime();
+            int result = -1;
+            try {
+              result = esql.weekBookingsPage(hotel, date, MENU_PAGE_SIZE, token, sink);
+              return result;
+            } finally {
+              Operation.WEEK_BOOKINGS.record(esql, started, result);
+            }
+         }
+      }, esql);
 
       System.out.print("\n\n");
         
@@ -1134,6 +2773,7 @@ public class DBProject {
           if(daterange1.length() <= 0) {
             throw new RuntimeException("Invalid input, please try again.");
           }
+          Params.date(daterange1);
           break;
         } catch(Exception e){
           System.err.println (e.getMessage());
@@ -1148,6 +2788,7 @@ public class DBProject {
           if(daterange2.length() <= 0) {
             throw new RuntimeException("Invalid input, please try again.");
           }
+          Params.date(daterange2);
           break;
         } catch(Exception e){
           System.err.println (e.getMessage());
@@ -1169,9 +2810,13 @@ public class DBProject {
       System.out.print("\n\tRESULTS\n");
       System.out.print("-----------------------\n");
 
-      String query = "SELECT B.price, B.bookingDate FROM Room R, Booking B WHERE R.roomNo = B.roomNo AND R.hotelID = B.hotelID AND (B.bookingDate BETWEEN '" + daterange1 + "' AND '" + daterange2 + "') ORDER BY B.price DESC LIMIT " + k;
-
-      esql.executeQuery(query);
+      long started = System.nanoTime();
+      int result = -1;
+      try {
+        result = esql.topKRoomPrices(Params.date(daterange1), Params.date(daterange2), k, _stdout.get());
+      } finally {
+        Operation.TOP_K_ROOM_PRICE.record(esql, started, result);
+      }
 
       System.out.print("\n\n");
 
@@ -1240,9 +2885,13 @@ public class DBProject {
         System.out.print("\n\tRESULTS\n");
         System.out.print("-----------------------\n");
 
-        String query = "SELECT B.price, B.bID FROM Customer C, Booking B WHERE C.fName = '" + firstname + "' AND C.lName = '" + lastname + "' AND C.customerID = B.customer ORDER BY B.price DESC LIMIT " + k;
-        
-        esql.executeQuery(query);
+        long started = System.nanoTime();
+        int result = -1;
+        try {
+          result = esql.topKCustomerBookings(firstname, lastname, k, _stdout.get());
+        } finally {
+          Operation.TOP_K_CUSTOMER_BOOKINGS.record(esql, started, result);
+        }
 
         System.out.print("\n\n");
         
@@ -1317,6 +2966,7 @@ public class DBProject {
           if(daterange1.length() <= 0) {
             throw new RuntimeException("Invalid input, please try again.");
           }
+          Params.date(daterange1);
           break;
         } catch(Exception e){
           System.err.println (e.getMessage());
@@ -1332,6 +2982,7 @@ public class DBProject {
           if(daterange2.length() <= 0) {
             throw new RuntimeException("Invalid input, please try again.");
           }
+          Params.date(daterange2);
           break;
         } catch(Exception e){
           System.err.println (e.getMessage());
@@ -1342,8 +2993,13 @@ public class DBProject {
       System.out.print("\n\tRESULTS\n");
       System.out.print("-----------------------\n");
 
-      String query = "SELECT SUM(price) FROM Booking B WHERE B.hotelID = " + hotelid + " AND B.customer = (SELECT C.customerID FROM Customer C WHERE C.fName = \'" + firstname + "\' AND C.lName = \'" + lastname + "\') AND B.bookingDate BETWEEN \'" + daterange1 + "\' AND \'" + daterange2 + "\'";
-      esql.executeQuery(query);
+      long started = System.nanoTime();
+      int result = -1;
+      try {
+        result = esql.totalCost(hotelid, firstname, lastname, Params.date(daterange1), Params.date(daterange2), _stdout.get());
+      } finally {
+        Operation.TOTAL_COST.record(esql, started, result);
+      }
 
       System.out.print("\n\n");
 
@@ -1381,8 +3037,19 @@ public class DBProject {
         System.out.print("\n\tRESULTS\n");
         System.out.print("-----------------------\n");
 
-        String query = "SELECT DISTINCT Rep.rID, Rep.repairType, Rep.hotelID, Rep.roomNo FROM Repair Rep, MaintenanceCompany M WHERE M.cmpID = Rep.mCompany AND M.name = '" + companyname + "'";
-        esql.executeQuery(query);
+        final String company = companyname;
+        showPages(new Listing() {
+           int page(DBProject esql, String token, ResultSink sink) throws SQLException {
+              long started = System.nanoTime();
+              int result = -1;
+              try {
+                result = esql.repairsMadePage(company, MENU_PAGE_SIZE, token, sink);
+                return result;
+              } finally {
+                Operation.LIST_REPAIRS_MADE.record(esql, started, result);
+              }
+           }
+        }, esql);
 
         System.out.print("\n\n");
         
@@ -1418,8 +3085,13 @@ public class DBProject {
       System.out.print("\n\tRESULTS\n");
       System.out.print("-----------------------\n");
 
-      String query = "SELECT COUNT(rID), M.name FROM MaintenanceCompany M, Repair R WHERE M.cmpID = R.mCompany GROUP BY M.name ORDER BY COUNT(rID) DESC LIMIT " + k;
-      esql.executeQuery(query);
+      long started = System.nanoTime();
+      int result = -1;
+      try {
+        result = esql.topKMaintenanceCompanies(k, _stdout.get());
+      } finally {
+        Operation.TOP_K_MAINTENANCE_COMPANY.record(esql, started, result);
+      }
 
       System.out.print("\n\n");
 
@@ -1467,8 +3139,13 @@ public class DBProject {
         System.out.print("\n\tRESULTS\n");
         System.out.print("-----------------------\n");
          
-        String query = "SELECT DATE_PART('year', Rep.repairDate), COUNT(*) FROM Repair Rep WHERE Rep.hotelID = " + hotelid + " AND Rep.roomNo = " + roomnum + " GROUP BY DATE_PART('year', Rep.repairDate)";
-        esql.executeQuery(query);
+        long started = System.nanoTime();
+        int result = -1;
+        try {
+          result = esql.repairsPerYear(hotelid, roomnum, _stdout.get());
+        } finally {
+          Operation.REPAIRS_PER_YEAR.record(esql, started, result);
+        }
 
         System.out.print("\n\n");
          
@@ -1476,4 +3153,69 @@ public class DBProject {
         System.err.println (e.getMessage());
       }
    }//end listRepairsMade
+
+   public static void hotelDashboard(DBProject esql){
+    // Given a hotelID and an optional date range, run the hotel's reports at once
+      try{
+        int hotelid;
+        java.sql.Date firstdate;
+        java.sql.Date lastdate;
+
+        System.out.println(
+         "\n\n*******************************************************\n" +
+         "                    HOTEL DASHBOARD                        \n" +
+         "*******************************************************\n");
+
+        //hotelid validation
+        do {
+          System.out.print("Enter the existing Hotel ID: ");
+          try {
+            hotelid = Integer.parseInt(in.readLine());
+            if (!esql.hotelExists(hotelid)) {
+              throw new RuntimeException("Hotel " + hotelid + " does not exist.");
+            }
+            break;
+          } catch(Exception e){
+           System.err.println (e.getMessage());
+           continue;
+          }
+        } while(true);
+
+        //date range validation
+        do {
+          System.out.print("Enter the first date in the format MM/DD/YY, or leave blank for all dates: ");
+          try {
+            String input = in.readLine();
+            firstdate = input.trim().length() == 0 ? null : Params.date(input);
+            break;
+          } catch(Exception e){
+            System.err.println (e.getMessage());
+            continue;
+          }
+        } while(true);
+
+        lastdate = firstdate;
+        while(firstdate != null) {
+          System.out.print("Enter the last date in the format MM/DD/YY, or leave blank for the same day: ");
+          try {
+            String input = in.readLine();
+            lastdate = input.trim().length() == 0 ? firstdate : Params.date(input);
+            break;
+          } catch(Exception e){
+            System.err.println (e.getMessage());
+            continue;
+          }
+        }
+
+        System.out.print("\n\tRESULTS\n");
+        System.out.print("-----------------------\n");
+
+        new Dashboard(esql).print(hotelid, firstdate, lastdate, System.out);
+
+        System.out.print("\n\n");
+
+      } catch(Exception e){
+        System.err.println (e.getMessage());
+      }
+   }//end hotelDashboard
 }//end DBProject
\ No newline at end of file
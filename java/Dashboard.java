@@ -0,0 +1,180 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the reports a manager reads for one hotel at the same time, each on
+ * its own thread and so on its own pooled connection, and prints them as one
+ * view with the time each took.  The view is ready when the slowest report
+ * is, instead of after all of them one by one.
+ *
+ */
+public class Dashboard {
+
+   // how many top maintenance companies the view lists.
+   private static final int TOP_COMPANIES = 5;
+
+   private final DBProject _esql;
+
+   /*
+    * One report of the view.
+    */
+   private abstract static class Report {
+      final String title;
+
+      Report (String title) {
+         this.title = title;
+      }
+
+      abstract int run (ResultSink sink) throws Exception;
+   }//end Report
+
+   /**
+    * The outcome of one report.
+    */
+   public static class Section {
+      public final String title;
+      public final String output;
+      public final int rows;
+      public final long nanos;
+      public final String error;
+
+      Section (String title, String output, int rows, long nanos, String error) {
+         this.title = title;
+         this.output = output;
+         this.rows = rows;
+         this.nanos = nanos;
+         this.error = error;
+      }
+   }//end Section
+
+   /**
+    * @param esql the database, with a pool large enough for every report at
+    *        once
+    */
+   public Dashboard (DBProject esql) {
+      this._esql = esql;
+   }//end Dashboard
+
+   /**
+    * Runs every report for a hotel at once and waits for all of them.
+    *
+    * @param firstdate the start of the date range, or null for all dates;
+    *        the week's bookings are listed from this date
+    * @param lastdate the end of the date range
+    * @return the reports in the order they are printed
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public List<Section> run (final int hotelid, final java.sql.Date firstdate,
+                             final java.sql.Date lastdate) throws InterruptedException {
+      List<Report> reports = new ArrayList<Report> ();
+      reports.add (new Report ("Available rooms") {
+         int run (ResultSink sink) throws Exception {
+            _esql.availableRooms (hotelid, firstdate, lastdate, sink);
+            return 1;
+         }
+      });
+      reports.add (new Report ("Booked rooms") {
+         int run (ResultSink sink) throws Exception {
+            _esql.bookedRooms (hotelid, firstdate, lastdate, sink);
+            return 1;
+         }
+      });
+      if (firstdate != null) {
+         reports.add (new Report ("Rooms booked in the week") {
+            int run (ResultSink sink) throws Exception {
+               return _esql.weekBookings (hotelid, firstdate, sink);
+            }
+         });
+      }
+      reports.add (new Report ("Repairs") {
+         int run (ResultSink sink) throws Exception {
+            return _esql.hotelRepairs (hotelid, firstdate, lastdate, sink);
+         }
+      });
+      reports.add (new Report ("Repairs per room and year") {
+         int run (ResultSink sink) throws Exception {
+            return _esql.hotelRepairsPerYear (hotelid, sink);
+         }
+      });
+      reports.add (new Report ("Top " + TOP_COMPANIES + " maintenance companies") {
+         int run (ResultSink sink) throws Exception {
+            return _esql.topKMaintenanceCompanies (TOP_COMPANIES, sink);
+         }
+      });
+
+      List<Callable<Section>> tasks = new ArrayList<Callable<Section>> ();
+      for (final Report report : reports) {
+         tasks.add (new Callable<Section> () {
+            public Section call () {
+               _esql.setReadOnly (true);
+               return section (report);
+            }
+         });
+      }
+      ExecutorService executor = Executors.newFixedThreadPool (tasks.size ());
+      try {
+         List<Section> sections = new ArrayList<Section> ();
+         for (Future<Section> f : executor.invokeAll (tasks)) {
+            try {
+               sections.add (f.get ());
+            } catch (ExecutionException e) {
+               throw new RuntimeException (e.getCause ());
+            }
+         }
+         return sections;
+      } finally {
+         executor.shutdownNow ();
+      }//end try
+   }//end run
+
+   /**
+    * Runs the reports for a hotel and prints them.
+    *
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public void print (int hotelid, java.sql.Date firstdate, java.sql.Date lastdate,
+                      PrintStream out) throws InterruptedException {
+      long start = System.nanoTime ();
+      List<Section> sections = run (hotelid, firstdate, lastdate);
+      long elapsed = System.nanoTime () - start;
+      long sum = 0;
+      for (Section section : sections) {
+         out.println (String.format (Locale.ROOT, "== %s (%.1f ms)", section.title, section.nanos / 1e6));
+         if (section.error != null) {
+            out.println ("Error: " + section.error);
+         } else if (section.rows == 0) {
+            out.println ("(none)");
+         } else {
+            out.print (section.output);
+         }
+         out.println ();
+         sum += section.nanos;
+      }
+      out.println (String.format (Locale.ROOT, "%d reports in %.1f ms (%.1f ms one after another)",
+                                  sections.size (), elapsed / 1e6, sum / 1e6));
+   }//end print
+
+   /*
+    * Runs one report into a buffer, timing it.
+    */
+   private static Section section (Report report) {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream ();
+      long start = System.nanoTime ();
+      int rows = 0;
+      String error = null;
+      try {
+         rows = report.run (new TabularResultSink (buffer));
+      } catch (Exception e) {
+         error = e.getMessage ();
+      }//end try
+      return new Section (report.title, buffer.toString (), rows, System.nanoTime () - start, error);
+   }//end section
+}//end Dashboard
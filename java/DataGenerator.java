@@ -0,0 +1,600 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates a synthetic dataset in the layout of data/*.csv, at any size:
+ * hotels with five staff each (a manager, two receptionists and two house
+ * cleaners, as in the shipped data), their rooms, customers, maintenance
+ * companies, bookings, repairs, one request per repair by the repaired
+ * hotel's manager, and house cleaning assignments.  Every file starts with
+ * the same "default" row 0 as the shipped data.
+ *
+ * Each row's values are derived from the seed, the table and the row number
+ * alone, so the output is identical however many threads write it.  Tables
+ * are written in chunks in parallel and the chunk files are then joined.
+ *
+ * Bookings, repairs and assignments favour low numbered hotels following a
+ * Zipf distribution (-hotSkew, 0 for uniform), and booking dates peak in
+ * July (-seasonal, the relative swing in bookings between July and January).
+ *
+ * A room can be booked once a day (bookingRoomDateUnique), so each hotel's
+ * number of bookings is fixed up front: its Zipf share, but never more than
+ * its rooms times the days in the date range, the excess going to the other
+ * hotels in proportion to their shares.  Bookings are then numbered hotel
+ * by hotel and a chunk holds whole hotels, so the chunks book disjoint rooms
+ * and are written in parallel like the other tables.  A booking whose room
+ * is taken on its day takes the hotel's next free room that day, or on a
+ * later day.
+ *
+ */
+public class DataGenerator {
+
+   // rows per chunk file.
+   private static final long CHUNK_ROWS = 1000000L;
+
+   // staff per hotel, in SSN order, and where the manager and cleaners are.
+   private static final String[] STAFF_ROLES = { "Manager", "Receptionist", "HouseCleaning",
+                                                 "Receptionist", "HouseCleaning" };
+
+   private static final String[] ROOM_TYPES = { "Economy", "Economy", "Economy", "Economy", "Economy",
+                                                "Suite", "Suite", "Suite", "Deluxe", "Deluxe" };
+   private static final String[] REPAIR_TYPES = { "Small", "Medium", "Large" };
+   private static final String[] GENDERS = { "Male", "Female", "Other" };
+
+   // table numbers mixed into the row seeds.
+   private static final int HOTEL = 1, STAFF = 2, ROOM = 3, CUSTOMER = 4, COMPANY = 5,
+                            BOOKING = 6, REPAIR = 7, REQUEST = 8, ASSIGNED = 9;
+
+   private final File _out;
+   private final long _seed;
+   private final int _threads;
+
+   // dataset shape.
+   int hotels = 1000;
+   int roomsPerHotel = 10;
+   long customers = 2000;
+   int companies = 20;
+   long bookings = 4000;
+   long repairs = 2000;
+   long assigned = 2000;
+   int firstYear = 2000;
+   int lastYear = 2018;
+   double hotSkew = 1.0;
+   double seasonal = 0.5;
+
+   // cumulative Zipf weights of the hotels, built by generate().
+   private double[] _hotelCdf;
+   private int _firstDay;
+   private int _days;
+   // the first booking of every hotel, and one past the last booking.
+   private long[] _hotelBookings;
+
+   /**
+    * @param out the folder to write the csv files to
+    * @param seed the seed every value is derived from
+    * @param threads how many chunks to write at once
+    */
+   public DataGenerator (File out, long seed, int threads) {
+      this._out = out;
+      this._seed = seed;
+      this._threads = threads;
+   }//end DataGenerator
+
+   /*
+    * Writes one table's rows [from, to) to a writer.
+    */
+   private abstract class Table {
+      final String file;
+      final int table;
+      final long rows;
+      final String defaultRow;
+
+      Table (String file, int table, long rows, String defaultRow) {
+         this.file = file;
+         this.table = table;
+         this.rows = rows;
+         this.defaultRow = defaultRow;
+      }
+
+      /*
+       * Returns the first row of every chunk, and one past the last row.
+       */
+      long[] chunks () {
+         long last = Math.max (1, this.rows);
+         long[] starts = new long[(int) ((last + CHUNK_ROWS - 1) / CHUNK_ROWS) + 1];
+         for (int i = 0; i < starts.length; ++i) {
+            starts[i] = Math.min (1 + i * CHUNK_ROWS, this.rows + 1);
+         }
+         starts[starts.length - 1] = this.rows + 1;
+         return starts;
+      }
+
+      /*
+       * Returns the table to write one chunk's rows with, in order; tables
+       * that keep state from row to row return a copy of their own.
+       */
+      Table chunk () {
+         return this;
+      }
+
+      abstract void row (Rng rnd, long id, StringBuilder line);
+   }//end Table
+
+   /*
+    * The bookings, numbered hotel by hotel; a chunk holds whole hotels.
+    */
+   private class Bookings extends Table {
+      // the room and day slots of the current hotel already booked, by
+      // (day - first day) * rooms per hotel + room - 1.
+      private final BitSet _booked = new BitSet ();
+      private int _hotel = 0;
+
+      Bookings () {
+         super ("booking.csv", BOOKING, bookings, "0,0,0,0,1/1/2000,0,0");
+      }
+
+      long[] chunks () {
+         List<Long> starts = new ArrayList<Long> ();
+         starts.add (1L);
+         for (int h = 1; h < hotels; ++h) {
+            if (_hotelBookings[h] - starts.get (starts.size () - 1) >= CHUNK_ROWS) {
+               starts.add (_hotelBookings[h]);
+            }
+         }
+         starts.add (this.rows + 1);
+         long[] result = new long[starts.size ()];
+         for (int i = 0; i < result.length; ++i) {
+            result[i] = starts.get (i);
+         }
+         return result;
+      }
+
+      Table chunk () {
+         return new Bookings ();
+      }
+
+      void row (Rng rnd, long id, StringBuilder line) {
+         while (id >= _hotelBookings[this._hotel]) {
+            ++this._hotel;
+            this._booked.clear ();
+         }
+         long customer = 1 + (long) (rnd.nextDouble () * customers);
+         int slots = roomsPerHotel * _days;
+         int slot = (seasonalDay (rnd) - _firstDay) * roomsPerHotel + rnd.nextInt (roomsPerHotel);
+         slot = this._booked.nextClearBit (slot);
+         if (slot >= slots) {
+            // the hotel never gets more bookings than slots.
+            slot = this._booked.nextClearBit (0);
+         }
+         this._booked.set (slot);
+         line.append (id).append (',')
+             .append (customer).append (',')
+             .append (this._hotel).append (',')
+             .append (slot % roomsPerHotel + 1).append (',')
+             .append (Params.formatEpochDay (_firstDay + slot / roomsPerHotel)).append (',')
+             .append (1 + rnd.nextInt (3)).append (',')
+             .append (500 + rnd.nextInt (1500));
+      }
+   }//end Bookings
+
+   /**
+    * Writes every table.
+    *
+    * @throws java.io.IOException when a file cannot be written
+    */
+   public void generate () throws IOException {
+      if (!this._out.isDirectory () && !this._out.mkdirs ()) {
+         throw new IOException ("Cannot create " + this._out);
+      }
+      this._hotelCdf = zipf (this.hotels, this.hotSkew);
+      this._firstDay = Params.epochDay (this.firstYear, 1, 1);
+      this._days = Params.epochDay (this.lastYear + 1, 1, 1) - this._firstDay;
+      this._hotelBookings = hotelBookings ();
+
+      List<Table> tables = new ArrayList<Table> ();
+      tables.add (new Table ("hotel.csv", HOTEL, this.hotels, "0,default,\\N") {
+         void row (Rng rnd, long id, StringBuilder line) {
+            line.append (id).append (',');
+            word (rnd, line, 6).append (",\\N");
+         }
+      });
+      tables.add (new Table ("staff.csv", STAFF, (long) this.hotels * STAFF_ROLES.length,
+                             "0,default,default,default,Manager,0") {
+         void row (Rng rnd, long id, StringBuilder line) {
+            line.append (id).append (',');
+            word (rnd, line, 4).append (',');
+            word (rnd, line, 4).append (',');
+            word (rnd, line, 6).append (',');
+            line.append (STAFF_ROLES[(int) ((id - 1) % STAFF_ROLES.length)]).append (',')
+                .append ((id - 1) / STAFF_ROLES.length + 1);
+         }
+      });
+      tables.add (new Table ("room.csv", ROOM, (long) this.hotels * this.roomsPerHotel, "0,0,default") {
+         void row (Rng rnd, long id, StringBuilder line) {
+            line.append ((id - 1) / roomsPerHotel + 1).append (',')
+                .append ((id - 1) % roomsPerHotel + 1).append (',')
+                .append (ROOM_TYPES[rnd.nextInt (ROOM_TYPES.length)]);
+         }
+      });
+      tables.add (new Table ("customer.csv", CUSTOMER, this.customers,
+                             "0,default,default,default,0,1/1/2000,Male") {
+         void row (Rng rnd, long id, StringBuilder line) {
+            line.append (id).append (',');
+            word (rnd, line, 4).append (',');
+            word (rnd, line, 4).append (',');
+            word (rnd, line, 6).append (',');
+            line.append (1000000000L + (long) (rnd.nextDouble () * 8999999999L)).append (',');
+            int dob = Params.epochDay (1930, 1, 1) + rnd.nextInt (70 * 365);
+            line.append (Params.formatEpochDay (dob)).append (',')
+                .append (GENDERS[rnd.nextInt (GENDERS.length)]);
+         }
+      });
+      tables.add (new Table ("maintenanceCompany.csv", COMPANY, this.companies,
+                             "0,default,default,TRUE") {
+         void row (Rng rnd, long id, StringBuilder line) {
+            line.append (id).append (',');
+            word (rnd, line, 4).append (',');
+            word (rnd, line, 6).append (',').append (rnd.nextInt (4) == 0 ? "FALSE" : "TRUE");
+         }
+      });
+      tables.add (new Bookings ());
+      tables.add (new Table ("repair.csv", REPAIR, this.repairs, "0,0,0,0,1/1/2000,default,Small") {
+         void row (Rng rnd, long id, StringBuilder line) {
+            line.append (id).append (',').append (hotel (rnd)).append (',')
+                .append (1 + rnd.nextInt (roomsPerHotel)).append (',')
+                .append (1 + rnd.nextInt (companies)).append (',')
+                .append (Params.formatEpochDay (_firstDay + rnd.nextInt (_days))).append (',');
+            word (rnd, line, 4).append (',').append (REPAIR_TYPES[rnd.nextInt (REPAIR_TYPES.length)]);
+         }
+      });
+      tables.add (new Table ("request.csv", REQUEST, this.repairs, "0,0,0,1/1/2000,default") {
+         void row (Rng rnd, long id, StringBuilder line) {
+            // replay the repair's draws to find its hotel and date.
+            Rng repair = new Rng ();
+            repair.reset (_seed, REPAIR, id);
+            int hotelid = hotel (repair);
+            repair.nextInt (roomsPerHotel);
+            repair.nextInt (companies);
+            int day = _firstDay + repair.nextInt (_days);
+            line.append (id).append (',')
+                .append ((long) (hotelid - 1) * STAFF_ROLES.length + 1).append (',')
+                .append (id).append (',')
+                .append (Params.formatEpochDay (day - rnd.nextInt (14))).append (',');
+            word (rnd, line, 4);
+         }
+      });
+      tables.add (new Table ("assigned.csv", ASSIGNED, this.assigned, "0,0,0,0") {
+         void row (Rng rnd, long id, StringBuilder line) {
+            int hotelid = hotel (rnd);
+            int cleaner = rnd.nextInt (2) == 0 ? 3 : 5;
+            line.append (id).append (',')
+                .append ((long) (hotelid - 1) * STAFF_ROLES.length + cleaner).append (',')
+                .append (hotelid).append (',')
+                .append (1 + rnd.nextInt (roomsPerHotel));
+         }
+      });
+
+      ExecutorService executor = Executors.newFixedThreadPool (this._threads);
+      try {
+         for (Table table : tables) {
+            long start = System.nanoTime ();
+            write (executor, table);
+            System.out.println (String.format ("   %-24s %12d rows %8.1fs", table.file, table.rows + 1,
+                                               (System.nanoTime () - start) / 1e9));
+         }
+      } finally {
+         executor.shutdownNow ();
+      }
+   }//end generate
+
+   /*
+    * Writes a table's chunks in parallel, then joins them in order.
+    */
+   private void write (ExecutorService executor, final Table table) throws IOException {
+      List<Callable<File>> tasks = new ArrayList<Callable<File>> ();
+      long[] chunks = table.chunks ();
+      for (int i = 0; i + 1 < chunks.length; ++i) {
+         final long first = chunks[i];
+         final long last = chunks[i + 1] - 1;
+         final File part = new File (this._out, table.file + ".part" + i);
+         tasks.add (new Callable<File> () {
+            public File call () throws IOException {
+               Table rows = table.chunk ();
+               Writer out = new BufferedWriter (new OutputStreamWriter (new FileOutputStream (part), "UTF-8"),
+                                                1 << 16);
+               try {
+                  Rng rnd = new Rng ();
+                  StringBuilder line = new StringBuilder (128);
+                  if (first == 1) {
+                     out.write (table.defaultRow);
+                     out.write ('\n');
+                  }
+                  for (long id = first; id <= last; ++id) {
+                     line.setLength (0);
+                     rnd.reset (_seed, table.table, id);
+                     rows.row (rnd, id, line);
+                     line.append ('\n');
+                     out.append (line);
+                  }
+               } finally {
+                  out.close ();
+               }
+               return part;
+            }
+         });
+      }//end for
+
+      List<File> parts = new ArrayList<File> ();
+      try {
+         for (Future<File> f : executor.invokeAll (tasks)) {
+            parts.add (f.get ());
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread ().interrupt ();
+         throw new IOException ("Interrupted while writing " + table.file);
+      } catch (ExecutionException e) {
+         throw new IOException ("Writing " + table.file + " failed: " + e.getCause (), e.getCause ());
+      }//end try
+      join (parts, new File (this._out, table.file));
+   }//end write
+
+   private static void join (List<File> parts, File target) throws IOException {
+      FileChannel out = new FileOutputStream (target).getChannel ();
+      try {
+         for (File part : parts) {
+            FileChannel in = new FileInputStream (part).getChannel ();
+            try {
+               long position = 0;
+               long size = in.size ();
+               while (position < size) {
+                  position += in.transferTo (position, size - position, out);
+               }
+            } finally {
+               in.close ();
+            }
+            if (!part.delete ()) {
+               throw new IOException ("Cannot delete " + part);
+            }
+         }//end for
+      } finally {
+         out.close ();
+      }
+   }//end join
+
+   /*
+    * Shares the bookings out among the hotels by their Zipf weights, giving
+    * no hotel more than its room days, and returns the first booking of
+    * every hotel followed by one past the last booking.
+    */
+   private long[] hotelBookings () {
+      long capacity = roomDays ();
+      long[] count = new long[this.hotels];
+      boolean[] full = new boolean[this.hotels];
+      long left = this.bookings;
+      while (true) {
+         // the weight of the hotels that can take more.
+         double open = 0;
+         for (int h = 0; h < this.hotels; ++h) {
+            if (!full[h]) {
+               open += weight (h);
+            }
+         }
+         boolean capped = false;
+         for (int h = 0; h < this.hotels; ++h) {
+            if (!full[h] && left * weight (h) / open >= capacity) {
+               full[h] = true;
+               count[h] = capacity;
+               left -= capacity;
+               capped = true;
+            }
+         }
+         if (!capped) {
+            long given = 0;
+            for (int h = 0; h < this.hotels; ++h) {
+               if (!full[h]) {
+                  count[h] = (long) (left * weight (h) / open);
+                  given += count[h];
+               }
+            }
+            // the rounding remainder, hottest hotels first.
+            for (int h = 0; given < left; h = (h + 1) % this.hotels) {
+               if (count[h] < capacity) {
+                  ++count[h];
+                  ++given;
+               }
+            }
+            break;
+         }
+      }//end while
+      long[] first = new long[this.hotels + 1];
+      first[0] = 1;
+      for (int h = 0; h < this.hotels; ++h) {
+         first[h + 1] = first[h] + count[h];
+      }
+      return first;
+   }//end hotelBookings
+
+   /*
+    * Returns the room and day slots of one hotel.
+    */
+   private long roomDays () {
+      return (long) this.roomsPerHotel *
+             (Params.epochDay (this.lastYear + 1, 1, 1) - Params.epochDay (this.firstYear, 1, 1));
+   }//end roomDays
+
+   private double weight (int h) {
+      return h == 0 ? this._hotelCdf[0] : this._hotelCdf[h] - this._hotelCdf[h - 1];
+   }//end weight
+
+   /*
+    * Picks a hotel from the Zipf distribution.
+    */
+   private int hotel (Rng rnd) {
+      double u = rnd.nextDouble ();
+      int lo = 0;
+      int hi = this._hotelCdf.length - 1;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (this._hotelCdf[mid] < u) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo + 1;
+   }//end hotel
+
+   /*
+    * Picks a day in the date range, weighted by a yearly cycle that peaks
+    * in July.
+    */
+   private int seasonalDay (Rng rnd) {
+      while (true) {
+         int day = this._firstDay + rnd.nextInt (this._days);
+         double phase = 2 * Math.PI * (day - Params.epochDay (1970, 7, 15)) / 365.25;
+         double weight = (1 + this.seasonal * Math.cos (phase)) / (1 + this.seasonal);
+         if (rnd.nextDouble () < weight) {
+            return day;
+         }
+      }
+   }//end seasonalDay
+
+   private static double[] zipf (int n, double skew) {
+      double[] cdf = new double[n];
+      double total = 0;
+      for (int i = 0; i < n; ++i) {
+         total += 1.0 / Math.pow (i + 1, skew);
+         cdf[i] = total;
+      }
+      for (int i = 0; i < n; ++i) {
+         cdf[i] /= total;
+      }
+      return cdf;
+   }//end zipf
+
+   private static StringBuilder word (Rng rnd, StringBuilder line, int length) {
+      for (int i = 0; i < length; ++i) {
+         line.append ((char) ('a' + rnd.nextInt (26)));
+      }
+      return line;
+   }//end word
+
+   /*
+    * A small counter based generator (SplitMix64) whose state is reset for
+    * every row, so a row's values depend only on the seed, table and row.
+    */
+   private static final class Rng {
+      private long state;
+
+      void reset (long seed, int table, long row) {
+         this.state = mix (seed ^ mix (table * 0x9E3779B97F4A7C15L + row));
+      }
+
+      long nextLong () {
+         this.state += 0x9E3779B97F4A7C15L;
+         return mix (this.state);
+      }
+
+      int nextInt (int bound) {
+         return (int) (((nextLong () >>> 32) * bound) >>> 32);
+      }
+
+      double nextDouble () {
+         return (nextLong () >>> 11) * 0x1.0p-53;
+      }
+
+      private static long mix (long z) {
+         z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+         z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+         return z ^ (z >>> 31);
+      }
+   }//end Rng
+
+   public static void main (String[] args) {
+      Map<String, String> options = new HashMap<String, String> ();
+      DataGenerator gen;
+      try {
+         for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith ("-") || i + 1 >= args.length) {
+               throw new IllegalArgumentException ("Unrecognized option: " + args[i]);
+            }
+            options.put (args[i].substring (1), args[i + 1]);
+         }
+         gen = new DataGenerator (new File (option (options, "out", "generated")),
+                                  Long.parseLong (option (options, "seed", "42")),
+                                  Integer.parseInt (option (options, "threads", String.valueOf (
+                                     Runtime.getRuntime ().availableProcessors ()))));
+         double scale = Double.parseDouble (option (options, "scale", "1"));
+         gen.hotels = Integer.parseInt (option (options, "hotels", String.valueOf ((int) Math.max (1, gen.hotels * scale))));
+         gen.roomsPerHotel = Integer.parseInt (option (options, "roomsPerHotel", String.valueOf (gen.roomsPerHotel)));
+         gen.customers = Long.parseLong (option (options, "customers", String.valueOf ((long) Math.max (1, gen.customers * scale))));
+         gen.companies = Integer.parseInt (option (options, "companies", String.valueOf (gen.companies)));
+         gen.bookings = Long.parseLong (option (options, "bookings", String.valueOf ((long) (gen.bookings * scale))));
+         gen.repairs = Long.parseLong (option (options, "repairs", String.valueOf ((long) (gen.repairs * scale))));
+         gen.assigned = Long.parseLong (option (options, "assigned", String.valueOf ((long) (gen.assigned * scale))));
+         gen.firstYear = Integer.parseInt (option (options, "firstYear", String.valueOf (gen.firstYear)));
+         gen.lastYear = Integer.parseInt (option (options, "lastYear", String.valueOf (gen.lastYear)));
+         gen.hotSkew = Double.parseDouble (option (options, "hotSkew", String.valueOf (gen.hotSkew)));
+         gen.seasonal = Double.parseDouble (option (options, "seasonal", String.valueOf (gen.seasonal)));
+         if (!options.isEmpty ()) {
+            throw new IllegalArgumentException ("Unrecognized option: -" + options.keySet ().iterator ().next ());
+         }
+         if (gen.hotels <= 0 || gen.roomsPerHotel <= 0 || gen.companies <= 0 || gen._threads <= 0
+             || gen.lastYear < gen.firstYear || gen.seasonal < 0 || gen.seasonal > 1) {
+            throw new IllegalArgumentException ("Invalid dataset shape.");
+         }
+         if (gen.roomDays () > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException ("Too many rooms and years for one hotel.");
+         }
+         if (gen.bookings > gen.roomDays () * gen.hotels) {
+            throw new IllegalArgumentException ("The hotels have only " + gen.roomDays () * gen.hotels +
+                                                " room days for " + gen.bookings + " bookings.");
+         }
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+         usage ();
+         return;
+      }//end try
+
+      try {
+         long start = System.nanoTime ();
+         System.out.println ("Writing to " + gen._out + " with " + gen._threads + " threads");
+         gen.generate ();
+         System.out.println (String.format ("Done in %.1fs", (System.nanoTime () - start) / 1e9));
+      } catch (IOException e) {
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+
+   /*
+    * Takes an option out of the map, or returns its default.
+    */
+   private static String option (Map<String, String> options, String name, String defaultValue) {
+      String value = options.remove (name);
+      return value == null ? defaultValue : value;
+   }//end option
+
+   public static void usage () {
+      System.err.println (
+         "Usage: java " + DataGenerator.class.getName () +
+         " [-out <folder>] [-seed <n>] [-threads <n>] [-scale <x>] [-hotels <n>] [-roomsPerHotel <n>]" +
+         " [-customers <n>] [-companies <n>] [-bookings <n>] [-repairs <n>] [-assigned <n>]" +
+         " [-firstYear <yyyy>] [-lastYear <yyyy>] [-hotSkew <s>] [-seasonal <0..1>]");
+   }//end usage
+}//end DataGenerator
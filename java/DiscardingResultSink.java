@@ -0,0 +1,20 @@
+/**
+ * A result sink that consumes rows without printing them.  Subclasses
+ * override row() to keep the values they need; benchmarks use it as is so
+ * the formatting cost is left out of their timings.
+ *
+ */
+public class DiscardingResultSink implements ResultSink {
+
+   public void columns (String[] names) {
+   }//end columns
+
+   public void row (String[] values) {
+   }//end row
+
+   public void finish (int rowCount) {
+   }//end finish
+
+   public void nextPage (String token) {
+   }//end nextPage
+}//end DiscardingResultSink
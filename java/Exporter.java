@@ -0,0 +1,122 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the result of a report, or a whole table, to a file instead of the
+ * console.  The format follows the file name: .bin for BinaryResultSink's
+ * row format and CSV otherwise, gzip compressed when the name also ends in
+ * .gz (e.g. prices.csv.gz).  Rows are streamed from a server-side cursor
+ * through a direct buffer into a FileChannel, so memory use does not depend
+ * on the size of the export.  CSV table dumps are formatted by the server
+ * with COPY ... TO STDOUT (see PgCopy).
+ *
+ */
+public class Exporter {
+
+   /**
+    * The file formats.
+    */
+   public enum Format { CSV, BINARY }
+
+   private final DBProject _esql;
+
+   public Exporter (DBProject esql) {
+      this._esql = esql;
+   }//end Exporter
+
+   /**
+    * @return the format a file name asks for
+    */
+   public static Format format (File file) {
+      String name = stripGzip (file.getName ());
+      return name.endsWith (".bin") ? Format.BINARY : Format.CSV;
+   }//end format
+
+   /**
+    * @return true if a file name asks for gzip compression
+    */
+   public static boolean compressed (File file) {
+      return file.getName ().endsWith (".gz");
+   }//end compressed
+
+   /**
+    * Runs a report into a file.
+    *
+    * @param line the operation and its inputs, as in batch mode
+    * @return the number of rows written
+    * @throws java.sql.SQLException when the report failed
+    * @throws java.io.IOException when the file cannot be written
+    * @throws IllegalArgumentException when the line does not name a report
+    */
+   public int exportOperation (String line, File file) throws SQLException, IOException {
+      String[] fields = line.split (",", -1);
+      Operation op = Operation.forName (fields[0].trim ());
+      if (op == null || !op.isReadOnly ()) {
+         throw new IllegalArgumentException ("Not a report: " + fields[0]);
+      }
+      String[] values = new String[fields.length - 1];
+      System.arraycopy (fields, 1, values, 0, values.length);
+      WritableByteChannel out = open (file);
+      try {
+         return op.execute (this._esql, values, sink (format (file), out));
+      } finally {
+         out.close ();
+      }//end try
+   }//end exportOperation
+
+   /**
+    * Writes every row of a table into a file.
+    *
+    * @param table the table name
+    * @return the number of rows written
+    * @throws java.sql.SQLException when the table cannot be read
+    * @throws java.io.IOException when the file cannot be written
+    */
+   public long dumpTable (String table, File file) throws SQLException, IOException {
+      boolean readOnly = this._esql.setReadOnly (true);
+      WritableByteChannel out = open (file);
+      try {
+         if (format (file) == Format.CSV) {
+            // COPY hands over a row at a time.
+            OutputStream stream = new BufferedOutputStream (Channels.newOutputStream (out), 1 << 16);
+            long rows = this._esql.copyTable (table, stream);
+            stream.flush ();
+            return rows;
+         }
+         return this._esql.dumpTable (table, sink (format (file), out));
+      } finally {
+         this._esql.setReadOnly (readOnly);
+         out.close ();
+      }//end try
+   }//end dumpTable
+
+   /*
+    * Opens a file for writing, replacing it, through a gzip stream if its
+    * name asks for one.
+    */
+   private static WritableByteChannel open (File file) throws IOException {
+      FileChannel channel = FileChannel.open (file.toPath (), StandardOpenOption.CREATE,
+                                              StandardOpenOption.WRITE,
+                                              StandardOpenOption.TRUNCATE_EXISTING);
+      if (!compressed (file)) {
+         return channel;
+      }
+      return Channels.newChannel (new GZIPOutputStream (Channels.newOutputStream (channel), 1 << 16));
+   }//end open
+
+   private static ResultSink sink (Format format, WritableByteChannel out) {
+      return format == Format.BINARY ? new BinaryResultSink (out) : new CsvResultSink (out);
+   }//end sink
+
+   private static String stripGzip (String name) {
+      return name.endsWith (".gz") ? name.substring (0, name.length () - 3) : name;
+   }//end stripGzip
+}//end Exporter
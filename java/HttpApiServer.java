@@ -0,0 +1,275 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Serves the sixteen operations as JSON over HTTP.  Each operation is at
+ * /api/<menu function name>, with its inputs passed as query or form
+ * parameters named as in Operation.usage(), e.g.
+ *
+ *    GET /api/numberOfBookedRooms?hotelID=381&firstDate=5/1/2015
+ *    POST /api/bookRoom   hotelID=381&roomNo=5&fName=rzqs&...
+ *
+ * and /stats reports request counts, throughput, latency percentiles and
+ * pool usage.  Operations that change data must be sent with POST and are
+ * refused with 405 otherwise; the read-only ones take GET or POST.  Every
+ * request runs in its own session on the shared connection pool.  On a JVM
+ * with virtual threads each request gets one; otherwise requests run on a
+ * fixed pool of dbproject.server.threads platform threads (default 64).
+ *
+ */
+public class HttpApiServer {
+
+   private final DBProject _esql;
+   private final HttpServer _server;
+   private final ExecutorService _executor;
+   private final CountDownLatch _stopped = new CountDownLatch (1);
+
+   // per-operation request metrics.
+   private final LatencyHistogram[] _latency = new LatencyHistogram[Operation.values ().length];
+   private final AtomicLongArray _errors = new AtomicLongArray (Operation.values ().length);
+   private final long _startedAt = System.nanoTime ();
+
+   /**
+    * @param esql the database
+    * @param port the TCP port to listen on
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public HttpApiServer (DBProject esql, int port) throws IOException {
+      this._esql = esql;
+      for (int i = 0; i < this._latency.length; ++i) {
+         this._latency[i] = new LatencyHistogram ();
+      }
+      this._executor = newExecutor ();
+      this._server = HttpServer.create (new InetSocketAddress (port),
+                                        Integer.getInteger ("dbproject.server.backlog", 1024));
+      this._server.setExecutor (this._executor);
+      this._server.createContext ("/api/", new HttpHandler () {
+         public void handle (HttpExchange exchange) throws IOException {
+            handleOperation (exchange);
+         }
+      });
+      this._server.createContext ("/stats", new HttpHandler () {
+         public void handle (HttpExchange exchange) throws IOException {
+            respond (exchange, 200, stats ());
+         }
+      });
+   }//end HttpApiServer
+
+   /**
+    * Starts serving and blocks until the JVM is asked to shut down.
+    */
+   public void run () throws InterruptedException {
+      final Thread main = Thread.currentThread ();
+      Runtime.getRuntime ().addShutdownHook (new Thread () {
+         public void run () {
+            HttpApiServer.this.stop ();
+            try {
+               // let the main thread finish closing the pool.
+               main.join (5000);
+            } catch (InterruptedException e) {
+               // ignored.
+            }
+         }
+      });
+      this._server.start ();
+      System.out.println ("Serving on port " + this._server.getAddress ().getPort () +
+                          ", stop with Ctrl-C");
+      this._stopped.await ();
+   }//end run
+
+   /**
+    * Stops accepting requests and lets in-flight requests finish.
+    */
+   public void stop () {
+      this._server.stop (1);
+      this._executor.shutdown ();
+      try {
+         this._executor.awaitTermination (5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread ().interrupt ();
+      }
+      this._stopped.countDown ();
+   }//end stop
+
+   private void handleOperation (HttpExchange exchange) throws IOException {
+      long start = System.nanoTime ();
+      String path = exchange.getRequestURI ().getPath ();
+      Operation op = Operation.forName (path.substring (path.lastIndexOf ('/') + 1));
+      if (op == null) {
+         respond (exchange, 404, error ("Unknown operation: " + path));
+         return;
+      }
+      if (!op.isReadOnly () && !"POST".equalsIgnoreCase (exchange.getRequestMethod ())) {
+         exchange.getResponseHeaders ().set ("Allow", "POST");
+         respond (exchange, 405, error (op.operationName () + " changes data and must be sent with POST"));
+         return;
+      }
+
+      int status = 200;
+      StringBuilder body = new StringBuilder (256);
+      try {
+         String[] values = arguments (op, parameters (exchange));
+         body.append ("{\"operation\":");
+         JsonResultSink.quote (body, op.operationName ()).append (',');
+         JsonResultSink sink = new JsonResultSink (body);
+         int result;
+         this._esql.openSession ();
+         try {
+            result = op.execute (this._esql, values, sink);
+         } finally {
+            this._esql.closeSession ();
+         }
+         if (sink.hasResult ()) {
+            body.append (',');
+         }
+         body.append ("\"result\":").append (result);
+         body.append (String.format (Locale.ROOT, ",\"elapsedMs\":%.3f}", (System.nanoTime () - start) / 1e6));
+      } catch (SQLException e) {
+         String state = e.getSQLState ();
+         status = state != null && state.startsWith ("23") ? 409 : 500;
+         body = error (e.getMessage ());
+      } catch (RuntimeException e) {
+         status = 400;
+         body = error (e.getMessage ());
+      }//end try
+
+      if (status != 200) {
+         this._errors.incrementAndGet (op.ordinal ());
+      }
+      respond (exchange, status, body);
+      this._latency[op.ordinal ()].record (System.nanoTime () - start);
+   }//end handleOperation
+
+   /*
+    * Orders the named request parameters the way the operation expects.
+    */
+   private static String[] arguments (Operation op, Map<String, String> params) {
+      String[] names = op.parameterNames ();
+      int count = 0;
+      while (count < names.length && params.containsKey (names[count])) {
+         ++count;
+      }
+      if (count < op.requiredArgs ()) {
+         throw new IllegalArgumentException ("Missing parameter '" + names[count] + "'; usage: " + op.usage ());
+      }
+      String[] values = new String[count];
+      for (int i = 0; i < count; ++i) {
+         values[i] = params.get (names[i]);
+      }
+      return values;
+   }//end arguments
+
+   /*
+    * Collects query string and form body parameters.
+    */
+   private static Map<String, String> parameters (HttpExchange exchange) throws IOException {
+      Map<String, String> params = new HashMap<String, String> ();
+      parse (exchange.getRequestURI ().getRawQuery (), params);
+      if ("POST".equalsIgnoreCase (exchange.getRequestMethod ())) {
+         InputStream in = exchange.getRequestBody ();
+         ByteArrayOutputStream body = new ByteArrayOutputStream ();
+         byte[] buffer = new byte[4096];
+         int n;
+         while ((n = in.read (buffer)) > 0) {
+            body.write (buffer, 0, n);
+         }
+         parse (body.toString ("UTF-8"), params);
+      }
+      return params;
+   }//end parameters
+
+   private static void parse (String encoded, Map<String, String> params) throws IOException {
+      if (encoded == null || encoded.length () == 0) {
+         return;
+      }
+      for (String pair : encoded.split ("&")) {
+         int eq = pair.indexOf ('=');
+         String name = eq < 0 ? pair : pair.substring (0, eq);
+         String value = eq < 0 ? "" : pair.substring (eq + 1);
+         params.put (URLDecoder.decode (name, "UTF-8"), URLDecoder.decode (value, "UTF-8"));
+      }
+   }//end parse
+
+   private StringBuilder stats () {
+      double seconds = (System.nanoTime () - this._startedAt) / 1e9;
+      long total = 0;
+      StringBuilder ops = new StringBuilder ();
+      for (Operation op : Operation.values ()) {
+         LatencyHistogram h = this._latency[op.ordinal ()];
+         long count = h.count ();
+         if (count == 0) {
+            continue;
+         }
+         total += count;
+         if (ops.length () > 0) {
+            ops.append (',');
+         }
+         JsonResultSink.quote (ops, op.operationName ());
+         ops.append (String.format (Locale.ROOT,
+            ":{\"requests\":%d,\"errors\":%d,\"perSecond\":%.2f,\"meanMs\":%.3f," +
+            "\"p50Ms\":%.3f,\"p99Ms\":%.3f,\"p999Ms\":%.3f,\"maxMs\":%.3f}",
+            count, this._errors.get (op.ordinal ()), count / seconds, h.mean () / 1e6,
+            h.percentile (0.50) / 1e6, h.percentile (0.99) / 1e6,
+            h.percentile (0.999) / 1e6, h.max () / 1e6));
+      }//end for
+      StringBuilder body = new StringBuilder ();
+      body.append (String.format (Locale.ROOT, "{\"uptimeSeconds\":%.1f,\"requests\":%d,\"perSecond\":%.2f,\"pool\":",
+                                  seconds, total, total / seconds));
+      JsonResultSink.quote (body, this._esql.pool ().stats ());
+      if (this._esql.replicas () != null) {
+         JsonResultSink.quote (body.append (",\"replicas\":"), this._esql.replicas ().stats ());
+      }
+      if (this._esql.writeBehind () != null) {
+         JsonResultSink.quote (body.append (",\"writeBehind\":"), this._esql.writeBehind ().stats ());
+      }
+      return body.append (",\"operations\":{").append (ops).append ("}}");
+   }//end stats
+
+   private static StringBuilder error (String message) {
+      StringBuilder body = new StringBuilder ("{\"error\":");
+      return JsonResultSink.quote (body, message).append ('}');
+   }//end error
+
+   private static void respond (HttpExchange exchange, int status, CharSequence body) throws IOException {
+      byte[] bytes = body.toString ().getBytes ("UTF-8");
+      exchange.getResponseHeaders ().set ("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders (status, bytes.length);
+      OutputStream out = exchange.getResponseBody ();
+      try {
+         out.write (bytes);
+      } finally {
+         out.close ();
+      }
+   }//end respond
+
+   /*
+    * Uses a virtual thread per request when the JVM has them, looked up
+    * reflectively so the server still builds and runs on older JVMs.
+    */
+   private static ExecutorService newExecutor () {
+      try {
+         Method factory = Executors.class.getMethod ("newVirtualThreadPerTaskExecutor");
+         return (ExecutorService) factory.invoke (null);
+      } catch (Exception e) {
+         return Executors.newFixedThreadPool (Integer.getInteger ("dbproject.server.threads", 64));
+      }//end try
+   }//end newExecutor
+}//end HttpApiServer
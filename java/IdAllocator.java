@@ -0,0 +1,101 @@
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out new primary keys without a round trip per insert.  Keys are
+ * reserved from a database sequence in blocks: the sequence's INCREMENT BY
+ * is the block size, so each nextval() call returns the top of a block of
+ * keys that no other process will receive.  forSequence() reads the
+ * increment from the catalog, so the two cannot disagree.  Keys within the
+ * current block are handed out from an in-memory counter with a single
+ * atomic increment; only the thread that finds the block exhausted goes back
+ * to the database.
+ *
+ */
+public class IdAllocator {
+
+   private final DBProject _esql;
+
+   // SELECT nextval(...) for the backing sequence.
+   private final Query _nextval;
+
+   // keys per block: the sequence's INCREMENT BY.
+   private final int _blockSize;
+
+   private final AtomicReference<Block> _block = new AtomicReference<Block> ();
+
+   /**
+    * @param esql the database the sequence lives in
+    * @param nextval the query returning the sequence's next value
+    * @param blockSize the sequence's INCREMENT BY
+    */
+   public IdAllocator (DBProject esql, Query nextval, int blockSize) {
+      if (blockSize <= 0) {
+         throw new IllegalArgumentException ("Block size must be positive: " + blockSize);
+      }
+      this._esql = esql;
+      this._nextval = nextval;
+      this._blockSize = blockSize;
+   }//end IdAllocator
+
+   /**
+    * Creates an allocator whose block size is the sequence's INCREMENT BY.
+    *
+    * @param sequence the sequence nextval draws from
+    * @throws java.sql.SQLException when the sequence does not exist
+    */
+   public static IdAllocator forSequence (DBProject esql, Query nextval, String sequence) throws SQLException {
+      Integer increment = esql.queryInt (Query.SEQUENCE_INCREMENT, sequence);
+      if (increment == null) {
+         throw new SQLException ("Sequence " + sequence + " does not exist");
+      }
+      return new IdAllocator (esql, nextval, increment);
+   }//end forSequence
+
+   /**
+    * @return a key no other caller, in this or any other process, receives
+    * @throws java.sql.SQLException when a new block could not be reserved
+    */
+   public int next () throws SQLException {
+      while (true) {
+         Block block = this._block.get ();
+         if (block != null) {
+            long id = block.next.getAndIncrement ();
+            if (id <= block.last) {
+               return (int) id;
+            }
+         }
+         reserve (block);
+      }//end while
+   }//end next
+
+   /*
+    * Replaces an exhausted block with a new one from the sequence.  Threads
+    * that raced on the same exhausted block wait here and then find the
+    * fresh block already installed.
+    */
+   private synchronized void reserve (Block exhausted) throws SQLException {
+      if (this._block.get () != exhausted) {
+         return;
+      }
+      Integer top = this._esql.queryInt (this._nextval);
+      if (top == null) {
+         throw new SQLException ("Sequence for " + this._nextval + " returned no value");
+      }
+      this._block.set (new Block (top - this._blockSize + 1, top));
+   }//end reserve
+
+   /*
+    * A reserved range of keys, first through last inclusive.
+    */
+   private static class Block {
+      final AtomicLong next;
+      final long last;
+
+      Block (long first, long last) {
+         this.next = new AtomicLong (first);
+         this.last = last;
+      }
+   }//end Block
+}//end IdAllocator
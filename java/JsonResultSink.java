@@ -0,0 +1,88 @@
+/**
+ * Collects a result as JSON: a "columns" array of names and a "rows" array
+ * of arrays of string values, written into a caller supplied builder.
+ *
+ */
+public class JsonResultSink implements ResultSink {
+
+   private final StringBuilder _out;
+   private boolean _firstRow = true;
+   private boolean _hasColumns = false;
+
+   /**
+    * @param out the builder the "columns" and "rows" members are appended to,
+    *        positioned inside an open JSON object
+    */
+   public JsonResultSink (StringBuilder out) {
+      this._out = out;
+   }//end JsonResultSink
+
+   public void columns (String[] names) {
+      this._out.append ("\"columns\":");
+      array (names);
+      this._out.append (",\"rows\":[");
+      this._hasColumns = true;
+      this._firstRow = true;
+   }//end columns
+
+   public void row (String[] values) {
+      if (!this._firstRow) {
+         this._out.append (',');
+      }
+      array (values);
+      this._firstRow = false;
+   }//end row
+
+   public void finish (int rowCount) {
+      this._out.append ("],\"rowCount\":").append (rowCount);
+   }//end finish
+
+   public void nextPage (String token) {
+      quote (this._out.append (",\"nextPageToken\":"), token);
+   }//end nextPage
+
+   /**
+    * @return true once a result has been written
+    */
+   public boolean hasResult () {
+      return this._hasColumns;
+   }//end hasResult
+
+   private void array (String[] values) {
+      this._out.append ('[');
+      for (int i = 0; i < values.length; ++i) {
+         if (i > 0) {
+            this._out.append (',');
+         }
+         quote (this._out, values[i]);
+      }
+      this._out.append (']');
+   }//end array
+
+   /**
+    * Appends a string as a JSON string literal, or null.
+    */
+   public static StringBuilder quote (StringBuilder out, String value) {
+      if (value == null) {
+         return out.append ("null");
+      }
+      out.append ('"');
+      for (int i = 0; i < value.length (); ++i) {
+         char c = value.charAt (i);
+         switch (c) {
+            case '"': out.append ("\\\""); break;
+            case '\\': out.append ("\\\\"); break;
+            case '\n': out.append ("\\n"); break;
+            case '\r': out.append ("\\r"); break;
+            case '\t': out.append ("\\t"); break;
+            default:
+               if (c < 0x20) {
+                  out.append (String.format ("\\u%04x", (int) c));
+               } else {
+                  out.append (c);
+               }
+         }//end switch
+      }//end for
+      return out.append ('"');
+   }//end quote
+}//end JsonResultSink
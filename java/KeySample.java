@@ -0,0 +1,175 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A random sample of the keys in the loaded database, used to build
+ * realistic inputs for every operation when benchmarking or generating
+ * load: existing rooms, customer names, companies, staff and repairs, and
+ * dates inside the range the bookings cover.  Inserts get fresh keys above
+ * the largest one already in use.
+ *
+ * A sample is read-only once loaded; callers pass their own Random so that
+ * threads can share one.
+ *
+ */
+public class KeySample {
+
+   // k used for the top-k reports.
+   public static final int TOP_K = 10;
+
+   private final List<String[]> _rooms = new ArrayList<String[]> ();
+   private final List<String[]> _customers = new ArrayList<String[]> ();
+   private final List<String[]> _companies = new ArrayList<String[]> ();
+   private final List<String> _managers = new ArrayList<String> ();
+   private final List<String> _staff = new ArrayList<String> ();
+   private final List<String> _repairs = new ArrayList<String> ();
+
+   // the booking date range as epoch days.
+   private int _firstDay;
+   private int _lastDay;
+
+   // source of new keys for the inserts.
+   private final AtomicInteger _nextKey = new AtomicInteger ();
+
+   private KeySample () {
+   }//end KeySample
+
+   /**
+    * Samples up to limit keys of each kind.
+    *
+    * @param esql the database
+    * @param limit the most keys of each kind to keep
+    * @return the sample
+    * @throws java.sql.SQLException when the sample queries fail
+    */
+   public static KeySample load (DBProject esql, int limit) throws SQLException {
+      final KeySample sample = new KeySample ();
+      esql.executeQuery (Query.SAMPLE_ROOMS, new DiscardingResultSink () {
+         public void row (String[] values) {
+            sample._rooms.add (new String[] { values[0], values[1] });
+         }
+      }, limit);
+      esql.executeQuery (Query.SAMPLE_CUSTOMERS, new DiscardingResultSink () {
+         public void row (String[] values) {
+            sample._customers.add (new String[] { values[0].trim (), values[1].trim () });
+         }
+      }, limit);
+      esql.executeQuery (Query.SAMPLE_COMPANIES, new DiscardingResultSink () {
+         public void row (String[] values) {
+            sample._companies.add (new String[] { values[0], values[1].trim () });
+         }
+      }, limit);
+      esql.executeQuery (Query.SAMPLE_STAFF, new DiscardingResultSink () {
+         public void row (String[] values) {
+            sample._staff.add (values[0]);
+            if (values[1].equals ("Manager")) {
+               sample._managers.add (values[0]);
+            }
+         }
+      }, limit);
+      esql.executeQuery (Query.SAMPLE_REPAIRS, new DiscardingResultSink () {
+         public void row (String[] values) {
+            sample._repairs.add (values[0]);
+         }
+      }, limit);
+      esql.executeQuery (Query.BOOKING_DATE_RANGE, new DiscardingResultSink () {
+         public void row (String[] values) {
+            if (values[0] != null) {
+               sample._firstDay = Params.epochDay (values[0]);
+               sample._lastDay = Params.epochDay (values[1]);
+            }
+         }
+      });
+      Integer maxKey = esql.queryInt (Query.MAX_SAMPLE_KEY);
+      sample._nextKey.set ((maxKey == null ? 0 : maxKey) + 1);
+
+      if (sample._rooms.isEmpty () || sample._customers.isEmpty () || sample._companies.isEmpty ()
+          || sample._managers.isEmpty () || sample._repairs.isEmpty ()) {
+         throw new SQLException ("The database has too little data to sample keys from.");
+      }
+      return sample;
+   }//end load
+
+   /**
+    * Builds a valid set of inputs for an operation, in the order the menu
+    * asks for them.
+    *
+    * @param op the operation
+    * @param rnd the random source
+    * @return the inputs as strings
+    */
+   public String[] args (Operation op, Random rnd) {
+      String[] room = pick (this._rooms, rnd);
+      String[] customer = pick (this._customers, rnd);
+      String[] company = pick (this._companies, rnd);
+      String day = date (rnd);
+      switch (op) {
+         case ADD_CUSTOMER:
+            return new String[] { newKey (), customer[0], customer[1], "bench", "5551234",
+                                  "1/1/1980", "Other" };
+         case ADD_ROOM:
+            return new String[] { room[0], newKey (), "Suite" };
+         case ADD_MAINTENANCE_COMPANY:
+            return new String[] { newKey (), "bench", "bench", "y" };
+         case ADD_REPAIR:
+            return new String[] { newKey (), room[0], room[1], company[0], day };
+         case BOOK_ROOM:
+            return new String[] { room[0], room[1], customer[0], customer[1], day,
+                                  String.valueOf (1 + rnd.nextInt (4)),
+                                  String.valueOf (50 + rnd.nextInt (450)) };
+         case ASSIGN_HOUSE_CLEANING:
+            return new String[] { pick (this._staff, rnd), room[0], room[1] };
+         case REPAIR_REQUEST:
+            return new String[] { pick (this._managers, rnd), pick (this._repairs, rnd), day };
+         case AVAILABLE_ROOMS:
+         case BOOKED_ROOMS:
+            return new String[] { room[0] };
+         case WEEK_BOOKINGS:
+            return new String[] { day, room[0] };
+         case TOP_K_ROOM_PRICE:
+            return new String[] { day, plusDays (day, 30), String.valueOf (TOP_K) };
+         case TOP_K_CUSTOMER_BOOKINGS:
+            return new String[] { customer[0], customer[1], String.valueOf (TOP_K) };
+         case TOTAL_COST:
+            return new String[] { room[0], customer[0], customer[1], day, plusDays (day, 365) };
+         case LIST_REPAIRS_MADE:
+            return new String[] { company[1] };
+         case TOP_K_MAINTENANCE_COMPANY:
+            return new String[] { String.valueOf (TOP_K) };
+         case REPAIRS_PER_YEAR:
+            return new String[] { room[0], room[1] };
+         default:
+            throw new IllegalArgumentException ("No sample inputs for " + op.operationName ());
+      }
+   }//end args
+
+   /**
+    * @return a sampled manager's SSN
+    */
+   public String manager (Random rnd) {
+      return pick (this._managers, rnd);
+   }//end manager
+
+   /**
+    * @return a day inside the booking date range, as M/D/YYYY
+    */
+   public String date (Random rnd) {
+      int span = Math.max (1, this._lastDay - this._firstDay + 1);
+      return Params.formatEpochDay (this._firstDay + rnd.nextInt (span));
+   }//end date
+
+   private String newKey () {
+      return String.valueOf (this._nextKey.getAndIncrement ());
+   }//end newKey
+
+   private static String plusDays (String day, int days) {
+      return Params.formatEpochDay (Params.epochDay (Params.date (day)) + days);
+   }//end plusDays
+
+   private static <T> T pick (List<T> values, Random rnd) {
+      return values.get (rnd.nextInt (values.size ()));
+   }//end pick
+}//end KeySample
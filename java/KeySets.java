@@ -0,0 +1,149 @@
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dense in-memory sets of the primary keys that the writes validate against:
+ * hotels, rooms, customers, maintenance companies, staff and repairs.  Keys
+ * are small non-negative integers, so each set is a BitSet.
+ *
+ * The sets are loaded when DBProject connects and grow as this process
+ * commits new rows.  Nothing is ever deleted, so a key found in a set
+ * certainly exists; a key not found may have been added by another program,
+ * and callers confirm it with a probe query before rejecting it.  Keys above
+ * dbproject.keySets.maxKey (default 16777215) are never kept and always
+ * probed.
+ *
+ */
+public class KeySets {
+
+   // largest key kept in a set.
+   private static final int MAX_KEY = Integer.getInteger ("dbproject.keySets.maxKey", (1 << 24) - 1);
+
+   /**
+    * The single-column keys, with the queries that load and probe them.
+    */
+   public enum Kind {
+      HOTEL ("Hotel", Query.HOTEL_KEYS, Query.HOTEL_EXISTS),
+      CUSTOMER ("Customer", Query.CUSTOMER_KEYS, Query.CUSTOMER_EXISTS),
+      COMPANY ("Maintenance company", Query.COMPANY_KEYS, Query.COMPANY_EXISTS),
+      STAFF ("Staff member", Query.STAFF_KEYS, Query.STAFF_EXISTS),
+      REPAIR ("Repair", Query.REPAIR_KEYS, Query.REPAIR_EXISTS);
+
+      private final String _label;
+      private final Query _keys;
+      private final Query _probe;
+
+      Kind (String label, Query keys, Query probe) {
+         this._label = label;
+         this._keys = keys;
+         this._probe = probe;
+      }
+
+      public String label () {
+         return this._label;
+      }
+
+      public Query probe () {
+         return this._probe;
+      }
+   }//end Kind
+
+   private final KeySet[] _sets = new KeySet[Kind.values ().length];
+   private final ConcurrentHashMap<Integer, KeySet> _rooms = new ConcurrentHashMap<Integer, KeySet> ();
+
+   public KeySets () {
+      for (int i = 0; i < this._sets.length; ++i) {
+         this._sets[i] = new KeySet ();
+      }
+   }//end KeySets
+
+   /**
+    * Loads every key.
+    *
+    * @param esql the database to load from
+    * @throws java.sql.SQLException when the load queries fail
+    */
+   public void load (DBProject esql) throws SQLException {
+      for (Kind kind : Kind.values ()) {
+         final KeySet set = this._sets[kind.ordinal ()];
+         esql.executeQuery (kind._keys, new DiscardingResultSink () {
+            public void row (String[] values) {
+               set.add (Integer.parseInt (values[0]));
+            }
+         });
+      }
+      esql.executeQuery (Query.ROOM_KEYS, new DiscardingResultSink () {
+         public void row (String[] values) {
+            addRoom (Integer.parseInt (values[0]), Integer.parseInt (values[1]));
+         }
+      });
+   }//end load
+
+   /**
+    * @return true if the key is known to exist
+    */
+   public boolean contains (Kind kind, int key) {
+      return this._sets[kind.ordinal ()].contains (key);
+   }//end contains
+
+   /**
+    * Records a key that exists.
+    */
+   public void add (Kind kind, int key) {
+      this._sets[kind.ordinal ()].add (key);
+   }//end add
+
+   /**
+    * Forgets a key recorded for an insert that failed.
+    */
+   public void remove (Kind kind, int key) {
+      this._sets[kind.ordinal ()].remove (key);
+   }//end remove
+
+   /**
+    * @return true if the room is known to exist
+    */
+   public boolean containsRoom (int hotelid, int roomnum) {
+      KeySet rooms = this._rooms.get (hotelid);
+      return rooms != null && rooms.contains (roomnum);
+   }//end containsRoom
+
+   /**
+    * Records a room that exists.
+    */
+   public void addRoom (int hotelid, int roomnum) {
+      KeySet rooms = this._rooms.get (hotelid);
+      if (rooms == null) {
+         KeySet created = new KeySet ();
+         rooms = this._rooms.putIfAbsent (hotelid, created);
+         if (rooms == null) {
+            rooms = created;
+         }
+      }
+      rooms.add (roomnum);
+   }//end addRoom
+
+   /*
+    * A synchronized BitSet that ignores keys out of range.
+    */
+   private static class KeySet {
+      private final BitSet bits = new BitSet ();
+
+      synchronized boolean contains (int key) {
+         return key >= 0 && key <= MAX_KEY && this.bits.get (key);
+      }
+
+      synchronized void add (int key) {
+         if (key >= 0 && key <= MAX_KEY) {
+            this.bits.set (key);
+         }
+      }
+
+      synchronized void remove (int key) {
+         if (key >= 0 && key <= MAX_KEY) {
+            this.bits.clear (key);
+         }
+      }
+   }//end KeySet
+}//end KeySets
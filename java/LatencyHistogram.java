@@ -0,0 +1,139 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, log-linear latency histogram in the style of HdrHistogram.
+ * Values below 64 get a bucket each; above that every power of two is split
+ * into 32 buckets, so a recorded value is reported to within about 3%.
+ * Recording is a few atomic increments and never allocates, so it is safe to
+ * call from many threads on hot paths.
+ *
+ */
+public class LatencyHistogram {
+
+   // values below LINEAR are counted exactly.
+   private static final int LINEAR = 64;
+
+   // buckets per power of two above LINEAR.
+   private static final int SUB_BITS = 5;
+   private static final int SUB = 1 << SUB_BITS;
+
+   private static final int BUCKETS = LINEAR + (63 - SUB_BITS) * SUB;
+
+   private final AtomicLongArray _counts = new AtomicLongArray (BUCKETS);
+   private final AtomicLong _count = new AtomicLong ();
+   private final AtomicLong _sum = new AtomicLong ();
+   private final AtomicLong _max = new AtomicLong ();
+
+   /**
+    * Records one value, normally a latency in nanoseconds.
+    *
+    * @param value the value; negative values are recorded as 0
+    */
+   public void record (long value) {
+      long v = Math.max (0L, value);
+      this._counts.incrementAndGet (index (v));
+      this._count.incrementAndGet ();
+      this._sum.addAndGet (v);
+      long max;
+      while (v > (max = this._max.get ()) && !this._max.compareAndSet (max, v)) {
+         // retry until the maximum reflects this value.
+      }
+   }//end record
+
+   public long count () {
+      return this._count.get ();
+   }//end count
+
+   public long max () {
+      return this._max.get ();
+   }//end max
+
+   public double mean () {
+      long count = this._count.get ();
+      return count == 0 ? 0.0 : (double) this._sum.get () / count;
+   }//end mean
+
+   /**
+    * @param quantile between 0 and 1, e.g. 0.99
+    * @return the upper bound of the bucket holding that quantile, or 0 if
+    *         nothing was recorded
+    */
+   public long percentile (double quantile) {
+      long count = this._count.get ();
+      if (count == 0) {
+         return 0;
+      }
+      long target = Math.max (1L, (long) Math.ceil (quantile * count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += this._counts.get (i);
+         if (seen >= target) {
+            return Math.min (highestEquivalent (i), this._max.get ());
+         }
+      }
+      return this._max.get ();
+   }//end percentile
+
+   /**
+    * Clears every count.  Values recorded concurrently may be lost.
+    */
+   public void reset () {
+      for (int i = 0; i < BUCKETS; ++i) {
+         this._counts.set (i, 0);
+      }
+      this._count.set (0);
+      this._sum.set (0);
+      this._max.set (0);
+   }//end reset
+
+   /**
+    * Adds every count of another histogram to this one.
+    *
+    * @param other the histogram to merge in
+    */
+   public void add (LatencyHistogram other) {
+      for (int i = 0; i < BUCKETS; ++i) {
+         long n = other._counts.get (i);
+         if (n != 0) {
+            this._counts.addAndGet (i, n);
+         }
+      }
+      this._count.addAndGet (other._count.get ());
+      this._sum.addAndGet (other._sum.get ());
+      long v = other._max.get ();
+      long max;
+      while (v > (max = this._max.get ()) && !this._max.compareAndSet (max, v)) {
+         // retry until the maximum reflects the other histogram.
+      }
+   }//end add
+
+   /**
+    * @return count, mean, p50, p99, p999 and max in milliseconds
+    */
+   public String summary () {
+      return String.format (Locale.ROOT, "n=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms",
+                            count (), mean () / 1e6, percentile (0.50) / 1e6,
+                            percentile (0.99) / 1e6, percentile (0.999) / 1e6, max () / 1e6);
+   }//end summary
+
+   private static int index (long v) {
+      if (v < LINEAR) {
+         return (int) v;
+      }
+      // shift so the top SUB_BITS + 1 bits remain, i.e. v >>> shift is in [SUB, 2 * SUB).
+      int shift = (63 - Long.numberOfLeadingZeros (v)) - SUB_BITS;
+      int sub = (int) (v >>> shift) - SUB;
+      return LINEAR + (shift - 1) * SUB + sub;
+   }//end index
+
+   private static long highestEquivalent (int index) {
+      if (index < LINEAR) {
+         return index;
+      }
+      int shift = (index - LINEAR) / SUB + 1;
+      long sub = (index - LINEAR) % SUB + SUB;
+      return ((sub + 1) << shift) - 1;
+   }//end highestEquivalent
+}//end LatencyHistogram
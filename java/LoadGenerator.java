@@ -0,0 +1,349 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Simulates many front desks using the system at once.  Each client thread
+ * repeatedly picks an operation from a weighted mix, e.g.
+ *
+ *    bookRoom=60,numberOfAvailableRooms=20,topKMaintenanceCompany=20
+ *
+ * fills in its inputs from a KeySample of the loaded data and runs it in its
+ * own session on the shared connection pool, as HttpApiServer does for each
+ * request.  At the end, throughput, latency percentiles and error rates are
+ * printed for each operation.
+ *
+ * A run can be recorded to a file with one line per operation,
+ *
+ *    <ms since start>,<client>,<operation>,<inputs...>
+ *
+ * and replayed later with the same clients, order and timing, optionally
+ * sped up or as fast as possible.
+ *
+ */
+public class LoadGenerator {
+
+   // the mix used when none is given.
+   public static final String DEFAULT_MIX =
+      "bookRoom=60,numberOfAvailableRooms=10,numberOfBookedRooms=10," +
+      "listHotelRoomBookingsForAWeek=5,topKHighestPriceBookingsForACustomer=5," +
+      "totalCostForCustomer=5,numberOfRepairsForEachRoomPerYear=5";
+
+   private final DBProject _esql;
+   private final PrintWriter _recording;
+   private final ResultSink _sink = new DiscardingResultSink ();
+
+   // per-operation metrics.
+   private final LatencyHistogram[] _latency = new LatencyHistogram[Operation.values ().length];
+   private final AtomicLongArray _errors = new AtomicLongArray (Operation.values ().length);
+   private final String[] _lastError = new String[Operation.values ().length];
+
+   private long _startedAt;
+
+   /**
+    * @param esql the database
+    * @param recordFile where to record the operations run, or null
+    * @throws java.io.IOException when the recording cannot be created
+    */
+   public LoadGenerator (DBProject esql, String recordFile) throws IOException {
+      this._esql = esql;
+      this._recording = recordFile == null ? null
+         : new PrintWriter (new BufferedWriter (new FileWriter (recordFile)));
+      for (int i = 0; i < this._latency.length; ++i) {
+         this._latency[i] = new LatencyHistogram ();
+      }
+   }//end LoadGenerator
+
+   /**
+    * Runs a weighted mix of operations from a number of clients for a fixed
+    * time.
+    *
+    * @param sample the keys to draw inputs from
+    * @param mix operation names with their weights
+    * @param clients the number of concurrent clients
+    * @param durationMs how long to run
+    * @param seed the seed for the clients' random choices
+    * @throws InterruptedException when interrupted while waiting for the clients
+    */
+   public void run (final KeySample sample, String mix, int clients, long durationMs, long seed)
+      throws InterruptedException {
+      final Operation[] ops = new Operation[mix.split (",").length];
+      final int[] cumulative = new int[ops.length];
+      int total = parseMix (mix, ops, cumulative);
+
+      this._startedAt = System.nanoTime ();
+      final long deadline = this._startedAt + durationMs * 1000000L;
+      final int totalWeight = total;
+      Thread[] threads = new Thread[clients];
+      for (int c = 0; c < clients; ++c) {
+         final int client = c;
+         final Random rnd = new Random (seed + c);
+         threads[c] = new Thread ("client-" + c) {
+            public void run () {
+               while (System.nanoTime () < deadline) {
+                  int r = rnd.nextInt (totalWeight);
+                  int i = 0;
+                  while (cumulative[i] <= r) {
+                     ++i;
+                  }
+                  execute (client, ops[i], sample.args (ops[i], rnd));
+               }
+            }
+         };
+      }//end for
+      runClients (threads);
+   }//end run
+
+   /**
+    * Replays a recorded run.  Each recorded client gets its own thread and
+    * runs its operations in the recorded order, each at its recorded offset
+    * divided by speed.
+    *
+    * @param in the recording
+    * @param speed how many times faster than recorded to run; 0 runs every
+    *        client as fast as it can
+    * @throws java.io.IOException when the recording cannot be read
+    * @throws InterruptedException when interrupted while waiting for the clients
+    */
+   public void replay (BufferedReader in, final double speed) throws IOException, InterruptedException {
+      Map<Integer, List<String[]>> byClient = new TreeMap<Integer, List<String[]>> ();
+      String line;
+      int lineNo = 0;
+      while ((line = in.readLine ()) != null) {
+         ++lineNo;
+         if (line.trim ().length () == 0 || line.startsWith ("#")) {
+            continue;
+         }
+         String[] fields = line.split (",", -1);
+         if (fields.length < 3 || Operation.forName (fields[2]) == null) {
+            throw new IOException ("line " + lineNo + ": not a recorded operation: " + line);
+         }
+         Integer client = Integer.valueOf (fields[1]);
+         List<String[]> entries = byClient.get (client);
+         if (entries == null) {
+            entries = new ArrayList<String[]> ();
+            byClient.put (client, entries);
+         }
+         entries.add (fields);
+      }//end while
+
+      this._startedAt = System.nanoTime ();
+      Thread[] threads = new Thread[byClient.size ()];
+      int t = 0;
+      for (Map.Entry<Integer, List<String[]>> entry : byClient.entrySet ()) {
+         final int client = entry.getKey ();
+         final List<String[]> entries = entry.getValue ();
+         threads[t++] = new Thread ("client-" + client) {
+            public void run () {
+               for (String[] fields : entries) {
+                  if (speed > 0) {
+                     long due = _startedAt + (long) (Long.parseLong (fields[0]) * 1000000L / speed);
+                     long wait = due - System.nanoTime ();
+                     if (wait > 0) {
+                        try {
+                           Thread.sleep (wait / 1000000L, (int) (wait % 1000000L));
+                        } catch (InterruptedException e) {
+                           return;
+                        }
+                     }
+                  }
+                  execute (client, Operation.forName (fields[2]),
+                           Arrays.copyOfRange (fields, 3, fields.length));
+               }
+            }
+         };
+      }//end for
+      runClients (threads);
+   }//end replay
+
+   private void runClients (Thread[] threads) throws InterruptedException {
+      for (Thread thread : threads) {
+         thread.start ();
+      }
+      for (Thread thread : threads) {
+         thread.join ();
+      }
+      if (this._recording != null) {
+         this._recording.close ();
+      }
+   }//end runClients
+
+   /*
+    * Runs one operation in its own session, timing it and recording it.
+    */
+   private void execute (int client, Operation op, String[] args) {
+      long start = System.nanoTime ();
+      boolean ok = false;
+      try {
+         this._esql.openSession ();
+         try {
+            op.execute (this._esql, args, this._sink);
+            ok = true;
+         } finally {
+            this._esql.closeSession ();
+         }
+      } catch (SQLException e) {
+         this._lastError[op.ordinal ()] = e.getMessage ();
+      } catch (RuntimeException e) {
+         this._lastError[op.ordinal ()] = e.getMessage ();
+      }//end try
+      long end = System.nanoTime ();
+      this._latency[op.ordinal ()].record (end - start);
+      if (!ok) {
+         this._errors.incrementAndGet (op.ordinal ());
+      }
+      if (this._recording != null) {
+         StringBuilder line = new StringBuilder (64);
+         line.append ((start - this._startedAt) / 1000000L).append (',').append (client)
+             .append (',').append (op.operationName ());
+         for (String arg : args) {
+            line.append (',').append (arg);
+         }
+         synchronized (this._recording) {
+            this._recording.println (line);
+         }
+      }
+   }//end execute
+
+   /**
+    * Prints throughput, latency and error rates per operation and overall.
+    */
+   public void report () {
+      double seconds = (System.nanoTime () - this._startedAt) / 1e9;
+      LatencyHistogram all = new LatencyHistogram ();
+      long errors = 0;
+      System.out.println ("LOAD SUMMARY");
+      for (Operation op : Operation.values ()) {
+         LatencyHistogram latency = this._latency[op.ordinal ()];
+         if (latency.count () == 0) {
+            continue;
+         }
+         long failed = this._errors.get (op.ordinal ());
+         System.out.println (String.format ("%-36s %8.1f ops/s  errors=%d (%.2f%%)  %s",
+                                            op.operationName (), latency.count () / seconds, failed,
+                                            100.0 * failed / latency.count (), latency.summary ()));
+         if (this._lastError[op.ordinal ()] != null) {
+            System.out.println ("   last error: " + this._lastError[op.ordinal ()]);
+         }
+         all.add (latency);
+         errors += failed;
+      }//end for
+      System.out.println (String.format ("%-36s %8.1f ops/s  errors=%d  %s", "total",
+                                         all.count () / seconds, errors, all.summary ()));
+      System.out.println (this._esql.pool ().stats ());
+      if (this._esql.replicas () != null) {
+         System.out.println (this._esql.replicas ().stats ());
+      }
+      if (this._esql.writeBehind () != null) {
+         System.out.println (this._esql.writeBehind ().stats ());
+      }
+   }//end report
+
+   /*
+    * Fills ops and their running weight totals from a name=weight list and
+    * returns the total weight.
+    */
+   private static int parseMix (String mix, Operation[] ops, int[] cumulative) {
+      int total = 0;
+      String[] entries = mix.split (",");
+      for (int i = 0; i < entries.length; ++i) {
+         String[] pair = entries[i].split ("=");
+         ops[i] = Operation.forName (pair[0].trim ());
+         if (ops[i] == null) {
+            throw new IllegalArgumentException ("Unknown operation in mix: " + pair[0]);
+         }
+         int weight = pair.length > 1 ? Integer.parseInt (pair[1].trim ()) : 1;
+         if (weight <= 0) {
+            throw new IllegalArgumentException ("Weights must be positive: " + entries[i]);
+         }
+         total += weight;
+         cumulative[i] = total;
+      }//end for
+      return total;
+   }//end parseMix
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         usage ();
+         return;
+      }
+      int clients = 50;
+      long durationMs = 60000;
+      long seed = 42;
+      double speed = 1;
+      String mix = DEFAULT_MIX;
+      String recordFile = null;
+      String replayFile = null;
+      try {
+         for (int i = 3; i < args.length; ++i) {
+            if (args[i].equals ("-clients") && i + 1 < args.length) {
+               clients = Integer.parseInt (args[++i]);
+            } else if (args[i].equals ("-duration") && i + 1 < args.length) {
+               durationMs = Long.parseLong (args[++i]) * 1000L;
+            } else if (args[i].equals ("-mix") && i + 1 < args.length) {
+               mix = args[++i];
+            } else if (args[i].equals ("-seed") && i + 1 < args.length) {
+               seed = Long.parseLong (args[++i]);
+            } else if (args[i].equals ("-record") && i + 1 < args.length) {
+               recordFile = args[++i];
+            } else if (args[i].equals ("-replay") && i + 1 < args.length) {
+               replayFile = args[++i];
+            } else if (args[i].equals ("-speed") && i + 1 < args.length) {
+               speed = Double.parseDouble (args[++i]);
+            } else {
+               throw new IllegalArgumentException ("Unrecognized option: " + args[i]);
+            }
+         }//end for
+         if (clients <= 0) {
+            throw new IllegalArgumentException ("The number of clients must be positive: " + clients);
+         }
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+         usage ();
+         return;
+      }//end try
+
+      DBProject esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver");
+         esql = new DBProject (args[0], args[1], args[2], "");
+         LoadGenerator load = new LoadGenerator (esql, recordFile);
+         if (replayFile != null) {
+            BufferedReader in = new BufferedReader (new FileReader (replayFile));
+            try {
+               load.replay (in, speed);
+            } finally {
+               in.close ();
+            }
+         } else {
+            System.out.println ("Running " + clients + " clients for " + durationMs / 1000 + "s: " + mix);
+            load.run (KeySample.load (esql, 1000), mix, clients, durationMs, seed);
+         }
+         load.report ();
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) {
+            esql.cleanup ();
+         }
+      }//end try
+   }//end main
+
+   public static void usage () {
+      System.err.println (
+         "Usage: java [-classpath <classpath>] " + LoadGenerator.class.getName () +
+         " <dbname> <port> <user> [-clients <n>] [-duration <seconds>] [-mix <op=weight,...>]" +
+         " [-seed <n>] [-record <file>] [-replay <file> [-speed <x>]]");
+   }//end usage
+}//end LoadGenerator
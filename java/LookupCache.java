@@ -0,0 +1,118 @@
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, read-through cache for small lookups such as a customer's ID by
+ * name.  Entries expire after a fixed time and the least recently used entry
+ * is dropped when the cache is full.  Missing keys are cached too, so
+ * writers must invalidate the keys they add.
+ *
+ * The capacity and time to live are read from the dbproject.lookupCache.size
+ * (default 10000) and dbproject.lookupCache.ttlMs (default 60000) system
+ * properties.
+ *
+ */
+public class LookupCache<K, V> {
+
+   /**
+    * Loads the value for a key that is not cached.
+    */
+   public interface Loader<K, V> {
+      V load (K key) throws SQLException;
+   }//end Loader
+
+   private static final class Cached<V> {
+      final V value;
+      final long expiresAt;
+
+      Cached (V value, long expiresAt) {
+         this.value = value;
+         this.expiresAt = expiresAt;
+      }
+   }//end Cached
+
+   private final LinkedHashMap<K, Cached<V>> _entries;
+   private final long _ttlNanos;
+   private final Loader<K, V> _loader;
+
+   // bumped by every invalidation, so that a load racing with one is not cached.
+   private long _generation = 0;
+
+   // usage metrics.
+   private long _hits = 0;
+   private long _misses = 0;
+
+   public LookupCache (Loader<K, V> loader) {
+      this (loader, Integer.getInteger ("dbproject.lookupCache.size", 10000),
+            Long.getLong ("dbproject.lookupCache.ttlMs", 60000L));
+   }//end LookupCache
+
+   public LookupCache (Loader<K, V> loader, final int capacity, long ttlMs) {
+      this._loader = loader;
+      this._ttlNanos = ttlMs * 1000000L;
+      this._entries = new LinkedHashMap<K, Cached<V>> (16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<K, Cached<V>> eldest) {
+            return size () > capacity;
+         }
+      };
+   }//end LookupCache
+
+   /**
+    * Returns the value for a key, loading it on a miss.  The load runs
+    * without holding the cache's lock.
+    *
+    * @param key the key
+    * @return the value, possibly null
+    * @throws java.sql.SQLException when the load failed
+    */
+   public V get (K key) throws SQLException {
+      long generation;
+      synchronized (this) {
+         Cached<V> entry = this._entries.get (key);
+         if (entry != null && entry.expiresAt - System.nanoTime () > 0) {
+            ++this._hits;
+            return entry.value;
+         }
+         ++this._misses;
+         generation = this._generation;
+      }
+      V value = this._loader.load (key);
+      synchronized (this) {
+         if (generation == this._generation) {
+            this._entries.put (key, new Cached<V> (value, System.nanoTime () + this._ttlNanos));
+         }
+      }
+      return value;
+   }//end get
+
+   /**
+    * Drops a key, so the next get() loads it again.
+    *
+    * @param key the key
+    */
+   public synchronized void invalidate (K key) {
+      ++this._generation;
+      this._entries.remove (key);
+   }//end invalidate
+
+   /**
+    * Drops every entry.
+    */
+   public synchronized void invalidateAll () {
+      ++this._generation;
+      this._entries.clear ();
+   }//end invalidateAll
+
+   public synchronized int size () {
+      return this._entries.size ();
+   }//end size
+
+   public synchronized long hits () {
+      return this._hits;
+   }//end hits
+
+   public synchronized long misses () {
+      return this._misses;
+   }//end misses
+}//end LookupCache
@@ -0,0 +1,422 @@
+import java.beans.ConstructorProperties;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and counters for every operation and every statement
+ * DBProject runs.  The meters are arrays indexed by the Operation and Query
+ * ordinals, so recording is a few atomic updates with no lookup and no
+ * allocation.  Plain SQL strings, which have no Query, are recorded by their
+ * first keyword (SELECT, INSERT, ...) as "sql SELECT" and so on among the
+ * statements.  Waits for a room lock are recorded in total and for each of
+ * the first rooms that are waited for, so the hot rooms can be told apart.
+ *
+ * The metrics are published through JMX as DBProject:type=Metrics and can
+ * be appended to a file periodically, as CSV when its name ends in .csv and
+ * as text otherwise:
+ *
+ *    dbproject.metrics.dump       the file to append to (default none)
+ *    dbproject.metrics.dumpSecs   seconds between dumps (default 60)
+ *    dbproject.metrics.jmx        register the MXBean (default true)
+ *
+ */
+public class Metrics implements MetricsMXBean {
+
+   private static final String CSV_HEADER =
+      "time,kind,name,count,errors,rows,per_sec,mean_ms,p50_ms,p99_ms,p999_ms,max_ms";
+
+   private final Meter[] _operations = meters (Operation.values ().length);
+   private final Meter[] _statements = meters (Query.values ().length);
+
+   // plain SQL strings, keyed by their first keyword; keywords past the
+   // first PLAIN_LIMIT share the "other" meter.
+   private static final int PLAIN_LIMIT = 16;
+   private final Map<String, Meter> _plain = new ConcurrentHashMap<String, Meter> ();
+   private final Meter _otherPlain = new Meter ();
+
+   // waits for any room lock, and for each room waited for, keyed by
+   // hotel and room number; only the first HOT_ROOM_LIMIT rooms get a meter.
+   private static final int HOT_ROOM_LIMIT = 128;
+   private static final int HOT_ROOMS = 10;
+   private final Meter _lockWaits = new Meter ();
+   private final Map<Long, Meter> _roomWaits = new ConcurrentHashMap<Long, Meter> ();
+
+   // when counting started, for the rates.
+   private volatile long _since = System.nanoTime ();
+
+   private ObjectName _name;
+   private ScheduledExecutorService _dumper;
+
+   /*
+    * The latency, rows and errors of one operation or statement.
+    */
+   private static class Meter {
+      final LatencyHistogram latency = new LatencyHistogram ();
+      final AtomicLong rows = new AtomicLong ();
+      final AtomicLong errors = new AtomicLong ();
+
+      void record (long nanos, long rows, boolean failed) {
+         this.latency.record (nanos);
+         if (failed) {
+            this.errors.incrementAndGet ();
+         } else if (rows > 0) {
+            this.rows.addAndGet (rows);
+         }
+      }
+   }//end Meter
+
+   /**
+    * A snapshot of one meter, with latencies in milliseconds.
+    */
+   public static class Stat {
+      private final String name;
+      private final long count;
+      private final long errors;
+      private final long rows;
+      private final double perSecond;
+      private final double meanMs;
+      private final double p50Ms;
+      private final double p99Ms;
+      private final double p999Ms;
+      private final double maxMs;
+
+      @ConstructorProperties ({ "name", "count", "errors", "rows", "perSecond", "meanMs", "p50Ms",
+                                "p99Ms", "p999Ms", "maxMs" })
+      public Stat (String name, long count, long errors, long rows, double perSecond, double meanMs,
+                   double p50Ms, double p99Ms, double p999Ms, double maxMs) {
+         this.name = name;
+         this.count = count;
+         this.errors = errors;
+         this.rows = rows;
+         this.perSecond = perSecond;
+         this.meanMs = meanMs;
+         this.p50Ms = p50Ms;
+         this.p99Ms = p99Ms;
+         this.p999Ms = p999Ms;
+         this.maxMs = maxMs;
+      }
+
+      public String getName () { return this.name; }
+      public long getCount () { return this.count; }
+      public long getErrors () { return this.errors; }
+      public long getRows () { return this.rows; }
+      public double getPerSecond () { return this.perSecond; }
+      public double getMeanMs () { return this.meanMs; }
+      public double getP50Ms () { return this.p50Ms; }
+      public double getP99Ms () { return this.p99Ms; }
+      public double getP999Ms () { return this.p999Ms; }
+      public double getMaxMs () { return this.maxMs; }
+   }//end Stat
+
+   /**
+    * Records one run of an operation.
+    *
+    * @param nanos how long it took
+    * @param rows the rows it wrote or returned
+    * @param failed true if it threw
+    */
+   public void operation (Operation op, long nanos, long rows, boolean failed) {
+      this._operations[op.ordinal ()].record (nanos, rows, failed);
+   }//end operation
+
+   /**
+    * Records one execution of a statement.
+    *
+    * @param nanos how long it took, including reading the rows
+    * @param rows the rows it returned or changed
+    * @param failed true if it threw
+    */
+   public void statement (Query query, long nanos, long rows, boolean failed) {
+      this._statements[query.ordinal ()].record (nanos, rows, failed);
+   }//end statement
+
+   /**
+    * Records one execution of a plain SQL string.
+    *
+    * @param nanos how long it took, including reading the rows
+    * @param rows the rows it returned or changed
+    * @param failed true if it threw
+    */
+   public void statement (String sql, long nanos, long rows, boolean failed) {
+      String keyword = keyword (sql);
+      Meter meter = this._plain.get (keyword);
+      if (meter == null && this._plain.size () < PLAIN_LIMIT) {
+         synchronized (this._plain) {
+            meter = this._plain.get (keyword);
+            if (meter == null && this._plain.size () < PLAIN_LIMIT) {
+               meter = new Meter ();
+               this._plain.put (keyword, meter);
+            }
+         }
+      }
+      (meter == null ? this._otherPlain : meter).record (nanos, rows, failed);
+   }//end statement
+
+   /**
+    * Records a wait for a room lock held by another booking.
+    *
+    * @param nanos how long the booking waited
+    */
+   public void roomLockWait (int hotelid, int roomnum, long nanos) {
+      this._lockWaits.record (nanos, 0, false);
+      Long key = ((long) hotelid << 32) | (roomnum & 0xffffffffL);
+      Meter meter = this._roomWaits.get (key);
+      if (meter == null && this._roomWaits.size () < HOT_ROOM_LIMIT) {
+         synchronized (this._roomWaits) {
+            meter = this._roomWaits.get (key);
+            if (meter == null && this._roomWaits.size () < HOT_ROOM_LIMIT) {
+               meter = new Meter ();
+               this._roomWaits.put (key, meter);
+            }
+         }
+      }
+      if (meter != null) {
+         meter.record (nanos, 0, false);
+      }
+   }//end roomLockWait
+
+   public List<Stat> getOperations () {
+      List<Stat> stats = new ArrayList<Stat> ();
+      for (Operation op : Operation.values ()) {
+         add (stats, op.operationName (), this._operations[op.ordinal ()]);
+      }
+      return stats;
+   }//end getOperations
+
+   public List<Stat> getStatements () {
+      List<Stat> stats = new ArrayList<Stat> ();
+      for (Query query : Query.values ()) {
+         add (stats, query.name (), this._statements[query.ordinal ()]);
+      }
+      List<String> keywords = new ArrayList<String> (this._plain.keySet ());
+      Collections.sort (keywords);
+      for (String keyword : keywords) {
+         add (stats, "sql " + keyword, this._plain.get (keyword));
+      }
+      add (stats, "sql other", this._otherPlain);
+      return stats;
+   }//end getStatements
+
+   public List<Stat> getLockWaits () {
+      List<Stat> stats = new ArrayList<Stat> ();
+      add (stats, "roomLock", this._lockWaits);
+      List<Stat> rooms = new ArrayList<Stat> ();
+      for (Map.Entry<Long, Meter> e : this._roomWaits.entrySet ()) {
+         long key = e.getKey ();
+         add (rooms, "roomLock hotel " + (key >>> 32) + " room " + (int) key, e.getValue ());
+      }
+      Collections.sort (rooms, new Comparator<Stat> () {
+         public int compare (Stat a, Stat b) {
+            return a.count == b.count ? 0 : a.count > b.count ? -1 : 1;
+         }
+      });
+      stats.addAll (rooms.subList (0, Math.min (HOT_ROOMS, rooms.size ())));
+      return stats;
+   }//end getLockWaits
+
+   public String getReport () {
+      StringBuilder report = new StringBuilder ();
+      for (Stat stat : getOperations ()) {
+         report.append (line (stat));
+      }
+      for (Stat stat : getStatements ()) {
+         report.append (line (stat));
+      }
+      for (Stat stat : getLockWaits ()) {
+         report.append (line (stat));
+      }
+      return report.toString ();
+   }//end getReport
+
+   public void reset () {
+      for (Meter meter : this._operations) {
+         reset (meter);
+      }
+      for (Meter meter : this._statements) {
+         reset (meter);
+      }
+      this._plain.clear ();
+      reset (this._otherPlain);
+      reset (this._lockWaits);
+      this._roomWaits.clear ();
+      this._since = System.nanoTime ();
+   }//end reset
+
+   /**
+    * Registers the metrics with the platform MBean server, unless
+    * dbproject.metrics.jmx is false or another instance in this JVM already
+    * did.
+    */
+   public void register () {
+      if (!Boolean.parseBoolean (System.getProperty ("dbproject.metrics.jmx", "true"))) {
+         return;
+      }
+      try {
+         ObjectName name = new ObjectName ("DBProject:type=Metrics");
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+         if (!server.isRegistered (name)) {
+            server.registerMBean (this, name);
+            this._name = name;
+         }
+      } catch (JMException e) {
+         System.err.println ("Unable to register the metrics with JMX: " + e.getMessage ());
+      }//end try
+   }//end register
+
+   /**
+    * Starts appending the metrics to the dbproject.metrics.dump file, if one
+    * is set.
+    */
+   public void startDump () {
+      String path = System.getProperty ("dbproject.metrics.dump");
+      if (path == null) {
+         return;
+      }
+      final File file = new File (path);
+      long period = Long.getLong ("dbproject.metrics.dumpSecs", 60L);
+      this._dumper = Executors.newSingleThreadScheduledExecutor (new ThreadFactory () {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread (r, "metrics-dump");
+            t.setDaemon (true);
+            return t;
+         }
+      });
+      this._dumper.scheduleAtFixedRate (new Runnable () {
+         public void run () {
+            try {
+               dump (file);
+            } catch (IOException e) {
+               System.err.println ("Unable to write metrics to " + file + ": " + e.getMessage ());
+            }
+         }
+      }, period, period, TimeUnit.SECONDS);
+   }//end startDump
+
+   /**
+    * Stops the dump, writing a last one, and unregisters from JMX.
+    */
+   public void stop () {
+      if (this._dumper != null) {
+         this._dumper.shutdownNow ();
+         try {
+            dump (new File (System.getProperty ("dbproject.metrics.dump")));
+         } catch (IOException e) {
+            System.err.println ("Unable to write metrics: " + e.getMessage ());
+         }
+         this._dumper = null;
+      }
+      if (this._name != null) {
+         try {
+            ManagementFactory.getPlatformMBeanServer ().unregisterMBean (this._name);
+         } catch (JMException e) {
+            // the server is shutting down with the JVM.
+         }
+         this._name = null;
+      }
+   }//end stop
+
+   /**
+    * Appends every meter that has run to a file.
+    *
+    * @throws java.io.IOException when the file cannot be written
+    */
+   public synchronized void dump (File file) throws IOException {
+      boolean csv = file.getName ().endsWith (".csv");
+      boolean header = csv && file.length () == 0;
+      String time = new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss").format (new Date ());
+      Writer out = new FileWriter (file, true);
+      try {
+         if (header) {
+            out.write (CSV_HEADER + "\n");
+         }
+         if (!csv) {
+            out.write ("== " + time + "\n" + getReport () + "\n");
+            return;
+         }
+         for (Stat stat : getOperations ()) {
+            out.write (csv (time, "operation", stat));
+         }
+         for (Stat stat : getStatements ()) {
+            out.write (csv (time, "statement", stat));
+         }
+         for (Stat stat : getLockWaits ()) {
+            out.write (csv (time, "lock", stat));
+         }
+      } finally {
+         out.close ();
+      }
+   }//end dump
+
+   private void add (List<Stat> stats, String name, Meter meter) {
+      LatencyHistogram h = meter.latency;
+      long count = h.count ();
+      if (count == 0) {
+         return;
+      }
+      double seconds = Math.max (1e-9, (System.nanoTime () - this._since) / 1e9);
+      stats.add (new Stat (name, count, meter.errors.get (), meter.rows.get (), count / seconds,
+                           h.mean () / 1e6, h.percentile (0.50) / 1e6, h.percentile (0.99) / 1e6,
+                           h.percentile (0.999) / 1e6, h.max () / 1e6));
+   }//end add
+
+   /*
+    * Returns the first word of a statement in upper case, e.g. SELECT.
+    */
+   private static String keyword (String sql) {
+      int start = 0;
+      while (start < sql.length () && !Character.isLetter (sql.charAt (start))) {
+         ++start;
+      }
+      int end = start;
+      while (end < sql.length () && Character.isLetter (sql.charAt (end))) {
+         ++end;
+      }
+      return start == end ? "?" : sql.substring (start, end).toUpperCase (Locale.ROOT);
+   }//end keyword
+
+   private static void reset (Meter meter) {
+      meter.latency.reset ();
+      meter.rows.set (0);
+      meter.errors.set (0);
+   }//end reset
+
+   private static String line (Stat s) {
+      return String.format (Locale.ROOT, "%-32s n=%d errors=%d rows=%d %.1f/s mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms%n",
+                            s.name, s.count, s.errors, s.rows, s.perSecond, s.meanMs, s.p50Ms, s.p99Ms,
+                            s.p999Ms, s.maxMs);
+   }//end line
+
+   private static String csv (String time, String kind, Stat s) {
+      return String.format (Locale.ROOT, "%s,%s,%s,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f%n", time, kind, s.name,
+                            s.count, s.errors, s.rows, s.perSecond, s.meanMs, s.p50Ms, s.p99Ms,
+                            s.p999Ms, s.maxMs);
+   }//end csv
+
+   private static Meter[] meters (int n) {
+      Meter[] meters = new Meter[n];
+      for (int i = 0; i < n; ++i) {
+         meters[i] = new Meter ();
+      }
+      return meters;
+   }//end meters
+}//end Metrics
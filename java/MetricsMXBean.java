@@ -0,0 +1,34 @@
+import java.util.List;
+
+/**
+ * The JMX view of Metrics, registered as DBProject:type=Metrics.
+ *
+ */
+public interface MetricsMXBean {
+
+   /**
+    * @return one entry per operation that has run
+    */
+   List<Metrics.Stat> getOperations ();
+
+   /**
+    * @return one entry per statement that has run
+    */
+   List<Metrics.Stat> getStatements ();
+
+   /**
+    * @return the waits for room locks in total, then for the rooms waited
+    *         for most
+    */
+   List<Metrics.Stat> getLockWaits ();
+
+   /**
+    * @return every entry as the text the periodic dump writes
+    */
+   String getReport ();
+
+   /**
+    * Clears every histogram and counter.
+    */
+   void reset ();
+}//end MetricsMXBean
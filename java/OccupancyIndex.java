@@ -0,0 +1,149 @@
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory calendar of which rooms are booked on which days.  For every
+ * hotel it keeps a bitset of its room numbers and, for each day that has a
+ * booking, a bitset of the rooms booked that day.  Availability for a day or
+ * a range of days is then a handful of bitset operations instead of a scan
+ * of Booking.
+ *
+ * The index is filled from Room and Booking, and kept current, by
+ * BookingSnapshots.
+ *
+ */
+public class OccupancyIndex {
+
+   private final ConcurrentHashMap<Integer, Hotel> _hotels =
+      new ConcurrentHashMap<Integer, Hotel> ();
+
+   /**
+    * Records a new room.
+    */
+   public void addRoom (int hotelid, int roomnum) {
+      hotel (hotelid).addRoom (roomnum);
+   }//end addRoom
+
+   /**
+    * Records a booking of a room on a day.
+    *
+    * @param epochDay the booking date as days since 1970-01-01
+    */
+   public void book (int hotelid, int roomnum, int epochDay) {
+      hotel (hotelid).book (roomnum, epochDay);
+   }//end book
+
+   /**
+    * @return true if the room is booked on the given day
+    */
+   public boolean isBooked (int hotelid, int roomnum, int epochDay) {
+      Hotel hotel = this._hotels.get (hotelid);
+      return hotel != null && hotel.isBooked (roomnum, epochDay);
+   }//end isBooked
+
+   /**
+    * @return the number of the hotel's rooms booked on at least one day in
+    *         the range, inclusive
+    */
+   public int bookedRooms (int hotelid, int fromDay, int toDay) {
+      Hotel hotel = this._hotels.get (hotelid);
+      return hotel == null ? 0 : hotel.booked (fromDay, toDay).cardinality ();
+   }//end bookedRooms
+
+   /**
+    * @return the number of the hotel's rooms free on every day in the range,
+    *         inclusive
+    */
+   public int availableRooms (int hotelid, int fromDay, int toDay) {
+      Hotel hotel = this._hotels.get (hotelid);
+      return hotel == null ? 0 : hotel.available (fromDay, toDay).cardinality ();
+   }//end availableRooms
+
+   /**
+    * @return the number of the hotel's rooms that have never been booked
+    */
+   public int neverBookedRooms (int hotelid) {
+      Hotel hotel = this._hotels.get (hotelid);
+      return hotel == null ? 0 : hotel.neverBooked ().cardinality ();
+   }//end neverBookedRooms
+
+   /**
+    * @return the number of bookings made at the hotel
+    */
+   public int bookings (int hotelid) {
+      Hotel hotel = this._hotels.get (hotelid);
+      return hotel == null ? 0 : hotel.bookings ();
+   }//end bookings
+
+   private Hotel hotel (int hotelid) {
+      Hotel hotel = this._hotels.get (hotelid);
+      if (hotel == null) {
+         Hotel created = new Hotel ();
+         hotel = this._hotels.putIfAbsent (hotelid, created);
+         if (hotel == null) {
+            hotel = created;
+         }
+      }
+      return hotel;
+   }//end hotel
+
+   /*
+    * Rooms and booked days of one hotel.  Readers and writers synchronize on
+    * the hotel, so different hotels never contend.
+    */
+   private static class Hotel {
+      private final BitSet rooms = new BitSet ();
+      private final BitSet everBooked = new BitSet ();
+      private final TreeMap<Integer, BitSet> days = new TreeMap<Integer, BitSet> ();
+      private int bookings = 0;
+
+      synchronized void addRoom (int roomnum) {
+         this.rooms.set (roomnum);
+      }
+
+      synchronized void book (int roomnum, int epochDay) {
+         BitSet day = this.days.get (epochDay);
+         if (day == null) {
+            day = new BitSet ();
+            this.days.put (epochDay, day);
+         }
+         day.set (roomnum);
+         this.everBooked.set (roomnum);
+         ++this.bookings;
+      }
+
+      synchronized boolean isBooked (int roomnum, int epochDay) {
+         BitSet day = this.days.get (epochDay);
+         return day != null && day.get (roomnum);
+      }
+
+      synchronized BitSet booked (int fromDay, int toDay) {
+         BitSet booked = new BitSet ();
+         if (fromDay <= toDay) {
+            for (Map.Entry<Integer, BitSet> day : this.days.subMap (fromDay, true, toDay, true).entrySet ()) {
+               booked.or (day.getValue ());
+            }
+         }
+         booked.and (this.rooms);
+         return booked;
+      }
+
+      synchronized BitSet available (int fromDay, int toDay) {
+         BitSet available = (BitSet) this.rooms.clone ();
+         available.andNot (booked (fromDay, toDay));
+         return available;
+      }
+
+      synchronized BitSet neverBooked () {
+         BitSet never = (BitSet) this.rooms.clone ();
+         never.andNot (this.everBooked);
+         return never;
+      }
+
+      synchronized int bookings () {
+         return this.bookings;
+      }
+   }//end Hotel
+}//end OccupancyIndex
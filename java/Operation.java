@@ -0,0 +1,322 @@
+import java.sql.SQLException;
+
+/**
+ * The sixteen menu operations in a form that can be driven without the
+ * keyboard.  Each operation takes its inputs as strings, in the order the
+ * menu prompts for them, and runs through the same DBProject methods the
+ * menu uses.
+ *
+ */
+public enum Operation {
+
+   ADD_CUSTOMER (1, "addCustomer", 7, 7,
+                 "customerID,fName,lName,address,phNo,DOB,gender") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         esql.insertCustomer (args.integer (0), args.name (1), args.name (2), args.text (3),
+                              args.integer (4), args.date (5), args.text (6));
+         return 1;
+      }
+   },
+
+   ADD_ROOM (2, "addRoom", 3, 3, "hotelID,roomNo,roomType") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         esql.insertRoom (args.integer (0), args.integer (1), args.text (2, 10));
+         return 1;
+      }
+   },
+
+   ADD_MAINTENANCE_COMPANY (3, "addMaintenanceCompany", 4, 4, "cmpID,name,address,isCertified") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         esql.insertMaintenanceCompany (args.integer (0), args.name (1), args.text (2),
+                                        args.flag (3));
+         return 1;
+      }
+   },
+
+   ADD_REPAIR (4, "addRepair", 5, 5, "rID,hotelID,roomNo,cmpID,repairDate") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         esql.insertRepair (args.integer (0), args.integer (1), args.integer (2),
+                            args.integer (3), args.date (4));
+         return 1;
+      }
+   },
+
+   BOOK_ROOM (5, "bookRoom", 7, 7, "hotelID,roomNo,fName,lName,bookingDate,noOfPeople,price") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         String firstname = args.name (2);
+         String lastname = args.name (3);
+         Integer customerid = esql.customerId (firstname, lastname);
+         if (customerid == null) {
+            throw new IllegalArgumentException ("No customer named " + firstname + " " + lastname);
+         }
+         return esql.insertBooking (customerid, args.integer (0), args.integer (1),
+                                    args.date (4), args.integer (5), args.integer (6));
+      }
+   },
+
+   ASSIGN_HOUSE_CLEANING (6, "assignHouseCleaningToRoom", 3, 3, "staffID,hotelID,roomNo") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         return esql.insertAssignment (args.integer (0), args.integer (1), args.integer (2));
+      }
+   },
+
+   REPAIR_REQUEST (7, "repairRequest", 3, 3, "managerID,repairID,requestDate") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         int managerid = args.integer (0);
+         if (!esql.isManager (managerid)) {
+            throw new IllegalArgumentException ("Staff " + managerid +
+                                                " is not a Manager. Only Managers can add repair requests.");
+         }
+         return esql.insertRequest (managerid, args.integer (1), args.date (2));
+      }
+   },
+
+   AVAILABLE_ROOMS (8, "numberOfAvailableRooms", 1, 3, "hotelID[,firstDate[,lastDate]]") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         java.sql.Date firstdate = args.optionalDate (1);
+         java.sql.Date lastdate = args.count () > 2 ? args.date (2) : firstdate;
+         esql.availableRooms (args.integer (0), firstdate, lastdate, sink);
+         return 1;
+      }
+   },
+
+   BOOKED_ROOMS (9, "numberOfBookedRooms", 1, 3, "hotelID[,firstDate[,lastDate]]") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         java.sql.Date firstdate = args.optionalDate (1);
+         java.sql.Date lastdate = args.count () > 2 ? args.date (2) : firstdate;
+         esql.bookedRooms (args.integer (0), firstdate, lastdate, sink);
+         return 1;
+      }
+   },
+
+   WEEK_BOOKINGS (10, "listHotelRoomBookingsForAWeek", 2, 4, "bookingDate,hotelID[,pageSize[,pageToken]]") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         if (args.count () > 2) {
+            return esql.weekBookingsPage (args.integer (1), args.date (0), args.integer (2),
+                                          args.optionalText (3), sink);
+         }
+         return esql.weekBookings (args.integer (1), args.date (0), sink);
+      }
+   },
+
+   TOP_K_ROOM_PRICE (11, "topKHighestRoomPriceForADateRange", 3, 3, "firstDate,lastDate,k") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         return esql.topKRoomPrices (args.date (0), args.date (1), args.integer (2), sink);
+      }
+   },
+
+   TOP_K_CUSTOMER_BOOKINGS (12, "topKHighestPriceBookingsForACustomer", 3, 3, "fName,lName,k") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         return esql.topKCustomerBookings (args.name (0), args.name (1), args.integer (2), sink);
+      }
+   },
+
+   TOTAL_COST (13, "totalCostForCustomer", 5, 5, "hotelID,fName,lName,firstDate,lastDate") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         return esql.totalCost (args.integer (0), args.name (1), args.name (2), args.date (3),
+                                args.date (4), sink);
+      }
+   },
+
+   LIST_REPAIRS_MADE (14, "listRepairsMade", 1, 3, "companyName[,pageSize[,pageToken]]") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         if (args.count () > 1) {
+            return esql.repairsMadePage (args.name (0), args.integer (1), args.optionalText (2), sink);
+         }
+         return esql.repairsMade (args.name (0), sink);
+      }
+   },
+
+   TOP_K_MAINTENANCE_COMPANY (15, "topKMaintenanceCompany", 1, 1, "k") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         return esql.topKMaintenanceCompanies (args.integer (0), sink);
+      }
+   },
+
+   REPAIRS_PER_YEAR (16, "numberOfRepairsForEachRoomPerYear", 2, 2, "hotelID,roomNo") {
+      public int execute (DBProject esql, Args args, ResultSink sink) throws SQLException {
+         return esql.repairsPerYear (args.integer (0), args.integer (1), sink);
+      }
+   };
+
+   // the menu number and the name of the menu method.
+   private final int _choice;
+   private final String _name;
+
+   // accepted argument counts and their description.
+   private final int _minArgs;
+   private final int _maxArgs;
+   private final String _usage;
+
+   Operation (int choice, String name, int minArgs, int maxArgs, String usage) {
+      this._choice = choice;
+      this._name = name;
+      this._minArgs = minArgs;
+      this._maxArgs = maxArgs;
+      this._usage = usage;
+   }//end Operation
+
+   /**
+    * Runs the operation.
+    *
+    * @param esql the database
+    * @param args the operation's inputs
+    * @param sink receives the rows of a report
+    * @return the new key for operations that allocate one, otherwise the
+    *         number of rows written or returned
+    * @throws java.sql.SQLException when a statement failed
+    * @throws IllegalArgumentException when an input is invalid
+    */
+   public abstract int execute (DBProject esql, Args args, ResultSink sink) throws SQLException;
+
+   /**
+    * Checks the argument count and runs the operation, recording it in the
+    * database's metrics.  The reports may read from a replica.
+    *
+    * @param values the operation's inputs as strings
+    */
+   public int execute (DBProject esql, String[] values, ResultSink sink) throws SQLException {
+      if (values.length < this._minArgs || values.length > this._maxArgs) {
+         throw new IllegalArgumentException ("Usage: " + this._name + "," + this._usage);
+      }
+      long start = System.nanoTime ();
+      int result = -1;
+      boolean readOnly = esql.setReadOnly (isReadOnly ());
+      try {
+         result = execute (esql, new Args (values), sink);
+         return result;
+      } finally {
+         esql.setReadOnly (readOnly);
+         record (esql, start, result);
+      }
+   }//end execute
+
+   /**
+    * Records a run of the operation in the database's metrics.  The menu
+    * calls it around its call to DBProject, so that the time spent at the
+    * prompts is left out.
+    *
+    * @param start the System.nanoTime () the run started at
+    * @param result what execute returned, or -1 if the run failed
+    */
+   public void record (DBProject esql, long start, int result) {
+      // the inserts return their new key, which is one row.
+      esql.metrics ().operation (this, System.nanoTime () - start, isReadOnly () ? result : 1,
+                                 result < 0);
+   }//end record
+
+   public int choice () {
+      return this._choice;
+   }//end choice
+
+   public String operationName () {
+      return this._name;
+   }//end operationName
+
+   public String usage () {
+      return this._name + "," + this._usage;
+   }//end usage
+
+   /**
+    * @return the names of the operation's inputs, in order
+    */
+   public String[] parameterNames () {
+      return this._usage.replace ("[", "").replace ("]", "").split (",");
+   }//end parameterNames
+
+   /**
+    * @return how many leading inputs are required
+    */
+   public int requiredArgs () {
+      return this._minArgs;
+   }//end requiredArgs
+
+   /**
+    * @return true for the reports, which only read the database
+    */
+   public boolean isReadOnly () {
+      return this._choice >= 8;
+   }//end isReadOnly
+
+   /**
+    * Looks an operation up by its menu method name, ignoring case.
+    *
+    * @return the operation, or null if there is none by that name
+    */
+   public static Operation forName (String name) {
+      for (Operation op : values ()) {
+         if (op._name.equalsIgnoreCase (name)) {
+            return op;
+         }
+      }
+      return null;
+   }//end forName
+
+   /**
+    * Typed access to an operation's string inputs, with the same checks the
+    * menu applies to keyboard input.
+    */
+   public static class Args {
+      private final String[] _values;
+
+      public Args (String[] values) {
+         this._values = values;
+      }
+
+      public int count () {
+         return this._values.length;
+      }
+
+      public String text (int i) {
+         return this._values[i];
+      }
+
+      public String optionalText (int i) {
+         return i < this._values.length && this._values[i].trim ().length () > 0
+            ? this._values[i].trim () : null;
+      }
+
+      public String text (int i, int maxLength) {
+         String value = this._values[i];
+         if (value.length () <= 0 || value.length () > maxLength) {
+            throw new IllegalArgumentException ("Invalid input '" + value + "' at position " + (i + 1) +
+                                                ", expected 1 to " + maxLength + " characters.");
+         }
+         return value;
+      }
+
+      public String name (int i) {
+         return text (i, 30);
+      }
+
+      public int integer (int i) {
+         try {
+            return Integer.parseInt (this._values[i].trim ());
+         } catch (NumberFormatException e) {
+            throw new IllegalArgumentException ("Invalid number '" + this._values[i] +
+                                                "' at position " + (i + 1) + ".");
+         }
+      }
+
+      public java.sql.Date date (int i) {
+         return Params.date (this._values[i]);
+      }
+
+      public java.sql.Date optionalDate (int i) {
+         return i < this._values.length && this._values[i].trim ().length () > 0
+            ? date (i) : null;
+      }
+
+      public boolean flag (int i) {
+         String value = this._values[i].trim ().toLowerCase ();
+         if (value.equals ("y") || value.equals ("yes") || value.equals ("true")) {
+            return true;
+         }
+         if (value.equals ("n") || value.equals ("no") || value.equals ("false")) {
+            return false;
+         }
+         throw new IllegalArgumentException ("Invalid input '" + this._values[i] +
+                                             "' at position " + (i + 1) + ", expected y or n.");
+      }
+   }//end Args
+}//end Operation
@@ -0,0 +1,70 @@
+import java.io.IOException;
+
+/**
+ * Passes the first rows of a result on to another sink and remembers the
+ * last one passed, for a page of a paginated listing.  The query asks for
+ * one row more than a page, so a row past the page means there is a next
+ * page.
+ *
+ */
+public class PageResultSink implements ResultSink {
+
+   private final ResultSink _out;
+   private final int _pageSize;
+   private int _rows = 0;
+   private boolean _more = false;
+   private String[] _last;
+
+   /**
+    * @param out receives the page
+    * @param pageSize the number of rows in a page
+    */
+   public PageResultSink (ResultSink out, int pageSize) {
+      this._out = out;
+      this._pageSize = pageSize;
+   }//end PageResultSink
+
+   public void columns (String[] names) throws IOException {
+      this._last = new String[names.length];
+      this._out.columns (names);
+   }//end columns
+
+   public void row (String[] values) throws IOException {
+      if (this._rows == this._pageSize) {
+         this._more = true;
+         return;
+      }
+      System.arraycopy (values, 0, this._last, 0, values.length);
+      this._out.row (values);
+      ++this._rows;
+   }//end row
+
+   public void finish (int rowCount) throws IOException {
+      this._out.finish (this._rows);
+   }//end finish
+
+   public void nextPage (String token) throws IOException {
+      this._out.nextPage (token);
+   }//end nextPage
+
+   /**
+    * @return the number of rows in the page
+    */
+   public int rows () {
+      return this._rows;
+   }//end rows
+
+   /**
+    * @return true if rows follow the page
+    */
+   public boolean more () {
+      return this._more;
+   }//end more
+
+   /**
+    * @return the last row of the page
+    */
+   public String[] last () {
+      return this._last;
+   }//end last
+}//end PageResultSink
@@ -0,0 +1,133 @@
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Opaque tokens that continue a paginated listing.  A token holds the
+ * listing and its inputs, which must match when it is used, and the key of
+ * the last row of the page; the next page starts right after that key, so
+ * every page costs the same however deep it is.  The fields are joined,
+ * checksummed and base64url encoded; clients should only pass tokens back.
+ *
+ */
+public class PageToken {
+
+   private static final Charset UTF8 = Charset.forName ("UTF-8");
+   private static final char[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray ();
+
+   // separates the fields; it cannot appear in a menu or form input.
+   private static final char SEPARATOR = '\u0000';
+
+   private PageToken () {
+   }//end PageToken
+
+   /**
+    * @param scope the listing's name followed by its inputs
+    * @param key the key of the last row of the page
+    * @return the token for the next page
+    */
+   public static String encode (String[] scope, String... key) {
+      StringBuilder payload = new StringBuilder ();
+      for (String field : scope) {
+         payload.append (field).append (SEPARATOR);
+      }
+      for (String field : key) {
+         payload.append (field).append (SEPARATOR);
+      }
+      byte[] bytes = payload.toString ().getBytes (UTF8);
+      byte[] token = Arrays.copyOf (bytes, bytes.length + 4);
+      int crc = crc (bytes, bytes.length);
+      for (int i = 0; i < 4; ++i) {
+         token[bytes.length + i] = (byte) (crc >>> (24 - 8 * i));
+      }
+      return base64 (token);
+   }//end encode
+
+   /**
+    * @param token a token from encode()
+    * @param scope the listing's name and inputs, which must match the token's
+    * @return the key stored in the token
+    * @throws IllegalArgumentException when the token is malformed or belongs
+    *         to another listing
+    */
+   public static String[] decode (String token, String[] scope) {
+      byte[] bytes = unbase64 (token);
+      int length = bytes.length - 4;
+      if (length <= 0) {
+         throw new IllegalArgumentException ("Invalid page token.");
+      }
+      int crc = 0;
+      for (int i = 0; i < 4; ++i) {
+         crc = (crc << 8) | (bytes[length + i] & 0xff);
+      }
+      if (crc != crc (bytes, length)) {
+         throw new IllegalArgumentException ("Invalid page token.");
+      }
+      String[] fields = new String (bytes, 0, length, UTF8).split (String.valueOf (SEPARATOR), -1);
+      // the payload ends with a separator, so the last field is empty.
+      if (fields.length <= scope.length + 1) {
+         throw new IllegalArgumentException ("Invalid page token.");
+      }
+      for (int i = 0; i < scope.length; ++i) {
+         if (!fields[i].equals (scope[i])) {
+            throw new IllegalArgumentException ("The page token belongs to another listing.");
+         }
+      }
+      return Arrays.copyOfRange (fields, scope.length, fields.length - 1);
+   }//end decode
+
+   private static int crc (byte[] bytes, int length) {
+      CRC32 crc = new CRC32 ();
+      crc.update (bytes, 0, length);
+      return (int) crc.getValue ();
+   }//end crc
+
+   /*
+    * Base64 with the URL and file name safe alphabet, without padding.
+    */
+   private static String base64 (byte[] bytes) {
+      StringBuilder out = new StringBuilder ((bytes.length * 4 + 2) / 3);
+      for (int i = 0; i < bytes.length; i += 3) {
+         int n = Math.min (3, bytes.length - i);
+         int bits = (bytes[i] & 0xff) << 16;
+         if (n > 1) {
+            bits |= (bytes[i + 1] & 0xff) << 8;
+         }
+         if (n > 2) {
+            bits |= bytes[i + 2] & 0xff;
+         }
+         for (int j = 0; j <= n; ++j) {
+            out.append (ALPHABET[(bits >>> (18 - 6 * j)) & 0x3f]);
+         }
+      }//end for
+      return out.toString ();
+   }//end base64
+
+   private static byte[] unbase64 (String s) {
+      if (s.length () % 4 == 1) {
+         throw new IllegalArgumentException ("Invalid page token.");
+      }
+      byte[] out = new byte[s.length () * 3 / 4];
+      int bits = 0;
+      int count = 0;
+      int o = 0;
+      for (int i = 0; i < s.length (); ++i) {
+         char c = s.charAt (i);
+         int v = c >= 'A' && c <= 'Z' ? c - 'A'
+               : c >= 'a' && c <= 'z' ? c - 'a' + 26
+               : c >= '0' && c <= '9' ? c - '0' + 52
+               : c == '-' ? 62 : c == '_' ? 63 : -1;
+         if (v < 0) {
+            throw new IllegalArgumentException ("Invalid page token.");
+         }
+         bits = (bits << 6) | v;
+         count += 6;
+         if (count >= 8) {
+            count -= 8;
+            out[o++] = (byte) (bits >>> count);
+         }
+      }//end for
+      return out;
+   }//end unbase64
+}//end PageToken
@@ -0,0 +1,168 @@
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+
+/**
+ * Typed parameter binding for Query statements, and parsing of the dates the
+ * menu reads from the keyboard.
+ *
+ */
+public class Params {
+
+   // accepted date formats; M/d/yy also reads four digit years literally.
+   private static final String[] DATE_FORMATS = { "M/d/yy", "yyyy-MM-dd" };
+
+   private Params () {
+   }//end Params
+
+   /**
+    * Binds the parameters to a prepared statement in order, choosing the
+    * setter from each value's type.
+    *
+    * @param ps the statement to bind
+    * @param params Integer, Long, BigDecimal, Boolean, java.sql.Date or String
+    *        values, or null
+    * @throws java.sql.SQLException when binding failed
+    */
+   public static void bind (PreparedStatement ps, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object p = params[i];
+         int index = i + 1;
+         if (p == null) {
+            ps.setNull (index, Types.NULL);
+         } else if (p instanceof Integer) {
+            ps.setInt (index, (Integer) p);
+         } else if (p instanceof Long) {
+            ps.setLong (index, (Long) p);
+         } else if (p instanceof BigDecimal) {
+            ps.setBigDecimal (index, (BigDecimal) p);
+         } else if (p instanceof Boolean) {
+            ps.setBoolean (index, (Boolean) p);
+         } else if (p instanceof java.sql.Date) {
+            ps.setDate (index, (java.sql.Date) p);
+         } else if (p instanceof String) {
+            ps.setString (index, (String) p);
+         } else {
+            throw new SQLException ("Unsupported parameter type " +
+                                    p.getClass ().getName () + " at index " + index);
+         }
+      }//end for
+   }//end bind
+
+   /**
+    * Parses a date entered as MM/DD/YY (or YYYY-MM-DD).
+    *
+    * @param text the date as typed
+    * @return the date
+    * @throws RuntimeException when the text is not a valid date
+    */
+   public static java.sql.Date date (String text) {
+      String trimmed = text.trim ();
+      for (String format : DATE_FORMATS) {
+         SimpleDateFormat parser = new SimpleDateFormat (format);
+         parser.setLenient (false);
+         try {
+            return new java.sql.Date (parser.parse (trimmed).getTime ());
+         } catch (ParseException e) {
+            continue;
+         }//end try
+      }//end for
+      throw new RuntimeException ("Invalid date '" + text + "', please use the format MM/DD/YY.");
+   }//end date
+
+   /**
+    * Converts a date to a day number counted from 1970-01-01, using the
+    * date's calendar fields in the local time zone.
+    *
+    * @param date the date
+    * @return the epoch day
+    */
+   public static int epochDay (java.sql.Date date) {
+      Calendar cal = Calendar.getInstance ();
+      cal.setTime (date);
+      return epochDay (cal.get (Calendar.YEAR), cal.get (Calendar.MONTH) + 1,
+                       cal.get (Calendar.DAY_OF_MONTH));
+   }//end epochDay
+
+   /**
+    * Converts a date in the server's YYYY-MM-DD text form to an epoch day.
+    *
+    * @param iso the date as returned by ResultSet.getString
+    * @return the epoch day
+    */
+   public static int epochDay (String iso) {
+      return epochDay (Integer.parseInt (iso.substring (0, 4)),
+                       Integer.parseInt (iso.substring (5, 7)),
+                       Integer.parseInt (iso.substring (8, 10)));
+   }//end epochDay
+
+   /**
+    * Counts days from 1970-01-01 to a proleptic Gregorian date.
+    *
+    * @param year the year
+    * @param month the month, 1 to 12
+    * @param day the day of the month
+    * @return the epoch day
+    */
+   public static int epochDay (int year, int month, int day) {
+      // shift the year to start in March so the leap day comes last.
+      int y = month <= 2 ? year - 1 : year;
+      int era = (y >= 0 ? y : y - 399) / 400;
+      int yoe = y - era * 400;
+      int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+      int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+      return era * 146097 + doe - 719468;
+   }//end epochDay
+
+   /**
+    * Formats an epoch day as M/D/YYYY, the form the menu accepts.
+    *
+    * @param epochDay days since 1970-01-01
+    * @return the date as text
+    */
+   public static String formatEpochDay (int epochDay) {
+      int[] ymd = civil (epochDay);
+      return ymd[1] + "/" + ymd[2] + "/" + ymd[0];
+   }//end formatEpochDay
+
+   /**
+    * Formats an epoch day as YYYY-MM-DD, the form the server returns dates
+    * in.
+    *
+    * @param epochDay days since 1970-01-01
+    * @return the date as text
+    */
+   public static String isoDate (int epochDay) {
+      int[] ymd = civil (epochDay);
+      StringBuilder text = new StringBuilder (10).append (ymd[0]).append ('-');
+      if (ymd[1] < 10) {
+         text.append ('0');
+      }
+      text.append (ymd[1]).append ('-');
+      if (ymd[2] < 10) {
+         text.append ('0');
+      }
+      return text.append (ymd[2]).toString ();
+   }//end isoDate
+
+   /*
+    * Splits an epoch day into year, month and day; the inverse of
+    * epochDay(int, int, int).
+    */
+   private static int[] civil (int epochDay) {
+      int z = epochDay + 719468;
+      int era = (z >= 0 ? z : z - 146096) / 146097;
+      int doe = z - era * 146097;
+      int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+      int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+      int mp = (5 * doy + 2) / 153;
+      int day = doy - (153 * mp + 2) / 5 + 1;
+      int month = mp < 10 ? mp + 3 : mp - 9;
+      int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+      return new int[] { year, month, day };
+   }//end civil
+}//end Params
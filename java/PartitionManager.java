@@ -0,0 +1,291 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maintains the monthly partitions of Booking that sql/create.sql
+ * sets up: creates the partitions of the coming months ahead of time,
+ * detaches the partitions of months past a retention period, checks with
+ * EXPLAIN that the date-bounded reports only scan the months they ask for,
+ * and prunes the BookingChange log that BookingSnapshots refreshes from.
+ * Meant to run from cron, e.g. once a day.
+ *
+ * A detached partition stays in the database as a plain table, so it can be
+ * archived or attached again.  Clients that are running keep its bookings
+ * in their in-memory copies until they reconnect.
+ *
+ */
+public class PartitionManager {
+
+   // the partitioned tables and their partition keys.
+   private static final String[][] TABLES = { { "booking", "bookingDate" } };
+
+   private static final String ADD_PARTITION = "SELECT addMonthPartition(?, ?, CAST(? AS DATE))";
+   private static final String PARTITIONS =
+      "SELECT C.relname FROM pg_inherits I, pg_class C WHERE C.oid = I.inhrelid AND I.inhparent = CAST(? AS regclass) ORDER BY 1";
+   private static final String LAST_BOOKING = "SELECT MAX(B.bookingDate) FROM Booking B";
+   private static final String PRUNE_CHANGES = "SELECT pruneBookingChanges(CAST(? AS INTERVAL))";
+
+   private static final Pattern MONTH = Pattern.compile ("(\\w+)_(\\d{4})_(\\d{2})");
+   private static final Pattern BOOKING_PARTITION = Pattern.compile ("\\bbooking_(\\d{4}_\\d{2}|default)\\b");
+
+   private final Connection _conn;
+
+   /**
+    * @param conn the connection to run the maintenance on
+    */
+   public PartitionManager (Connection conn) {
+      this._conn = conn;
+   }//end PartitionManager
+
+   /**
+    * Creates the partitions of the current month and the given number of
+    * months after it that do not exist yet.
+    *
+    * @return the number of partitions created
+    * @throws java.sql.SQLException when a partition cannot be created
+    */
+   public int createAhead (int months) throws SQLException {
+      Calendar cal = Calendar.getInstance ();
+      int year = cal.get (Calendar.YEAR);
+      int month = cal.get (Calendar.MONTH) + 1;
+      int created = 0;
+      PreparedStatement ps = this._conn.prepareStatement (ADD_PARTITION);
+      try {
+         for (int i = 0; i <= months; ++i) {
+            int day = Params.epochDay (year + (month - 1 + i) / 12, (month - 1 + i) % 12 + 1, 1);
+            for (String[] table : TABLES) {
+               Params.bind (ps, table[0], table[1], Params.isoDate (day));
+               ResultSet rs = ps.executeQuery ();
+               if (rs.next () && rs.getBoolean (1)) {
+                  System.out.println ("Created " + table[0] + "_" + Params.isoDate (day).substring (0, 7).replace ('-', '_'));
+                  ++created;
+               }
+               rs.close ();
+            }
+         }//end for
+      } finally {
+         ps.close ();
+      }
+      return created;
+   }//end createAhead
+
+   /**
+    * Detaches the partitions of months that ended more than the given number
+    * of months before the current month.
+    *
+    * @return the names of the detached partitions
+    * @throws java.sql.SQLException when a partition cannot be detached
+    */
+   public List<String> detachOlderThan (int months) throws SQLException {
+      Calendar cal = Calendar.getInstance ();
+      int current = cal.get (Calendar.YEAR) * 12 + cal.get (Calendar.MONTH);
+      List<String> detached = new ArrayList<String> ();
+      for (String[] table : TABLES) {
+         for (String partition : partitions (table[0])) {
+            Matcher m = MONTH.matcher (partition);
+            if (!m.matches ()) {
+               continue;
+            }
+            int month = Integer.parseInt (m.group (2)) * 12 + Integer.parseInt (m.group (3)) - 1;
+            if (month < current - months) {
+               execute ("ALTER TABLE " + table[0] + " DETACH PARTITION " + partition);
+               System.out.println ("Detached " + partition);
+               detached.add (partition);
+            }
+         }
+      }//end for
+      return detached;
+   }//end detachOlderThan
+
+   /**
+    * Deletes the BookingChange entries logged more than the given number of
+    * hours ago.  Clients whose copies had not read them yet read Booking
+    * again on their next refresh.
+    *
+    * @return the number of entries deleted
+    * @throws java.sql.SQLException when the entries cannot be deleted
+    */
+   public long pruneChanges (int hours) throws SQLException {
+      PreparedStatement ps = this._conn.prepareStatement (PRUNE_CHANGES);
+      try {
+         Params.bind (ps, hours + " hours");
+         ResultSet rs = ps.executeQuery ();
+         try {
+            return rs.next () ? rs.getLong (1) : 0;
+         } finally {
+            rs.close ();
+         }
+      } finally {
+         ps.close ();
+      }
+   }//end pruneChanges
+
+   /**
+    * Explains the date-bounded booking reports for the last week of bookings
+    * and prints how many partitions each plan scans.
+    *
+    * @return true if every report was pruned to fewer than all partitions
+    * @throws java.sql.SQLException when a plan cannot be made
+    */
+   public boolean checkPruning () throws SQLException {
+      int last = lastBookingDay ();
+      java.sql.Date first = Params.date (Params.formatEpochDay (last - 6));
+      java.sql.Date end = Params.date (Params.formatEpochDay (last));
+      int total = partitions ("booking").size ();
+      boolean pruned = true;
+      pruned &= check (Query.WEEK_BOOKINGS, total, first, first, 1);
+      pruned &= check (Query.TOP_K_ROOM_PRICE, total, first, end, 10);
+      pruned &= check (Query.TOTAL_COST, total, 1, "", "", first, end);
+      return pruned;
+   }//end checkPruning
+
+   private boolean check (Query query, int total, Object... params) throws SQLException {
+      Set<String> scanned = new TreeSet<String> ();
+      PreparedStatement ps = this._conn.prepareStatement ("EXPLAIN " + query.sql ());
+      try {
+         Params.bind (ps, params);
+         ResultSet rs = ps.executeQuery ();
+         while (rs.next ()) {
+            Matcher m = BOOKING_PARTITION.matcher (rs.getString (1));
+            while (m.find ()) {
+               scanned.add (m.group ());
+            }
+         }
+         rs.close ();
+      } finally {
+         ps.close ();
+      }
+      boolean pruned = total <= 1 || scanned.size () < total;
+      System.out.println (String.format ("%-24s scans %4d of %4d booking partitions%s", query,
+                                         scanned.size (), total, pruned ? "" : " (NOT PRUNED)"));
+      return pruned;
+   }//end check
+
+   private int lastBookingDay () throws SQLException {
+      Statement stmt = this._conn.createStatement ();
+      try {
+         ResultSet rs = stmt.executeQuery (LAST_BOOKING);
+         String last = rs.next () ? rs.getString (1) : null;
+         rs.close ();
+         if (last != null) {
+            return Params.epochDay (last);
+         }
+         Calendar cal = Calendar.getInstance ();
+         return Params.epochDay (cal.get (Calendar.YEAR), cal.get (Calendar.MONTH) + 1,
+                                 cal.get (Calendar.DAY_OF_MONTH));
+      } finally {
+         stmt.close ();
+      }
+   }//end lastBookingDay
+
+   private List<String> partitions (String table) throws SQLException {
+      List<String> names = new ArrayList<String> ();
+      PreparedStatement ps = this._conn.prepareStatement (PARTITIONS);
+      try {
+         Params.bind (ps, table);
+         ResultSet rs = ps.executeQuery ();
+         while (rs.next ()) {
+            names.add (rs.getString (1));
+         }
+         rs.close ();
+      } finally {
+         ps.close ();
+      }
+      return names;
+   }//end partitions
+
+   private void execute (String sql) throws SQLException {
+      Statement stmt = this._conn.createStatement ();
+      try {
+         stmt.execute (sql);
+      } finally {
+         stmt.close ();
+      }
+   }//end execute
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         usage ();
+         return;
+      }
+      int ahead = Integer.getInteger ("dbproject.partitions.ahead", 12);
+      int retain = -1;
+      int keepChanges = Integer.getInteger ("dbproject.partitions.keepChangesHours", 24);
+      boolean check = false;
+      try {
+         for (int i = 3; i < args.length; ++i) {
+            if (args[i].equals ("-ahead") && i + 1 < args.length) {
+               ahead = Integer.parseInt (args[++i]);
+            } else if (args[i].equals ("-retain") && i + 1 < args.length) {
+               retain = Integer.parseInt (args[++i]);
+            } else if (args[i].equals ("-keepChanges") && i + 1 < args.length) {
+               keepChanges = Integer.parseInt (args[++i]);
+            } else if (args[i].equals ("-check")) {
+               check = true;
+            } else {
+               throw new IllegalArgumentException ("Unrecognized option: " + args[i]);
+            }
+         }//end for
+         if (ahead < 0) {
+            throw new IllegalArgumentException ("The number of months ahead cannot be negative: " + ahead);
+         }
+         if (keepChanges < 0) {
+            throw new IllegalArgumentException ("The hours of changes kept cannot be negative: " + keepChanges);
+         }
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+         usage ();
+         return;
+      }//end try
+
+      ConnectionPool pool = null;
+      boolean pruned = true;
+      try {
+         Class.forName ("org.postgresql.Driver");
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         pool = new ConnectionPool (url, args[2], "", 1, 0, Long.MAX_VALUE / 2, 300000L, 5000L);
+         PooledConnection pc = pool.borrow ();
+         try {
+            PartitionManager manager = new PartitionManager (pc.connection ());
+            System.out.println (manager.createAhead (ahead) + " partitions created");
+            if (retain >= 0) {
+               System.out.println (manager.detachOlderThan (retain).size () + " partitions detached");
+            }
+            System.out.println (manager.pruneChanges (keepChanges) + " booking changes pruned");
+            if (check) {
+               pruned = manager.checkPruning ();
+            }
+         } catch (SQLException e) {
+            pc.markBroken ();
+            throw e;
+         } finally {
+            pool.release (pc);
+         }
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (pool != null) {
+            pool.close ();
+         }
+      }//end try
+      if (!pruned) {
+         System.exit (1);
+      }
+   }//end main
+
+   public static void usage () {
+      System.err.println (
+         "Usage: java [-classpath <classpath>] " + PartitionManager.class.getName () +
+         " <dbname> <port> <user> [-ahead <months>] [-retain <months>] [-keepChanges <hours>] [-check]");
+   }//end usage
+}//end PartitionManager
@@ -0,0 +1,255 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Streams data to the server with COPY ... FROM STDIN, and from it with
+ * COPY ... TO STDOUT.  The JDBC3 driver we ship predates the driver's
+ * CopyManager, so it is looked up by reflection and used when a newer driver
+ * is on the classpath.  Otherwise the COPY is sent over a CopyProtocol
+ * connection of its own, opened with the pool's URL and login, so COPY is
+ * used with pg73jdbc3 as well.
+ *
+ * With dbproject.copy=insert the rows are instead sent as multi-row INSERT
+ * statements built from the same COPY text format.  That is not COPY: every
+ * row is parsed as SQL and goes through the executor, so it is much slower,
+ * and it is only there for servers CopyProtocol cannot log in to.
+ *
+ */
+public class PgCopy {
+
+   // rows per INSERT statement when COPY is not available.
+   private static final int INSERT_ROWS = Integer.getInteger ("dbproject.copy.insertRows", 1000);
+   private static final boolean INSERT = "insert".equals (System.getProperty ("dbproject.copy"));
+
+   private static final Constructor<?> COPY_MANAGER;
+   private static final Method COPY_IN;
+   private static final Method COPY_OUT;
+
+   static {
+      Constructor<?> ctor = null;
+      Method copyIn = null;
+      Method copyOut = null;
+      try {
+         Class<?> manager = Class.forName ("org.postgresql.copy.CopyManager");
+         Class<?> base = Class.forName ("org.postgresql.core.BaseConnection");
+         ctor = manager.getConstructor (base);
+         copyIn = manager.getMethod ("copyIn", String.class, InputStream.class);
+         copyOut = manager.getMethod ("copyOut", String.class, OutputStream.class);
+      } catch (Exception e) {
+         // an old driver; use CopyProtocol.
+         ctor = null;
+         copyIn = null;
+         copyOut = null;
+      }
+      COPY_MANAGER = ctor;
+      COPY_IN = copyIn;
+      COPY_OUT = copyOut;
+   }
+
+   private PgCopy () {
+   }//end PgCopy
+
+   /**
+    * @return how copyIn sends the rows, for the loaders to print
+    */
+   public static String method () {
+      if (INSERT) {
+         return "multi-row INSERT statements (dbproject.copy=insert), not COPY";
+      }
+      return COPY_MANAGER != null ? "COPY through the driver's CopyManager"
+                                  : "COPY through its own protocol connection, as the driver has no CopyManager";
+   }//end method
+
+   /**
+    * @return true if copyIn sends the rows as INSERT statements instead of
+    *         with COPY
+    */
+   public static boolean inserts () {
+      return INSERT;
+   }//end inserts
+
+   /**
+    * Loads rows in COPY text format (tab or single character delimited,
+    * \N for null, backslash escapes) into a table.
+    *
+    * @param pc the connection to load through
+    * @param table the table name
+    * @param columns the column list, as in COPY table(columns)
+    * @param delimiter the field delimiter
+    * @param data the rows; not closed
+    * @return the number of rows loaded
+    * @throws java.sql.SQLException when the server rejected the data
+    * @throws java.io.IOException when the data cannot be read
+    */
+   public static long copyIn (PooledConnection pc, String table, String columns, char delimiter,
+                              InputStream data) throws SQLException, IOException {
+      if (INSERT) {
+         return insert (pc.connection (), table, columns, delimiter, data);
+      }
+      String sql = "COPY " + table + "(" + columns + ") FROM STDIN WITH DELIMITER '" +
+                   (delimiter == '\'' ? "''" : String.valueOf (delimiter)) + "'";
+      if (COPY_MANAGER == null) {
+         CopyProtocol copy = pc.pool ().copyConnection ();
+         try {
+            return copy.copyIn (sql, data);
+         } finally {
+            copy.close ();
+         }
+      }
+      try {
+         Object manager = COPY_MANAGER.newInstance (pc.connection ());
+         return ((Long) COPY_IN.invoke (manager, sql, data)).longValue ();
+      } catch (InvocationTargetException e) {
+         Throwable cause = e.getCause ();
+         if (cause instanceof SQLException) {
+            throw (SQLException) cause;
+         }
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         throw new SQLException ("COPY into " + table + " failed: " + cause);
+      } catch (ReflectiveOperationException e) {
+         throw new SQLException ("COPY into " + table + " failed: " + e);
+      }//end try
+   }//end copyIn
+
+   /**
+    * Runs a COPY ... TO STDOUT statement and writes what the server sends,
+    * as it arrives, to a stream.
+    *
+    * @param pc the connection to copy through
+    * @param sql the COPY statement
+    * @param out receives the data; not closed
+    * @return the number of rows copied
+    * @throws java.sql.SQLException when the server rejected the statement
+    * @throws java.io.IOException when the stream cannot be written
+    */
+   public static long copyOut (PooledConnection pc, String sql, OutputStream out)
+      throws SQLException, IOException {
+      if (COPY_MANAGER == null) {
+         CopyProtocol copy = pc.pool ().copyConnection ();
+         try {
+            return copy.copyOut (sql, out);
+         } finally {
+            copy.close ();
+         }
+      }
+      try {
+         Object manager = COPY_MANAGER.newInstance (pc.connection ());
+         return ((Long) COPY_OUT.invoke (manager, sql, out)).longValue ();
+      } catch (InvocationTargetException e) {
+         Throwable cause = e.getCause ();
+         if (cause instanceof SQLException) {
+            throw (SQLException) cause;
+         }
+         if (cause instanceof IOException) {
+            throw (IOException) cause;
+         }
+         throw new SQLException ("COPY failed: " + cause);
+      } catch (ReflectiveOperationException e) {
+         throw new SQLException ("COPY failed: " + e);
+      }//end try
+   }//end copyOut
+
+   /*
+    * Sends the rows as INSERT ... VALUES statements of INSERT_ROWS rows.
+    * Values are quoted literals, so the server converts them to the column
+    * types just as COPY would.
+    */
+   private static long insert (Connection conn, String table, String columns, char delimiter,
+                               InputStream data) throws SQLException, IOException {
+      BufferedReader in = new BufferedReader (new InputStreamReader (data, "UTF-8"), 1 << 16);
+      String prefix = "INSERT INTO " + table + "(" + columns + ") VALUES ";
+      StringBuilder sql = new StringBuilder (1 << 16);
+      Statement stmt = conn.createStatement ();
+      try {
+         long rows = 0;
+         int pending = 0;
+         String line;
+         while ((line = in.readLine ()) != null) {
+            if (line.equals ("\\.")) {
+               break;
+            }
+            sql.append (pending == 0 ? prefix : ",");
+            appendRow (sql, line, delimiter);
+            ++rows;
+            if (++pending == INSERT_ROWS) {
+               stmt.executeUpdate (sql.toString ());
+               sql.setLength (0);
+               pending = 0;
+            }
+         }//end while
+         if (pending > 0) {
+            stmt.executeUpdate (sql.toString ());
+         }
+         return rows;
+      } finally {
+         stmt.close ();
+      }//end try
+   }//end insert
+
+   /*
+    * Appends one COPY text line as a parenthesized list of literals.
+    */
+   private static void appendRow (StringBuilder sql, String line, char delimiter) {
+      sql.append ('(');
+      int start = 0;
+      boolean first = true;
+      while (true) {
+         int end = fieldEnd (line, start, delimiter);
+         if (!first) {
+            sql.append (',');
+         }
+         first = false;
+         appendLiteral (sql, line, start, end);
+         if (end >= line.length ()) {
+            break;
+         }
+         start = end + 1;
+      }//end while
+      sql.append (')');
+   }//end appendRow
+
+   private static int fieldEnd (String line, int start, char delimiter) {
+      int i = start;
+      while (i < line.length () && line.charAt (i) != delimiter) {
+         // a backslash escapes the next character, including the delimiter.
+         i += line.charAt (i) == '\\' ? 2 : 1;
+      }
+      return Math.min (i, line.length ());
+   }//end fieldEnd
+
+   private static void appendLiteral (StringBuilder sql, String line, int start, int end) {
+      if (end - start == 2 && line.charAt (start) == '\\' && line.charAt (start + 1) == 'N') {
+         sql.append ("NULL");
+         return;
+      }
+      sql.append ('\'');
+      for (int i = start; i < end; ++i) {
+         char c = line.charAt (i);
+         if (c == '\\' && i + 1 < end) {
+            c = line.charAt (++i);
+            switch (c) {
+               case 't': c = '\t'; break;
+               case 'n': c = '\n'; break;
+               case 'r': c = '\r'; break;
+               default: break;
+            }
+         }
+         if (c == '\'') {
+            sql.append ('\'');
+         }
+         sql.append (c);
+      }//end for
+      sql.append ('\'');
+   }//end appendLiteral
+}//end PgCopy
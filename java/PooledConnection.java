@@ -0,0 +1,128 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A physical connection owned by a ConnectionPool, along with the
+ * bookkeeping the pool needs to validate and evict it.
+ *
+ */
+public class PooledConnection {
+
+   // the physical database connection.
+   private final Connection _connection;
+
+   // the pool the connection goes back to.
+   private final ConnectionPool _pool;
+
+   // prepared statements cached on this connection.
+   private final StatementCache _statements;
+
+   // when the connection was opened and when it was last handed back.
+   private final long _createdAt;
+   private volatile long _lastUsed;
+
+   // set when a statement failed in a way that leaves the connection unusable.
+   private volatile boolean _broken = false;
+
+   PooledConnection (Connection connection, ConnectionPool pool) {
+      this._connection = connection;
+      this._pool = pool;
+      this._statements = new StatementCache (connection);
+      this._createdAt = System.currentTimeMillis ();
+      this._lastUsed = this._createdAt;
+   }//end PooledConnection
+
+   /**
+    * @return the physical connection
+    */
+   public Connection connection () {
+      return this._connection;
+   }//end connection
+
+   /**
+    * @return the pool that owns this connection
+    */
+   public ConnectionPool pool () {
+      return this._pool;
+   }//end pool
+
+   /**
+    * @return the prepared statement cache for this connection
+    */
+   public StatementCache statements () {
+      return this._statements;
+   }//end statements
+
+   public long createdAt () {
+      return this._createdAt;
+   }//end createdAt
+
+   public long lastUsed () {
+      return this._lastUsed;
+   }//end lastUsed
+
+   void touch () {
+      this._lastUsed = System.currentTimeMillis ();
+   }//end touch
+
+   /**
+    * Marks the connection so the pool closes it instead of reusing it.
+    */
+   public void markBroken () {
+      this._broken = true;
+   }//end markBroken
+
+   public boolean isBroken () {
+      return this._broken;
+   }//end isBroken
+
+   /**
+    * Checks the connection with a trivial round trip.  The JDBC3 driver we
+    * ship predates Connection.isValid, so a test query is used instead.
+    *
+    * @return true if the server answered
+    */
+   boolean validate () {
+      Statement stmt = null;
+      try {
+         if (this._connection.isClosed ()) {
+            return false;
+         }
+         stmt = this._connection.createStatement ();
+         stmt.executeQuery ("SELECT 1").close ();
+         return true;
+      } catch (SQLException e) {
+         return false;
+      } finally {
+         if (stmt != null) {
+            try { stmt.close (); } catch (SQLException e) { /* ignored */ }
+         }
+      }//end try
+   }//end validate
+
+   /**
+    * Puts the connection back in autocommit mode, rolling back anything a
+    * caller left open.
+    *
+    * @throws java.sql.SQLException when the reset failed
+    */
+   void reset () throws SQLException {
+      if (!this._connection.getAutoCommit ()) {
+         this._connection.rollback ();
+         this._connection.setAutoCommit (true);
+      }
+   }//end reset
+
+   /**
+    * Closes the physical connection, ignoring errors.
+    */
+   void close () {
+      this._statements.close ();
+      try {
+         this._connection.close ();
+      } catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end close
+}//end PooledConnection
@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Booking prices kept in memory in price order, once per booking date and
+ * once per customer, so the two top-k price reports no longer sort every
+ * booking they cover.  A report merges the lists its range or customers
+ * select through a heap holding one cursor per list, and stops after k
+ * rows; the cost is linear in the number of lists plus k log(lists),
+ * whatever the number of bookings behind them.
+ *
+ * The index is filled from Booking, and kept current, by BookingSnapshots.
+ * Prices must not be negative.
+ *
+ */
+public class PriceIndex {
+
+   // a price and booking ID packed into one long that sorts ascending in
+   // the report's order: highest price first, then lowest booking ID.
+   private static final long MAX_CENTS = Integer.MAX_VALUE;
+
+   private final TreeMap<Integer, Prices> _days = new TreeMap<Integer, Prices> ();
+   private final Map<Integer, Prices> _customers = new HashMap<Integer, Prices> ();
+   private final ReadWriteLock _lock = new ReentrantReadWriteLock ();
+
+   /**
+    * Adds a booking while the index is being filled, before any report
+    * reads it; sort() must be called once every booking is in.
+    *
+    * @param epochDay the booking date as days since 1970-01-01
+    * @param cents the price in cents
+    */
+   public void append (int bookingid, int customerid, int epochDay, int cents) {
+      long key = key (cents, bookingid);
+      prices (this._days, epochDay).append (key);
+      prices (this._customers, customerid).append (key);
+   }//end append
+
+   /**
+    * Puts the bookings added with append() in price order.
+    */
+   public void sort () {
+      this._lock.writeLock ().lock ();
+      try {
+         for (Prices prices : this._days.values ()) {
+            prices.sort ();
+         }
+         for (Prices prices : this._customers.values ()) {
+            prices.sort ();
+         }
+      } finally {
+         this._lock.writeLock ().unlock ();
+      }
+   }//end sort
+
+   /**
+    * Records a new booking.
+    *
+    * @param epochDay the booking date as days since 1970-01-01
+    * @param cents the price in cents
+    */
+   public void book (int bookingid, int customerid, int epochDay, int cents) {
+      long key = key (cents, bookingid);
+      this._lock.writeLock ().lock ();
+      try {
+         prices (this._days, epochDay).insert (key);
+         prices (this._customers, customerid).insert (key);
+      } finally {
+         this._lock.writeLock ().unlock ();
+      }
+   }//end book
+
+   /**
+    * Writes the k highest booking prices in a date range, as the price and
+    * bookingdate columns of the report's query.
+    *
+    * @return the number of rows written
+    * @throws java.io.IOException when the sink cannot be written
+    */
+   public int topKForDates (int fromDay, int toDay, int k, ResultSink sink) throws IOException {
+      List<Cursor> cursors = new ArrayList<Cursor> ();
+      long[] keys;
+      int[] days;
+      this._lock.readLock ().lock ();
+      try {
+         if (fromDay <= toDay) {
+            for (Map.Entry<Integer, Prices> day : this._days.subMap (fromDay, true, toDay, true).entrySet ()) {
+               cursors.add (new Cursor (day.getValue (), day.getKey ()));
+            }
+         }
+         keys = new long[bound (cursors, k)];
+         days = new int[keys.length];
+         merge (cursors, keys, days);
+      } finally {
+         this._lock.readLock ().unlock ();
+      }
+      sink.columns (new String[] { "price", "bookingdate" });
+      String[] row = new String[2];
+      for (int i = 0; i < keys.length; ++i) {
+         row[0] = price (keys[i]);
+         row[1] = Params.isoDate (days[i]);
+         sink.row (row);
+      }
+      sink.finish (keys.length);
+      return keys.length;
+   }//end topKForDates
+
+   /**
+    * Writes the k most expensive bookings of the given customers, as the
+    * price and bid columns of the report's query.  Customers who share a
+    * name are reported together, as the query does.
+    *
+    * @return the number of rows written
+    * @throws java.io.IOException when the sink cannot be written
+    */
+   public int topKForCustomers (List<Integer> customerids, int k, ResultSink sink) throws IOException {
+      List<Cursor> cursors = new ArrayList<Cursor> ();
+      long[] keys;
+      this._lock.readLock ().lock ();
+      try {
+         for (Integer customerid : customerids) {
+            Prices prices = this._customers.get (customerid);
+            if (prices != null) {
+               cursors.add (new Cursor (prices, 0));
+            }
+         }
+         keys = new long[bound (cursors, k)];
+         merge (cursors, keys, null);
+      } finally {
+         this._lock.readLock ().unlock ();
+      }
+      sink.columns (new String[] { "price", "bid" });
+      String[] row = new String[2];
+      for (long key : keys) {
+         row[0] = price (key);
+         row[1] = String.valueOf ((int) key);
+         sink.row (row);
+      }
+      sink.finish (keys.length);
+      return keys.length;
+   }//end topKForCustomers
+
+   /*
+    * The number of rows a report returns: k, or fewer when the lists hold
+    * fewer bookings.
+    */
+   private static int bound (List<Cursor> cursors, int k) {
+      long total = 0;
+      for (Cursor cursor : cursors) {
+         total += cursor.prices.size;
+      }
+      return (int) Math.max (0L, Math.min ((long) k, total));
+   }//end bound
+
+   /*
+    * Fills keys, and days if given, with the first keys.length entries of
+    * the merged lists.
+    */
+   private static void merge (List<Cursor> cursors, long[] keys, int[] days) {
+      if (keys.length == 0) {
+         return;
+      }
+      PriorityQueue<Cursor> heap = new PriorityQueue<Cursor> (cursors);
+      for (int i = 0; i < keys.length; ++i) {
+         Cursor cursor = heap.poll ();
+         keys[i] = cursor.head ();
+         if (days != null) {
+            days[i] = cursor.day;
+         }
+         if (++cursor.next < cursor.prices.size) {
+            heap.add (cursor);
+         }
+      }
+   }//end merge
+
+   private static long key (int cents, int bookingid) {
+      return ((MAX_CENTS - cents) << 32) | (bookingid & 0xffffffffL);
+   }//end key
+
+   /*
+    * Formats the price of a key as the server returns NUMERIC(6,2) values.
+    */
+   private static String price (long key) {
+      long cents = MAX_CENTS - (key >>> 32);
+      long fraction = cents % 100;
+      return (cents / 100) + (fraction < 10 ? ".0" : ".") + fraction;
+   }//end price
+
+   private static Prices prices (Map<Integer, Prices> lists, int id) {
+      Prices prices = lists.get (id);
+      if (prices == null) {
+         prices = new Prices ();
+         lists.put (id, prices);
+      }
+      return prices;
+   }//end prices
+
+   /*
+    * A growable array of keys, sorted except while it is being loaded.
+    */
+   private static class Prices {
+      long[] keys = new long[4];
+      int size = 0;
+
+      void append (long key) {
+         if (this.size == this.keys.length) {
+            this.keys = Arrays.copyOf (this.keys, this.size * 2);
+         }
+         this.keys[this.size++] = key;
+      }
+
+      void insert (long key) {
+         append (key);
+         int at = Arrays.binarySearch (this.keys, 0, this.size - 1, key);
+         if (at < 0) {
+            at = -at - 1;
+         }
+         System.arraycopy (this.keys, at, this.keys, at + 1, this.size - 1 - at);
+         this.keys[at] = key;
+      }
+
+      void sort () {
+         Arrays.sort (this.keys, 0, this.size);
+      }
+   }//end Prices
+
+   /*
+    * The next unmerged entry of one list.
+    */
+   private static class Cursor implements Comparable<Cursor> {
+      final Prices prices;
+      final int day;
+      int next = 0;
+
+      Cursor (Prices prices, int day) {
+         this.prices = prices;
+         this.day = day;
+      }
+
+      long head () {
+         return this.prices.keys[this.next];
+      }
+
+      public int compareTo (Cursor other) {
+         long a = head ();
+         long b = other.head ();
+         return a < b ? -1 : (a == b ? 0 : 1);
+      }
+   }//end Cursor
+}//end PriceIndex
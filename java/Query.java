@@ -0,0 +1,130 @@
+/**
+ * The parameterized SQL statements issued by the DBProject operations.  Each
+ * constant is prepared once per connection and cached, so the server parses
+ * and plans it only the first time it is used on that connection.
+ *
+ */
+public enum Query {
+
+   //CHOICE 1
+   ADD_CUSTOMER ("INSERT INTO Customer VALUES (?, ?, ?, ?, ?, ?, CAST(? AS GenderType))"),
+
+   //CHOICE 2
+   ADD_ROOM ("INSERT INTO Room VALUES (?, ?, ?)"),
+
+   //CHOICE 3
+   ADD_MAINTENANCE_COMPANY ("INSERT INTO MaintenanceCompany VALUES (?, ?, ?, ?)"),
+
+   //CHOICE 4
+   ADD_REPAIR ("INSERT INTO Repair VALUES (?, ?, ?, ?, ?)"),
+
+   //CHOICE 5
+   NEXT_BOOKING_ID ("SELECT nextval('booking_seq')"),
+   CUSTOMER_ID_BY_NAME ("SELECT C.customerID FROM Customer C WHERE C.fname = ? AND C.lname = ?"),
+   BOOK_ROOM ("INSERT INTO Booking VALUES (?, ?, ?, ?, ?, ?, ?)"),
+
+   //CHOICE 6
+   NEXT_ASSIGNED_ID ("SELECT nextval('assigned_seq')"),
+   ASSIGN_HOUSE_CLEANING ("INSERT INTO Assigned VALUES (?, ?, ?, ?)"),
+
+   //CHOICE 7
+   IS_MANAGER ("SELECT S.SSN FROM Staff S WHERE S.SSN = ? AND S.role = 'Manager'"),
+   STAFF_ROLE ("SELECT CAST(S.role AS TEXT) FROM Staff S WHERE S.SSN = ?"),
+   NEXT_REQUEST_ID ("SELECT nextval('request_seq')"),
+   REPAIR_REQUEST ("INSERT INTO Request VALUES (?, ?, ?, ?)"),
+
+   //CHOICE 8
+   AVAILABLE_ROOMS ("SELECT COUNT(*) FROM Room R WHERE R.hotelID = ? AND NOT EXISTS (SELECT 1 FROM Booking B WHERE B.hotelID = R.hotelID AND B.roomNo = R.roomNo)"),
+   AVAILABLE_ROOMS_FOR_DATES ("SELECT COUNT(*) FROM Room R WHERE R.hotelID = ? AND NOT EXISTS (SELECT 1 FROM Booking B WHERE B.hotelID = R.hotelID AND B.roomNo = R.roomNo AND B.bookingDate BETWEEN ? AND ?)"),
+
+   //CHOICE 9
+   BOOKED_ROOMS ("SELECT COUNT(roomNo) FROM Booking B WHERE B.hotelID = ?"),
+   BOOKED_ROOMS_FOR_DATES ("SELECT COUNT(DISTINCT B.roomNo) FROM Booking B WHERE B.hotelID = ? AND B.bookingDate BETWEEN ? AND ?"),
+
+   //CHOICE 10
+   WEEK_BOOKINGS ("SELECT B.roomNo FROM Booking B WHERE (B.bookingDate BETWEEN ? AND CAST(? AS DATE) + 7) AND B.hotelID = ? GROUP BY B.roomNo"),
+   WEEK_BOOKINGS_PAGE ("SELECT DISTINCT B.roomNo FROM Booking B WHERE B.hotelID = ? AND (B.bookingDate BETWEEN ? AND CAST(? AS DATE) + 7) AND B.roomNo > ? ORDER BY B.roomNo LIMIT ?"),
+
+   //CHOICE 11
+   TOP_K_ROOM_PRICE ("SELECT B.price, B.bookingDate FROM Room R, Booking B WHERE R.roomNo = B.roomNo AND R.hotelID = B.hotelID AND (B.bookingDate BETWEEN ? AND ?) ORDER BY B.price DESC LIMIT ?"),
+
+   //CHOICE 12
+   TOP_K_CUSTOMER_BOOKINGS ("SELECT B.price, B.bID FROM Customer C, Booking B WHERE C.fName = ? AND C.lName = ? AND C.customerID = B.customer ORDER BY B.price DESC LIMIT ?"),
+
+   //CHOICE 13
+   TOTAL_COST ("SELECT SUM(price) FROM Booking B WHERE B.hotelID = ? AND B.customer = (SELECT C.customerID FROM Customer C WHERE C.fName = ? AND C.lName = ?) AND B.bookingDate BETWEEN ? AND ?"),
+
+   //CHOICE 14
+   COMPANY_ID_BY_NAME ("SELECT CASE WHEN COUNT(*) = 1 THEN CAST(MIN(M.cmpID) AS INTEGER) END FROM MaintenanceCompany M WHERE M.name = ?"),
+   REPAIRS_BY_COMPANY ("SELECT Rep.rID, Rep.repairType, Rep.hotelID, Rep.roomNo FROM Repair Rep WHERE Rep.mCompany = ?"),
+   LIST_REPAIRS_MADE ("SELECT DISTINCT Rep.rID, Rep.repairType, Rep.hotelID, Rep.roomNo FROM Repair Rep, MaintenanceCompany M WHERE M.cmpID = Rep.mCompany AND M.name = ?"),
+   REPAIRS_BY_COMPANY_PAGE ("SELECT Rep.rID, Rep.repairType, Rep.hotelID, Rep.roomNo FROM Repair Rep WHERE Rep.mCompany = ? AND Rep.rID > ? ORDER BY Rep.rID LIMIT ?"),
+   LIST_REPAIRS_MADE_PAGE ("SELECT DISTINCT Rep.rID, Rep.repairType, Rep.hotelID, Rep.roomNo FROM Repair Rep WHERE Rep.mCompany IN (SELECT M.cmpID FROM MaintenanceCompany M WHERE M.name = ?) AND Rep.rID > ? ORDER BY Rep.rID LIMIT ?"),
+
+   //CHOICE 15
+   TOP_K_MAINTENANCE_COMPANY ("SELECT SUM(C.repairs) AS count, M.name FROM MaintenanceCompany M, CompanyRepairCount C WHERE M.cmpID = C.cmpID AND C.repairs > 0 GROUP BY M.name ORDER BY 1 DESC LIMIT ?"),
+
+   //CHOICE 16
+   REPAIRS_PER_YEAR ("SELECT R.year AS date_part, R.repairs AS count FROM RoomRepairYear R WHERE R.hotelID = ? AND R.roomNo = ? AND R.repairs > 0 ORDER BY R.year"),
+
+   //CHOICE 18
+   HOTEL_REPAIRS ("SELECT Rep.rID, Rep.roomNo, Rep.repairDate, Rep.repairType, M.name FROM Repair Rep, MaintenanceCompany M WHERE M.cmpID = Rep.mCompany AND Rep.hotelID = ? ORDER BY Rep.repairDate"),
+   HOTEL_REPAIRS_FOR_DATES ("SELECT Rep.rID, Rep.roomNo, Rep.repairDate, Rep.repairType, M.name FROM Repair Rep, MaintenanceCompany M WHERE M.cmpID = Rep.mCompany AND Rep.hotelID = ? AND Rep.repairDate BETWEEN ? AND ? ORDER BY Rep.repairDate"),
+   HOTEL_REPAIRS_PER_YEAR ("SELECT R.roomNo, R.year, R.repairs FROM RoomRepairYear R WHERE R.hotelID = ? AND R.repairs > 0 ORDER BY R.roomNo, R.year"),
+
+   //KEY SETS
+   HOTEL_KEYS ("SELECT H.hotelID FROM Hotel H"),
+   CUSTOMER_KEYS ("SELECT C.customerID FROM Customer C"),
+   COMPANY_KEYS ("SELECT M.cmpID FROM MaintenanceCompany M"),
+   STAFF_KEYS ("SELECT S.SSN FROM Staff S"),
+   REPAIR_KEYS ("SELECT R.rID FROM Repair R"),
+   ROOM_KEYS ("SELECT R.hotelID, R.roomNo FROM Room R"),
+
+   //ID ALLOCATION
+   SEQUENCE_INCREMENT ("SELECT CAST(S.seqincrement AS INTEGER) FROM pg_sequence S WHERE S.seqrelid = CAST(? AS regclass)"),
+
+   //EXISTENCE PROBES
+   HOTEL_EXISTS ("SELECT 1 FROM Hotel H WHERE H.hotelID = ? LIMIT 1"),
+   ROOM_EXISTS ("SELECT 1 FROM Room R WHERE R.hotelID = ? AND R.roomNo = ? LIMIT 1"),
+   CUSTOMER_EXISTS ("SELECT 1 FROM Customer C WHERE C.customerID = ? LIMIT 1"),
+   COMPANY_EXISTS ("SELECT 1 FROM MaintenanceCompany M WHERE M.cmpID = ? LIMIT 1"),
+   STAFF_EXISTS ("SELECT 1 FROM Staff S WHERE S.SSN = ? LIMIT 1"),
+   REPAIR_EXISTS ("SELECT 1 FROM Repair R WHERE R.rID = ? LIMIT 1"),
+   ROOM_BOOKED ("SELECT 1 FROM Booking B WHERE B.hotelID = ? AND B.roomNo = ? AND B.bookingDate = ? LIMIT 1"),
+
+   //REPAIR RANKING
+   COMPANY_REPAIR_COUNTS ("SELECT M.cmpID, M.name, COALESCE(C.repairs, 0) FROM MaintenanceCompany M LEFT JOIN CompanyRepairCount C ON C.cmpID = M.cmpID"),
+   COMPANY_REPAIR_COUNT ("SELECT M.cmpID, M.name, COALESCE(C.repairs, 0) FROM MaintenanceCompany M LEFT JOIN CompanyRepairCount C ON C.cmpID = M.cmpID WHERE M.cmpID = ?"),
+
+   //BOOKING SNAPSHOTS
+   // rows of (snapshot, bID, customer, hotelID, roomNo, bookingDate, price):
+   // one per booking, one per room with only hotelID and roomNo, and one
+   // with only the txid_current_snapshot() the others were read in.
+   SNAPSHOT_ROWS ("SELECT NULL, B.bID, B.customer, B.hotelID, B.roomNo, B.bookingDate, B.price FROM Booking B UNION ALL SELECT NULL, NULL, NULL, R.hotelID, R.roomNo, NULL, NULL FROM Room R UNION ALL SELECT CAST(txid_current_snapshot() AS TEXT), NULL, NULL, NULL, NULL, NULL, NULL"),
+   // the same for the bookings and rooms logged by transactions a previous
+   // snapshot did not see; its row also holds BookingChangeHorizon.prunedBelow.
+   SNAPSHOT_CHANGES ("SELECT NULL, C.bID, C.customer, C.hotelID, C.roomNo, C.bookingDate, C.price FROM BookingChange C WHERE C.txID >= txid_snapshot_xmin(CAST(? AS txid_snapshot)) AND NOT txid_visible_in_snapshot(C.txID, CAST(? AS txid_snapshot)) UNION ALL SELECT CAST(txid_current_snapshot() AS TEXT), H.prunedBelow, NULL, NULL, NULL, NULL, NULL FROM BookingChangeHorizon H"),
+
+   //REPLICAS
+   REPLICA_LAG_MS ("SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 ELSE CAST(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 AS BIGINT) END"),
+
+   //KEY SAMPLES
+   SAMPLE_ROOMS ("SELECT R.hotelID, R.roomNo FROM Room R WHERE R.hotelID <> 0 ORDER BY random() LIMIT ?"),
+   SAMPLE_CUSTOMERS ("SELECT C.fName, C.lName FROM Customer C WHERE C.customerID <> 0 ORDER BY random() LIMIT ?"),
+   SAMPLE_COMPANIES ("SELECT M.cmpID, M.name FROM MaintenanceCompany M WHERE M.cmpID <> 0 ORDER BY random() LIMIT ?"),
+   SAMPLE_STAFF ("SELECT S.SSN, S.role FROM Staff S WHERE S.SSN <> 0 ORDER BY random() LIMIT ?"),
+   SAMPLE_REPAIRS ("SELECT R.rID FROM Repair R WHERE R.rID <> 0 ORDER BY random() LIMIT ?"),
+   BOOKING_DATE_RANGE ("SELECT MIN(B.bookingDate), MAX(B.bookingDate) FROM Booking B WHERE B.bID <> 0"),
+   MAX_SAMPLE_KEY ("SELECT CAST(GREATEST((SELECT MAX(customerID) FROM Customer), (SELECT MAX(roomNo) FROM Room), (SELECT MAX(cmpID) FROM MaintenanceCompany), (SELECT MAX(rID) FROM Repair)) AS INTEGER)");
+
+   // the statement text with ? placeholders.
+   private final String _sql;
+
+   Query (String sql) {
+      this._sql = sql;
+   }//end Query
+
+   public String sql () {
+      return this._sql;
+   }//end sql
+}//end Query
@@ -0,0 +1,290 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The maintenance companies ranked by how many repairs they made, kept in
+ * memory so topKMaintenanceCompany reads the first k entries instead of
+ * counting every repair.  As in the report's query, companies sharing a
+ * name are ranked together and companies without repairs are left out.
+ *
+ * The ranking is read from the CompanyRepairCount summary table when
+ * DBProject connects.  addMaintenanceCompany and addRepair in this process
+ * update it as they commit; a repair by a company it does not know yet
+ * reads that company's name and count.  Repairs and companies added by
+ * other clients, another HTTP server or BulkLoader only arrive when the
+ * ranking is read again, so, as for BookingSnapshots, a report that finds
+ * it half dbproject.repairRanking.maxAgeMs old (default 60000, 0 for never)
+ * starts reading it again in the background, and a ranking older than that
+ * is not used.  Companies this process changes during the read are read
+ * again one by one afterwards, so their counts are not lost.
+ *
+ */
+public class RepairRanking {
+
+   // most repairs first, then by name.
+   private static final Comparator<Ranked> ORDER = new Comparator<Ranked> () {
+      public int compare (Ranked a, Ranked b) {
+         if (a.repairs != b.repairs) {
+            return a.repairs > b.repairs ? -1 : 1;
+         }
+         return a.name.compareTo (b.name);
+      }
+   };
+
+   private final DBProject _esql;
+   private final long _maxAgeNanos;
+
+   // guarded by this.
+   private final Map<Integer, Company> _companies = new HashMap<Integer, Company> ();
+   private final Map<String, Ranked> _byName = new HashMap<String, Ranked> ();
+   private final TreeSet<Ranked> _ranking = new TreeSet<Ranked> (ORDER);
+   private long _readAt;
+   // false once a company could not be read, until the next full read.
+   private boolean _complete = false;
+   // the companies changed while a full read runs, or null when none does.
+   private Set<Integer> _touched;
+
+   private static class Company {
+      final String name;
+      final long repairs;
+
+      Company (String name, long repairs) {
+         this.name = name;
+         this.repairs = repairs;
+      }
+   }//end Company
+
+   private static class Ranked {
+      final String name;
+      long repairs = 0;
+
+      Ranked (String name) {
+         this.name = name;
+      }
+   }//end Ranked
+
+   /**
+    * @param esql the database to read from
+    * @param maxAgeMillis the age after which the ranking is not used, or 0
+    *        to keep it for good
+    */
+   public RepairRanking (DBProject esql, long maxAgeMillis) {
+      this._esql = esql;
+      this._maxAgeNanos = TimeUnit.MILLISECONDS.toNanos (maxAgeMillis);
+   }//end RepairRanking
+
+   /**
+    * Creates the ranking from the dbproject.repairRanking.* system
+    * properties, without reading it.
+    */
+   public static RepairRanking fromProperties (DBProject esql) {
+      return new RepairRanking (esql, Long.getLong ("dbproject.repairRanking.maxAgeMs", 60000L));
+   }//end fromProperties
+
+   /**
+    * Reads every company with its repair count, replacing the ranking.
+    *
+    * @throws java.sql.SQLException when the query fails
+    */
+   public void load () throws SQLException {
+      synchronized (this) {
+         if (this._touched == null) {
+            this._touched = new HashSet<Integer> ();
+         }
+      }
+      Set<Integer> touched;
+      try {
+         long start = System.nanoTime ();
+         final Map<Integer, Company> companies = new HashMap<Integer, Company> ();
+         this._esql.executeQuery (Query.COMPANY_REPAIR_COUNTS, new DiscardingResultSink () {
+            public void row (String[] values) {
+               companies.put (Integer.parseInt (values[0]), new Company (padded (values[1]),
+                                                                         Long.parseLong (values[2])));
+            }
+         });
+         synchronized (this) {
+            this._companies.clear ();
+            this._byName.clear ();
+            this._ranking.clear ();
+            for (Map.Entry<Integer, Company> company : companies.entrySet ()) {
+               set (company.getKey (), company.getValue ().name, company.getValue ().repairs);
+            }
+            this._readAt = start;
+            this._complete = true;
+            touched = this._touched;
+         }
+      } finally {
+         synchronized (this) {
+            this._touched = null;
+         }
+      }//end try
+      for (int companyid : touched) {
+         read (companyid);
+      }
+   }//end load
+
+   /**
+    * Returns whether the ranking is recent enough to use, and starts reading
+    * it again in the background once it is half that old.
+    */
+   public boolean fresh () {
+      long age;
+      synchronized (this) {
+         if (!this._complete) {
+            return false;
+         }
+         age = System.nanoTime () - this._readAt;
+      }
+      if (this._maxAgeNanos == 0) {
+         return true;
+      }
+      if (age >= this._maxAgeNanos / 2) {
+         startReload ();
+      }
+      return age < this._maxAgeNanos;
+   }//end fresh
+
+   /**
+    * Records a new company.
+    */
+   public synchronized void addCompany (int companyid, String name) {
+      touch (companyid);
+      if (!this._companies.containsKey (companyid)) {
+         set (companyid, padded (name), 0);
+      }
+   }//end addCompany
+
+   /**
+    * Records a repair by a company, reading the company's name and count if
+    * the ranking does not know it yet.
+    */
+   public void addRepair (int companyid) {
+      synchronized (this) {
+         touch (companyid);
+         Company company = this._companies.get (companyid);
+         if (company != null) {
+            set (companyid, company.name, company.repairs + 1);
+            return;
+         }
+      }
+      read (companyid);
+   }//end addRepair
+
+   /**
+    * Writes the k companies with the most repairs, as the count and name
+    * columns of the report's query.
+    *
+    * @return the number of rows written
+    * @throws java.io.IOException when the sink cannot be written
+    */
+   public int topK (int k, ResultSink sink) throws IOException {
+      String[][] rows;
+      synchronized (this) {
+         rows = new String[Math.max (0, Math.min (k, this._ranking.size ()))][];
+         Iterator<Ranked> it = this._ranking.iterator ();
+         for (int i = 0; i < rows.length; ++i) {
+            Ranked ranked = it.next ();
+            rows[i] = new String[] { String.valueOf (ranked.repairs), ranked.name };
+         }
+      }
+      sink.columns (new String[] { "count", "name" });
+      for (String[] row : rows) {
+         sink.row (row);
+      }
+      sink.finish (rows.length);
+      return rows.length;
+   }//end topK
+
+   private void touch (int companyid) {
+      if (this._touched != null) {
+         this._touched.add (companyid);
+      }
+   }//end touch
+
+   /*
+    * Reads one company's name and count.  If that fails the ranking is not
+    * used until the next full read.
+    */
+   private void read (final int companyid) {
+      try {
+         this._esql.executeQuery (Query.COMPANY_REPAIR_COUNT, new DiscardingResultSink () {
+            public void row (String[] values) {
+               synchronized (RepairRanking.this) {
+                  set (companyid, padded (values[1]), Long.parseLong (values[2]));
+               }
+            }
+         }, companyid);
+      } catch (SQLException e) {
+         synchronized (this) {
+            this._complete = false;
+         }
+      }//end try
+   }//end read
+
+   /*
+    * Sets a company's name and count and moves its name in the ranking.
+    * Callers hold the lock on this.
+    */
+   private void set (int companyid, String name, long repairs) {
+      Company company = this._companies.get (companyid);
+      if (company != null) {
+         rank (company.name, -company.repairs);
+      }
+      this._companies.put (companyid, new Company (name, repairs));
+      rank (name, repairs);
+   }//end set
+
+   private void rank (String name, long repairs) {
+      if (repairs == 0) {
+         return;
+      }
+      Ranked ranked = this._byName.get (name);
+      if (ranked == null) {
+         ranked = new Ranked (name);
+         this._byName.put (name, ranked);
+      } else {
+         this._ranking.remove (ranked);
+      }
+      ranked.repairs += repairs;
+      if (ranked.repairs > 0) {
+         this._ranking.add (ranked);
+      } else {
+         this._byName.remove (name);
+      }
+   }//end rank
+
+   private synchronized void startReload () {
+      if (this._touched != null) {
+         return;
+      }
+      // set here so that only one reload starts.
+      this._touched = new HashSet<Integer> ();
+      Thread reloader = new Thread (new Runnable () {
+         public void run () {
+            try {
+               load ();
+            } catch (SQLException e) {
+               System.err.println ("Unable to read the repair ranking: " + e.getMessage ());
+            }
+         }
+      }, "repair-ranking");
+      reloader.setDaemon (true);
+      reloader.start ();
+   }//end startReload
+
+   /*
+    * Pads a name to the width of MaintenanceCompany.name, as the server
+    * returns CHAR(30) values.
+    */
+   private static String padded (String name) {
+      return String.format ("%-30s", name);
+   }//end padded
+}//end RepairRanking
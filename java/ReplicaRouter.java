@@ -0,0 +1,252 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the statements of read-only operations to replicas of the database,
+ * each with a connection pool of its own, and leaves writes on the primary.
+ * A background check measures every replica's replication lag and round trip
+ * time; replicas that are unreachable or further behind than the lag limit
+ * are skipped, and reads fall back to the primary when none is left.
+ *
+ * Replicas are configured with system properties and share the primary's
+ * database name, user and dbproject.pool.* settings:
+ *
+ *    dbproject.replicas            comma separated host:port or JDBC URLs
+ *                                  (default none)
+ *    dbproject.replicas.select     roundRobin or leastLatency
+ *                                  (default roundRobin)
+ *    dbproject.replicas.maxLagMs   skip replicas further behind (default 5000)
+ *    dbproject.replicas.checkMs    time between checks (default 1000)
+ *
+ */
+public class ReplicaRouter {
+
+   /**
+    * How a replica is chosen among those within the lag limit.
+    */
+   public enum Selection {
+      ROUND_ROBIN, LEAST_LATENCY;
+
+      static Selection forName (String name) {
+         if (name.equalsIgnoreCase ("roundRobin")) {
+            return ROUND_ROBIN;
+         }
+         if (name.equalsIgnoreCase ("leastLatency")) {
+            return LEAST_LATENCY;
+         }
+         throw new IllegalArgumentException ("Unknown replica selection: " + name);
+      }
+   }//end Selection
+
+   // weight of the newest round trip in the moving average.
+   private static final double ALPHA = 0.2;
+
+   private final List<Replica> _replicas = new ArrayList<Replica> ();
+   private final Selection _selection;
+   private final long _maxLagMillis;
+   private final AtomicInteger _next = new AtomicInteger ();
+   private final AtomicLong _fallbacks = new AtomicLong ();
+   private final ScheduledExecutorService _checker;
+
+   /*
+    * One replica and what the last checks found.
+    */
+   private static class Replica {
+      final String url;
+      final ConnectionPool pool;
+      final AtomicLong reads = new AtomicLong ();
+      // false until the first check succeeds.
+      volatile boolean usable = false;
+      volatile long lagMillis = -1;
+      volatile double latencyNanos = 0;
+
+      Replica (String url, ConnectionPool pool) {
+         this.url = url;
+         this.pool = pool;
+      }
+   }//end Replica
+
+   /**
+    * @param urls the JDBC URLs of the replicas
+    * @param selection how a replica is chosen
+    * @param maxLagMillis replicas further behind are skipped
+    * @param checkMillis the time between lag checks
+    */
+   public ReplicaRouter (List<String> urls, String user, String passwd, Selection selection,
+                         long maxLagMillis, long checkMillis) {
+      if (urls.isEmpty ()) {
+         throw new IllegalArgumentException ("No replicas given");
+      }
+      for (String url : urls) {
+         this._replicas.add (new Replica (url, new ConnectionPool (url, user, passwd)));
+      }
+      this._selection = selection;
+      this._maxLagMillis = maxLagMillis;
+      this._checker = Executors.newSingleThreadScheduledExecutor (new ThreadFactory () {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread (r, "replica-check");
+            t.setDaemon (true);
+            return t;
+         }
+      });
+      this._checker.scheduleWithFixedDelay (new Runnable () {
+         public void run () {
+            checkAll ();
+         }
+      }, 0, checkMillis, TimeUnit.MILLISECONDS);
+   }//end ReplicaRouter
+
+   /**
+    * Creates the router from the dbproject.replicas.* system properties.
+    *
+    * @param dbname the database name, for replicas given as host:port
+    * @return the router, or null when dbproject.replicas is not set
+    */
+   public static ReplicaRouter fromProperties (String dbname, String user, String passwd) {
+      String replicas = System.getProperty ("dbproject.replicas", "").trim ();
+      if (replicas.isEmpty ()) {
+         return null;
+      }
+      List<String> urls = new ArrayList<String> ();
+      for (String replica : replicas.split (",")) {
+         replica = replica.trim ();
+         urls.add (replica.startsWith ("jdbc:") ? replica
+                                                : "jdbc:postgresql://" + replica + "/" + dbname);
+      }
+      return new ReplicaRouter (urls, user, passwd,
+                                Selection.forName (System.getProperty ("dbproject.replicas.select", "roundRobin")),
+                                Long.getLong ("dbproject.replicas.maxLagMs", 5000L),
+                                Long.getLong ("dbproject.replicas.checkMs", 1000L));
+   }//end fromProperties
+
+   /**
+    * Borrows a connection to a replica within the lag limit, or to the
+    * primary when there is none or the replica cannot be reached.  The
+    * connection goes back to its own pool.
+    *
+    * @param primary the pool to fall back to
+    * @throws java.sql.SQLException when the primary cannot be reached either
+    */
+   public PooledConnection borrow (ConnectionPool primary) throws SQLException {
+      Replica replica = choose ();
+      if (replica != null) {
+         try {
+            PooledConnection pc = replica.pool.borrow ();
+            replica.reads.incrementAndGet ();
+            return pc;
+         } catch (SQLException e) {
+            // skipped until the next check finds it reachable.
+            replica.usable = false;
+         }//end try
+      }
+      this._fallbacks.incrementAndGet ();
+      return primary.borrow ();
+   }//end borrow
+
+   /**
+    * Stops the checks and closes the replica pools.
+    */
+   public void close () {
+      this._checker.shutdownNow ();
+      for (Replica replica : this._replicas) {
+         replica.pool.close ();
+      }
+   }//end close
+
+   /**
+    * @return a one line summary of every replica and the reads sent back to
+    *         the primary
+    */
+   public String stats () {
+      StringBuilder stats = new StringBuilder ("replicas:");
+      for (Replica replica : this._replicas) {
+         stats.append (String.format (Locale.ROOT, " %s(%s lag=%dms rtt=%.3fms reads=%d)", replica.url,
+                                      replica.usable ? "up" : "down", replica.lagMillis,
+                                      replica.latencyNanos / 1e6, replica.reads.get ()));
+      }
+      return stats.append (" fallbacks=").append (this._fallbacks.get ()).toString ();
+   }//end stats
+
+   /*
+    * Returns the replica to read from, or null if none is usable.
+    */
+   private Replica choose () {
+      int n = this._replicas.size ();
+      if (this._selection == Selection.LEAST_LATENCY) {
+         Replica best = null;
+         for (Replica replica : this._replicas) {
+            if (replica.usable && (best == null || replica.latencyNanos < best.latencyNanos)) {
+               best = replica;
+            }
+         }
+         return best;
+      }
+      int start = this._next.getAndIncrement () & Integer.MAX_VALUE;
+      for (int i = 0; i < n; ++i) {
+         Replica replica = this._replicas.get ((start + i) % n);
+         if (replica.usable) {
+            return replica;
+         }
+      }
+      return null;
+   }//end choose
+
+   private void checkAll () {
+      for (Replica replica : this._replicas) {
+         check (replica);
+      }
+   }//end checkAll
+
+   /*
+    * Measures a replica's lag and round trip time and decides whether it
+    * may serve reads.  A server that is not replaying WAL, or has replayed
+    * all it received, is not behind; otherwise the lag is the age of the
+    * last commit it replayed.  Only checks that succeed count towards the
+    * round trip time, so a timed out check does not skew it.
+    */
+   private void check (Replica replica) {
+      PooledConnection pc = null;
+      long lag = -1;
+      boolean answered = false;
+      long start = System.nanoTime ();
+      try {
+         pc = replica.pool.borrow ();
+         PreparedStatement ps = pc.statements ().prepare (Query.REPLICA_LAG_MS);
+         ResultSet rs = ps.executeQuery ();
+         try {
+            // null when the replica has replayed nothing yet.
+            if (rs.next () && rs.getString (1) != null) {
+               lag = rs.getLong (1);
+            }
+            answered = true;
+         } finally {
+            rs.close ();
+         }
+      } catch (SQLException e) {
+         if (pc != null) {
+            pc.markBroken ();
+         }
+      } finally {
+         if (pc != null) {
+            replica.pool.release (pc);
+         }
+      }//end try
+      if (answered) {
+         long nanos = System.nanoTime () - start;
+         replica.latencyNanos = replica.latencyNanos == 0 ? nanos
+                                                         : ALPHA * nanos + (1 - ALPHA) * replica.latencyNanos;
+      }
+      replica.lagMillis = lag;
+      replica.usable = lag >= 0 && lag <= this._maxLagMillis;
+   }//end check
+}//end ReplicaRouter
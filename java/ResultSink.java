@@ -0,0 +1,43 @@
+import java.io.IOException;
+
+/**
+ * Receives the rows of a query result one at a time, so results can be
+ * written out as they arrive from the server instead of being collected
+ * first.
+ *
+ */
+public interface ResultSink {
+
+   /**
+    * Called once before the first row with the result's column names.
+    *
+    * @param names the column labels, in order
+    * @throws java.io.IOException when the sink cannot be written
+    */
+   void columns (String[] names) throws IOException;
+
+   /**
+    * Called for each row.  The array is reused between calls, so a sink must
+    * copy any value it wants to keep.
+    *
+    * @param values the row's values as strings, null for SQL NULL
+    * @throws java.io.IOException when the sink cannot be written
+    */
+   void row (String[] values) throws IOException;
+
+   /**
+    * Called once after the last row.
+    *
+    * @param rowCount the number of rows delivered
+    * @throws java.io.IOException when the sink cannot be written
+    */
+   void finish (int rowCount) throws IOException;
+
+   /**
+    * Called after finish() when the result is one page of a longer listing.
+    *
+    * @param token the page token that continues the listing
+    * @throws java.io.IOException when the sink cannot be written
+    */
+   void nextPage (String token) throws IOException;
+}//end ResultSink
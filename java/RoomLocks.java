@@ -0,0 +1,58 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks that serialize bookings of the same room in this process.
+ * A room maps to one of a fixed number of locks by a hash of its hotel and
+ * room number, so bookings of different rooms almost never wait for each
+ * other and the number of locks does not grow with the number of rooms.
+ * Waits are recorded in the metrics, by room.
+ *
+ *    dbproject.roomLocks.stripes   number of locks, rounded up to a power of
+ *                                  two (default 1024)
+ *
+ */
+public class RoomLocks {
+
+   private final ReentrantLock[] _stripes;
+   private final int _mask;
+
+   /**
+    * @param stripes the number of locks, rounded up to a power of two
+    */
+   public RoomLocks (int stripes) {
+      int n = stripes <= 1 ? 1 : Integer.highestOneBit (stripes - 1) << 1;
+      this._stripes = new ReentrantLock[n];
+      for (int i = 0; i < n; ++i) {
+         this._stripes[i] = new ReentrantLock ();
+      }
+      this._mask = n - 1;
+   }//end RoomLocks
+
+   /**
+    * Locks a room, waiting for any other booking of a room on the same
+    * stripe to finish.
+    *
+    * @param metrics records the wait, if there was one
+    * @return the lock, to unlock once the booking is done
+    */
+   public ReentrantLock lock (int hotelid, int roomnum, Metrics metrics) {
+      ReentrantLock lock = this._stripes[stripe (hotelid, roomnum)];
+      if (!lock.tryLock ()) {
+         long start = System.nanoTime ();
+         lock.lock ();
+         metrics.roomLockWait (hotelid, roomnum, System.nanoTime () - start);
+      }
+      return lock;
+   }//end lock
+
+   private int stripe (int hotelid, int roomnum) {
+      // spread neighbouring rooms over the stripes (the murmur3 finalizer).
+      int h = hotelid * 0x9e3779b9 + roomnum;
+      h ^= h >>> 16;
+      h *= 0x85ebca6b;
+      h ^= h >>> 13;
+      h *= 0xc2b2ae35;
+      h ^= h >>> 16;
+      return h & this._mask;
+   }//end stripe
+}//end RoomLocks
@@ -0,0 +1,260 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs the statements that take longer than a threshold, with their bound
+ * parameters and the plan the server chooses for them.  The plan is captured
+ * on a background thread with a plain EXPLAIN on a connection of its own, so
+ * the slow call itself is not held up and the statement is not run again.
+ * Selects are explained on a replica when reads are routed to replicas.
+ *
+ * With dbproject.slowQuery.analyze set, EXPLAIN (ANALYZE, BUFFERS) is used
+ * instead, which runs the statement once more: inserts and updates are run
+ * on the primary inside a transaction that is rolled back, though they still
+ * take their row and index locks until then, and statements that call
+ * nextval() are only explained, not run, so keys are not used up.
+ *
+ * At most dbproject.slowQuery.perMinute entries are written a minute, with
+ * short bursts allowed; the entries skipped are counted in the next one.
+ * The log file is rotated when it grows past its size limit:
+ *
+ *    dbproject.slowQuery.thresholdMs  log statements slower than this; the
+ *                                     log is off unless it is set
+ *    dbproject.slowQuery.file         the log file (default slow_queries.log)
+ *    dbproject.slowQuery.perMinute    entries per minute (default 10)
+ *    dbproject.slowQuery.maxBytes     size before rotating (default 10MB)
+ *    dbproject.slowQuery.files        rotated files kept (default 5)
+ *    dbproject.slowQuery.analyze      run the statements to capture their
+ *                                     actual plans (default false)
+ *
+ */
+public class SlowQueryLog {
+
+   private final ConnectionPool _pool;
+   private final ReplicaRouter _replicas;
+   private final boolean _analyze;
+   private final long _thresholdNanos;
+   private final File _file;
+   private final long _maxBytes;
+   private final int _files;
+
+   // token bucket: up to _burst entries, refilled at _perMinute a minute.
+   private final double _perMinute;
+   private final double _burst;
+   private double _tokens;
+   private long _refilled = System.nanoTime ();
+   private final AtomicLong _skipped = new AtomicLong ();
+
+   private final ThreadPoolExecutor _explainer;
+
+   /**
+    * @param pool the pool the plans are captured on
+    * @param replicas the replicas selects are explained on, or null
+    * @param analyze true to run the statements with EXPLAIN ANALYZE
+    * @param thresholdMs statements at least this slow are logged
+    * @param file the log file
+    * @param perMinute the most entries written a minute
+    * @param maxBytes the size at which the file is rotated
+    * @param files how many rotated files are kept
+    */
+   public SlowQueryLog (ConnectionPool pool, ReplicaRouter replicas, boolean analyze, long thresholdMs,
+                        File file, int perMinute, long maxBytes, int files) {
+      this._pool = pool;
+      this._replicas = replicas;
+      this._analyze = analyze;
+      this._thresholdNanos = TimeUnit.MILLISECONDS.toNanos (thresholdMs);
+      this._file = file;
+      this._perMinute = perMinute;
+      this._burst = Math.max (1, perMinute);
+      this._tokens = this._burst;
+      this._maxBytes = maxBytes;
+      this._files = files;
+      // a full queue drops the entry; the rate limit keeps that rare.
+      this._explainer = new ThreadPoolExecutor (1, 1, 0L, TimeUnit.MILLISECONDS,
+                                                new ArrayBlockingQueue<Runnable> (100),
+                                                new ThreadFactory () {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread (r, "slow-query-log");
+            t.setDaemon (true);
+            return t;
+         }
+      }, new ThreadPoolExecutor.DiscardPolicy ());
+   }//end SlowQueryLog
+
+   /**
+    * Creates the log from the dbproject.slowQuery.* system properties.
+    *
+    * @return the log, or null when dbproject.slowQuery.thresholdMs is not set
+    */
+   public static SlowQueryLog fromProperties (ConnectionPool pool, ReplicaRouter replicas) {
+      Long threshold = Long.getLong ("dbproject.slowQuery.thresholdMs");
+      if (threshold == null) {
+         return null;
+      }
+      return new SlowQueryLog (pool, replicas, Boolean.getBoolean ("dbproject.slowQuery.analyze"), threshold,
+                               new File (System.getProperty ("dbproject.slowQuery.file", "slow_queries.log")),
+                               Integer.getInteger ("dbproject.slowQuery.perMinute", 10),
+                               Long.getLong ("dbproject.slowQuery.maxBytes", 10L * 1024 * 1024),
+                               Integer.getInteger ("dbproject.slowQuery.files", 5));
+   }//end fromProperties
+
+   /**
+    * Logs a statement if it took at least the threshold and the rate limit
+    * allows another entry.
+    *
+    * @param nanos how long the statement took
+    * @param rows the rows it returned or changed, negative if it failed
+    */
+   public void record (final Query query, final Object[] params, final long nanos, final int rows) {
+      if (nanos < this._thresholdNanos) {
+         return;
+      }
+      if (!acquire ()) {
+         this._skipped.incrementAndGet ();
+         return;
+      }
+      final Date when = new Date ();
+      this._explainer.execute (new Runnable () {
+         public void run () {
+            write (when, query, params, nanos, rows, explain (query, params));
+         }
+      });
+   }//end record
+
+   /**
+    * Stops capturing plans, waiting briefly for the entries in progress.
+    */
+   public void close () {
+      this._explainer.shutdown ();
+      try {
+         this._explainer.awaitTermination (5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread ().interrupt ();
+      }
+   }//end close
+
+   private synchronized boolean acquire () {
+      long now = System.nanoTime ();
+      this._tokens = Math.min (this._burst, this._tokens + (now - this._refilled) / 60e9 * this._perMinute);
+      this._refilled = now;
+      if (this._tokens < 1) {
+         return false;
+      }
+      this._tokens -= 1;
+      return true;
+   }//end acquire
+
+   /*
+    * Returns the statement's plan, or why there is none.
+    */
+   private String explain (Query query, Object[] params) {
+      String sql = query.sql ();
+      boolean write = !sql.trim ().toUpperCase ().startsWith ("SELECT");
+      boolean analyze = this._analyze && !sql.contains ("nextval");
+      StringBuilder plan = new StringBuilder ();
+      PooledConnection pc = null;
+      try {
+         pc = this._replicas != null && !write ? this._replicas.borrow (this._pool) : this._pool.borrow ();
+         Connection conn = pc.connection ();
+         if (write && analyze) {
+            conn.setAutoCommit (false);
+         }
+         try {
+            PreparedStatement ps = conn.prepareStatement (
+               (analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql);
+            try {
+               Params.bind (ps, params);
+               ResultSet rs = ps.executeQuery ();
+               while (rs.next ()) {
+                  plan.append ("    ").append (rs.getString (1)).append ('\n');
+               }
+               rs.close ();
+            } finally {
+               ps.close ();
+            }
+         } finally {
+            if (write && analyze) {
+               conn.rollback ();
+               conn.setAutoCommit (true);
+            }
+         }//end try
+      } catch (SQLException e) {
+         if (pc != null && e.getSQLState () != null && e.getSQLState ().startsWith ("08")) {
+            pc.markBroken ();
+         }
+         plan.append ("    (no plan: ").append (e.getMessage ()).append (")\n");
+      } finally {
+         if (pc != null) {
+            pc.pool ().release (pc);
+         }
+      }//end try
+      return plan.toString ();
+   }//end explain
+
+   private synchronized void write (Date when, Query query, Object[] params, long nanos, int rows,
+                                    String plan) {
+      StringBuilder entry = new StringBuilder ();
+      entry.append (new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss.SSS").format (when))
+           .append (String.format (Locale.ROOT, " %.1f ms ", nanos / 1e6)).append (query)
+           .append (rows < 0 ? " failed" : " rows=" + rows);
+      long skipped = this._skipped.getAndSet (0);
+      if (skipped > 0) {
+         entry.append (" (").append (skipped).append (" slow statements not logged)");
+      }
+      entry.append ("\n  sql: ").append (query.sql ())
+           .append ("\n  params: ").append (Arrays.toString (params))
+           .append ("\n  plan:\n").append (plan).append ('\n');
+      try {
+         rotate ();
+         Writer out = new FileWriter (this._file, true);
+         try {
+            out.write (entry.toString ());
+         } finally {
+            out.close ();
+         }
+      } catch (IOException e) {
+         System.err.println ("Unable to write the slow query log " + this._file + ": " + e.getMessage ());
+      }//end try
+   }//end write
+
+   /*
+    * Renames file to file.1, file.1 to file.2 and so on once the file is
+    * full, dropping the oldest.
+    */
+   private void rotate () throws IOException {
+      if (this._file.length () < this._maxBytes) {
+         return;
+      }
+      File oldest = new File (this._file.getPath () + "." + this._files);
+      if (oldest.exists () && !oldest.delete ()) {
+         throw new IOException ("cannot delete " + oldest);
+      }
+      for (int i = this._files - 1; i >= 1; --i) {
+         File from = new File (this._file.getPath () + "." + i);
+         if (from.exists () && !from.renameTo (new File (this._file.getPath () + "." + (i + 1)))) {
+            throw new IOException ("cannot rename " + from);
+         }
+      }
+      if (this._files > 0 && !this._file.renameTo (new File (this._file.getPath () + ".1"))) {
+         throw new IOException ("cannot rename " + this._file);
+      }
+      if (this._files == 0 && !this._file.delete ()) {
+         throw new IOException ("cannot delete " + this._file);
+      }
+   }//end rotate
+}//end SlowQueryLog
@@ -0,0 +1,134 @@
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A per-connection LRU cache of prepared statements keyed by Query.  When the
+ * cache is full the least recently used statement is closed.  A connection is
+ * only ever used by one thread at a time, so the cache is not synchronized.
+ *
+ * pg73jdbc3 interpolates parameters on the client unless a statement is
+ * switched to server-side prepare, which parses and plans it once per
+ * connection; the cache does that through PGStatement when the driver has
+ * it.  Newer drivers prepare on the server on their own.
+ *
+ * The capacity is read from the dbproject.statementCache.size system property
+ * (default: the number of Query constants, so nothing is evicted).
+ *
+ */
+public class StatementCache {
+
+   // PGStatement.setUseServerPrepare, or null when the driver has none.
+   private static final Class<?> PG_STATEMENT;
+   private static final Method USE_SERVER_PREPARE;
+
+   static {
+      Class<?> type = null;
+      Method method = null;
+      try {
+         type = Class.forName ("org.postgresql.PGStatement");
+         method = type.getMethod ("setUseServerPrepare", boolean.class);
+      } catch (Exception e) {
+         type = null;
+         method = null;
+      }
+      PG_STATEMENT = type;
+      USE_SERVER_PREPARE = method;
+   }
+
+   private final Connection _connection;
+   private final LinkedHashMap<Query, PreparedStatement> _statements;
+
+   // usage metrics.
+   private long _hits = 0;
+   private long _misses = 0;
+
+   public StatementCache (Connection connection) {
+      this (connection, Integer.getInteger ("dbproject.statementCache.size", Query.values ().length));
+   }//end StatementCache
+
+   public StatementCache (Connection connection, final int capacity) {
+      this._connection = connection;
+      this._statements = new LinkedHashMap<Query, PreparedStatement> (16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<Query, PreparedStatement> eldest) {
+            if (size () > capacity) {
+               closeQuietly (eldest.getValue ());
+               return true;
+            }
+            return false;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the cached statement for a query, preparing it on first use.
+    * Callers must not close the returned statement.
+    *
+    * @param query the statement to prepare
+    * @return the prepared statement with its parameters cleared
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare (Query query) throws SQLException {
+      PreparedStatement ps = this._statements.get (query);
+      if (ps != null) {
+         ++this._hits;
+         ps.clearParameters ();
+         return ps;
+      }
+      ++this._misses;
+      ps = this._connection.prepareStatement (query.sql ());
+      useServerPrepare (ps);
+      this._statements.put (query, ps);
+      return ps;
+   }//end prepare
+
+   /**
+    * Drops a statement from the cache, e.g. after it failed to execute.
+    *
+    * @param query the statement to drop
+    */
+   public void evict (Query query) {
+      closeQuietly (this._statements.remove (query));
+   }//end evict
+
+   /**
+    * Closes every cached statement.
+    */
+   public void close () {
+      for (PreparedStatement ps : this._statements.values ()) {
+         closeQuietly (ps);
+      }
+      this._statements.clear ();
+   }//end close
+
+   public long hits () {
+      return this._hits;
+   }//end hits
+
+   public long misses () {
+      return this._misses;
+   }//end misses
+
+   private static void useServerPrepare (PreparedStatement ps) {
+      if (USE_SERVER_PREPARE != null && PG_STATEMENT.isInstance (ps)) {
+         try {
+            USE_SERVER_PREPARE.invoke (ps, Boolean.TRUE);
+         } catch (Exception e) {
+            // the statement is still usable, prepared on the client.
+         }//end try
+      }
+   }//end useServerPrepare
+
+   private static void closeQuietly (PreparedStatement ps) {
+      if (ps != null) {
+         try {
+            ps.close ();
+         } catch (SQLException e) {
+            // ignored.
+         }//end try
+      }
+   }//end closeQuietly
+}//end StatementCache
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes results as tab separated text, the format the menu has always
+ * printed: a header line of column names followed by one line per row, each
+ * value followed by a tab.  Nothing is printed for an empty result.
+ *
+ * Output goes through one large buffer that is reused across results.  The
+ * buffer is flushed after the first row, so it shows up promptly, and then
+ * only when it fills or the result ends.
+ *
+ */
+public class TabularResultSink implements ResultSink {
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private final Writer _out;
+   private final char[] _buffer = new char[BUFFER_SIZE];
+   private int _length = 0;
+
+   private String[] _names;
+   private boolean _headerWritten;
+
+   public TabularResultSink (OutputStream out) {
+      this._out = new OutputStreamWriter (out);
+   }//end TabularResultSink
+
+   public void columns (String[] names) {
+      this._names = names;
+      this._headerWritten = false;
+   }//end columns
+
+   public void row (String[] values) throws IOException {
+      boolean first = !this._headerWritten;
+      if (first) {
+         writeLine (this._names);
+         this._headerWritten = true;
+      }
+      writeLine (values);
+      if (first) {
+         flush ();
+      }
+   }//end row
+
+   public void finish (int rowCount) throws IOException {
+      flush ();
+      this._names = null;
+   }//end finish
+
+   public void nextPage (String token) throws IOException {
+      append ("More rows follow; page token: ");
+      append (token);
+      append ('\n');
+      flush ();
+   }//end nextPage
+
+   private void writeLine (String[] values) throws IOException {
+      for (int i = 0; i < values.length; ++i) {
+         append (String.valueOf (values[i]));
+         append ('\t');
+      }
+      append ('\n');
+   }//end writeLine
+
+   private void append (String s) throws IOException {
+      int offset = 0;
+      int remaining = s.length ();
+      while (remaining > 0) {
+         if (this._length == this._buffer.length) {
+            drain ();
+         }
+         int n = Math.min (remaining, this._buffer.length - this._length);
+         s.getChars (offset, offset + n, this._buffer, this._length);
+         this._length += n;
+         offset += n;
+         remaining -= n;
+      }//end while
+   }//end append
+
+   private void append (char c) throws IOException {
+      if (this._length == this._buffer.length) {
+         drain ();
+      }
+      this._buffer[this._length++] = c;
+   }//end append
+
+   private void drain () throws IOException {
+      this._out.write (this._buffer, 0, this._length);
+      this._length = 0;
+   }//end drain
+
+   private void flush () throws IOException {
+      drain ();
+      this._out.flush ();
+   }//end flush
+}//end TabularResultSink
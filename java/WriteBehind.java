@@ -0,0 +1,474 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queues the high-volume inserts (bookings, repairs, cleaning assignments
+ * and repair requests) and writes them from a background thread, many to a
+ * transaction, so they share one commit and one WAL flush instead of paying
+ * for one each.  The writer starts a batch with the first queued insert and
+ * commits it once it holds batchSize inserts or flushMs have passed.
+ * Consecutive inserts into the same table go to the server as one JDBC
+ * batch, and the order of the inserts is kept.  If a batch fails, its inserts
+ * are retried one at a time so that only the failing ones are lost.
+ *
+ * In enqueue mode a write returns as soon as it is queued; a failure found
+ * at commit is logged and counted, and reads may not see the write yet.
+ * Bookings are not queued in enqueue mode: a double booking is only caught
+ * when it commits, after its room lock is released, so the clerk would be
+ * told it succeeded.  In commit mode a write returns once its batch has
+ * committed, with its own error if it failed, and concurrent writers share
+ * the commit.  Either way, the in-memory indexes are updated after the
+ * commit.  When the queue is full, writers wait for room, and in commit mode
+ * for the commit, up to maxWaitMs each.  A commit mode write that times out
+ * while still queued is taken out of the queue and fails; one the writer is
+ * already writing cannot be stopped, so it is acknowledged as pending, and
+ * its after-commit actions still run if it commits:
+ *
+ *    dbproject.writeBehind            off, enqueue or commit (default off)
+ *    dbproject.writeBehind.queueSize  queued inserts (default 10000)
+ *    dbproject.writeBehind.batchSize  inserts per commit (default 500)
+ *    dbproject.writeBehind.flushMs    longest wait to fill a batch (default 10)
+ *    dbproject.writeBehind.maxWaitMs  longest wait (default 30000)
+ *
+ */
+public class WriteBehind {
+
+   /**
+    * When a write is acknowledged.
+    */
+   public enum Mode { ENQUEUE, COMMIT }
+
+   // the statements that may be queued.
+   private static final Set<Query> WRITES =
+      EnumSet.of (Query.BOOK_ROOM, Query.ADD_REPAIR, Query.ASSIGN_HOUSE_CLEANING, Query.REPAIR_REQUEST);
+
+   private final ConnectionPool _pool;
+   private final Mode _mode;
+   private final Set<Query> _writes;
+   private final BlockingQueue<Write> _queue;
+   private final int _batchSize;
+   private final long _flushNanos;
+   private final long _maxWaitMillis;
+   private final Thread _writer;
+   private volatile boolean _closed = false;
+
+   // usage metrics.
+   private final AtomicLong _queued = new AtomicLong ();
+   private final AtomicLong _committed = new AtomicLong ();
+   private final AtomicLong _failed = new AtomicLong ();
+   private final AtomicLong _rejected = new AtomicLong ();
+   private final AtomicLong _pending = new AtomicLong ();
+   private final AtomicLong _batches = new AtomicLong ();
+   private final AtomicLong _retried = new AtomicLong ();
+   private final AtomicLong _maxWaitNanos = new AtomicLong ();
+
+   /**
+    * One queued insert.
+    */
+   public static class Write {
+      private final Query _query;
+      private final Object[] _params;
+      private final CountDownLatch _committed = new CountDownLatch (1);
+      private final List<Runnable> _afterCommit = new ArrayList<Runnable> ();
+      private final List<Runnable> _afterFailure = new ArrayList<Runnable> ();
+      private boolean _done = false;
+      // acknowledged before it committed, so a failure is only logged.
+      private volatile boolean _pending = false;
+      private SQLException _error;
+
+      Write (Query query, Object[] params) {
+         this._query = query;
+         this._params = params;
+      }
+
+      /**
+       * Runs an action once the insert has committed, or drops it if the
+       * insert failed.
+       */
+      public void afterCommit (Runnable action) {
+         synchronized (this) {
+            if (!this._done) {
+               this._afterCommit.add (action);
+               return;
+            }
+            if (this._error != null) {
+               return;
+            }
+         }
+         action.run ();
+      }//end afterCommit
+
+      /**
+       * Runs an action if the insert fails, or drops it once it committed.
+       */
+      public void afterFailure (Runnable action) {
+         synchronized (this) {
+            if (!this._done) {
+               this._afterFailure.add (action);
+               return;
+            }
+            if (this._error == null) {
+               return;
+            }
+         }
+         action.run ();
+      }//end afterFailure
+
+      /**
+       * @return true if the insert was acknowledged before it committed
+       */
+      public boolean pending () {
+         return this._pending;
+      }//end pending
+
+      void complete (SQLException error) {
+         List<Runnable> actions;
+         synchronized (this) {
+            if (this._done) {
+               return;
+            }
+            this._done = true;
+            this._error = error;
+            actions = new ArrayList<Runnable> (error == null ? this._afterCommit : this._afterFailure);
+            this._afterCommit.clear ();
+            this._afterFailure.clear ();
+         }
+         try {
+            for (Runnable action : actions) {
+               try {
+                  action.run ();
+               } catch (RuntimeException e) {
+                  // only an in-memory index missed the outcome.
+                  System.err.println ("Write-behind: an action after " + this._query + " failed: " + e);
+               }//end try
+            }
+         } finally {
+            this._committed.countDown ();
+         }//end try
+      }//end complete
+
+      /*
+       * Waits for the insert to commit.
+       *
+       * @return false if it has not completed in time
+       */
+      boolean await (long timeoutMillis) throws SQLException {
+         try {
+            if (!this._committed.await (timeoutMillis, TimeUnit.MILLISECONDS)) {
+               return false;
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread ().interrupt ();
+            throw new SQLException ("Interrupted while waiting for a queued write to commit");
+         }//end try
+         SQLException error;
+         synchronized (this) {
+            error = this._error;
+         }
+         if (error != null) {
+            // a new exception, so the stack trace is the caller's.
+            throw new SQLException (error.getMessage (), error.getSQLState ());
+         }
+         return true;
+      }//end await
+   }//end Write
+
+   /**
+    * @param pool the pool the writer borrows its connection from
+    * @param mode when a write is acknowledged
+    * @param queueSize the most queued inserts
+    * @param batchSize the most inserts per commit
+    * @param flushMillis the longest wait to fill a batch
+    * @param maxWaitMillis the longest wait for room in the queue
+    */
+   public WriteBehind (ConnectionPool pool, Mode mode, int queueSize, int batchSize, long flushMillis,
+                       long maxWaitMillis) {
+      if (queueSize <= 0 || batchSize <= 0) {
+         throw new IllegalArgumentException ("Queue and batch sizes must be positive: " + queueSize +
+                                             ", " + batchSize);
+      }
+      this._pool = pool;
+      this._mode = mode;
+      this._writes = EnumSet.copyOf (WRITES);
+      if (mode == Mode.ENQUEUE) {
+         this._writes.remove (Query.BOOK_ROOM);
+      }
+      this._queue = new ArrayBlockingQueue<Write> (queueSize);
+      this._batchSize = batchSize;
+      this._flushNanos = TimeUnit.MILLISECONDS.toNanos (flushMillis);
+      this._maxWaitMillis = maxWaitMillis;
+      this._writer = new Thread (new Runnable () {
+         public void run () {
+            drain ();
+         }
+      }, "write-behind");
+      this._writer.setDaemon (true);
+      this._writer.start ();
+   }//end WriteBehind
+
+   /**
+    * Creates the queue from the dbproject.writeBehind.* system properties.
+    *
+    * @return the queue, or null when dbproject.writeBehind is off
+    */
+   public static WriteBehind fromProperties (ConnectionPool pool) {
+      String mode = System.getProperty ("dbproject.writeBehind", "off").trim ();
+      if (mode.equalsIgnoreCase ("off")) {
+         return null;
+      }
+      if (!mode.equalsIgnoreCase ("enqueue") && !mode.equalsIgnoreCase ("commit")) {
+         throw new IllegalArgumentException ("dbproject.writeBehind must be off, enqueue or commit: " + mode);
+      }
+      return new WriteBehind (pool, mode.equalsIgnoreCase ("enqueue") ? Mode.ENQUEUE : Mode.COMMIT,
+                              Integer.getInteger ("dbproject.writeBehind.queueSize", 10000),
+                              Integer.getInteger ("dbproject.writeBehind.batchSize", 500),
+                              Long.getLong ("dbproject.writeBehind.flushMs", 10L),
+                              Long.getLong ("dbproject.writeBehind.maxWaitMs", 30000L));
+   }//end fromProperties
+
+   /**
+    * @return true if a statement may be queued; bookings only are in commit
+    *         mode
+    */
+   public boolean handles (Query query) {
+      return this._writes.contains (query);
+   }//end handles
+
+   /**
+    * Queues an insert, waiting for room if the queue is full, and in commit
+    * mode waits for it to commit.
+    *
+    * @param params the values bound to the statement's placeholders
+    * @return the queued insert; in commit mode it has committed unless it
+    *         is pending()
+    * @throws java.sql.SQLException when there is no room in time, or in
+    *         commit mode when the insert failed or timed out while queued
+    */
+   public Write submit (Query query, Object[] params) throws SQLException {
+      if (this._closed) {
+         throw new SQLException ("The write queue is closed");
+      }
+      Write write = new Write (query, params);
+      long start = System.nanoTime ();
+      try {
+         if (!this._queue.offer (write, this._maxWaitMillis, TimeUnit.MILLISECONDS)) {
+            this._rejected.incrementAndGet ();
+            throw new SQLException ("Timed out after " + this._maxWaitMillis +
+                                    "ms waiting for room in the write queue");
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread ().interrupt ();
+         throw new SQLException ("Interrupted while waiting for room in the write queue");
+      }//end try
+      recordWait (System.nanoTime () - start);
+      this._queued.incrementAndGet ();
+      if (this._mode == Mode.COMMIT && !write.await (this._maxWaitMillis)) {
+         SQLException timedOut = new SQLException ("Timed out after " + this._maxWaitMillis +
+                                                   "ms waiting for a queued write to commit; it was not written");
+         if (this._queue.remove (write)) {
+            this._rejected.incrementAndGet ();
+            write.complete (timedOut);
+            throw timedOut;
+         }
+         // the writer holds it and may still commit it.
+         write._pending = true;
+         if (write.await (0)) {
+            write._pending = false;
+         } else {
+            this._pending.incrementAndGet ();
+            System.err.println ("Write-behind: " + query + " " + Arrays.toString (params) +
+                                " is acknowledged before its commit, which took over " +
+                                this._maxWaitMillis + "ms");
+         }
+      }
+      return write;
+   }//end submit
+
+   /**
+    * Stops taking writes and waits for the queued ones to commit.
+    */
+   public void close () {
+      this._closed = true;
+      try {
+         this._writer.join (this._maxWaitMillis);
+      } catch (InterruptedException e) {
+         Thread.currentThread ().interrupt ();
+      }//end try
+      if (!this._queue.isEmpty ()) {
+         System.err.println ("Write-behind: " + this._queue.size () + " queued writes were not written");
+      }
+   }//end close
+
+   /**
+    * @return a one line summary of the queue
+    */
+   public String stats () {
+      long batches = this._batches.get ();
+      return String.format (Locale.ROOT,
+         "write-behind(%s): queued=%d committed=%d failed=%d rejected=%d pending=%d depth=%d batches=%d " +
+         "avgBatch=%.1f retried=%d maxWait=%.3fms",
+         this._mode.name ().toLowerCase (), this._queued.get (), this._committed.get (),
+         this._failed.get (), this._rejected.get (), this._pending.get (), this._queue.size (), batches,
+         batches == 0 ? 0.0 : (this._committed.get () + this._failed.get ()) / (double) batches,
+         this._retried.get (), this._maxWaitNanos.get () / 1e6);
+   }//end stats
+
+   /*
+    * The writer: takes a batch at a time until closed and empty.
+    */
+   private void drain () {
+      List<Write> batch = new ArrayList<Write> (this._batchSize);
+      while (true) {
+         Write first;
+         try {
+            first = this._queue.poll (100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+               if (this._closed && this._queue.isEmpty ()) {
+                  return;
+               }
+               continue;
+            }
+            batch.add (first);
+            long deadline = System.nanoTime () + this._flushNanos;
+            while (batch.size () < this._batchSize) {
+               long wait = deadline - System.nanoTime ();
+               Write next = wait > 0 ? this._queue.poll (wait, TimeUnit.NANOSECONDS) : this._queue.poll ();
+               if (next == null) {
+                  break;
+               }
+               batch.add (next);
+            }//end while
+         } catch (InterruptedException e) {
+            // only close() stops the writer.
+            continue;
+         }//end try
+         this._batches.incrementAndGet ();
+         try {
+            if (!writeBatch (batch)) {
+               this._retried.addAndGet (batch.size ());
+               for (Write write : batch) {
+                  writeOne (write);
+               }
+            }
+         } catch (RuntimeException e) {
+            // fail what is left of the batch rather than the writer, so no
+            // caller waits for it forever.
+            System.err.println ("Write-behind: writing a batch failed: " + e);
+            for (Write write : batch) {
+               write.complete (new SQLException ("The write-behind writer failed: " + e));
+            }
+         } finally {
+            batch.clear ();
+         }//end try
+      }//end while
+   }//end drain
+
+   /*
+    * Writes a batch in one transaction.
+    *
+    * @return false if the batch was rolled back
+    */
+   private boolean writeBatch (List<Write> batch) {
+      PooledConnection pc = null;
+      try {
+         pc = this._pool.borrow ();
+         Connection conn = pc.connection ();
+         conn.setAutoCommit (false);
+         try {
+            int i = 0;
+            while (i < batch.size ()) {
+               Query query = batch.get (i)._query;
+               PreparedStatement ps = pc.statements ().prepare (query);
+               try {
+                  for (; i < batch.size () && batch.get (i)._query == query; ++i) {
+                     Params.bind (ps, batch.get (i)._params);
+                     ps.addBatch ();
+                  }
+                  ps.executeBatch ();
+               } catch (SQLException e) {
+                  pc.statements ().evict (query);
+                  throw e;
+               }//end try
+            }//end while
+            conn.commit ();
+         } catch (SQLException e) {
+            conn.rollback ();
+            throw e;
+         } finally {
+            conn.setAutoCommit (true);
+         }//end try
+      } catch (SQLException e) {
+         broken (pc, e);
+         return false;
+      } finally {
+         if (pc != null) {
+            this._pool.release (pc);
+         }
+      }//end try
+      this._committed.addAndGet (batch.size ());
+      for (Write write : batch) {
+         write.complete (null);
+      }
+      return true;
+   }//end writeBatch
+
+   /*
+    * Writes one insert on its own.
+    */
+   private void writeOne (Write write) {
+      PooledConnection pc = null;
+      SQLException error = null;
+      try {
+         pc = this._pool.borrow ();
+         PreparedStatement ps = pc.statements ().prepare (write._query);
+         Params.bind (ps, write._params);
+         ps.executeUpdate ();
+      } catch (SQLException e) {
+         if (pc != null) {
+            pc.statements ().evict (write._query);
+         }
+         broken (pc, e);
+         error = e;
+      } finally {
+         if (pc != null) {
+            this._pool.release (pc);
+         }
+      }//end try
+      if (error == null) {
+         this._committed.incrementAndGet ();
+      } else {
+         this._failed.incrementAndGet ();
+         if (this._mode == Mode.ENQUEUE || write._pending) {
+            System.err.println ("Write-behind: " + write._query + " " + Arrays.toString (write._params) +
+                                " failed: " + error.getMessage ());
+         }
+      }
+      write.complete (error);
+   }//end writeOne
+
+   private static void broken (PooledConnection pc, SQLException e) {
+      if (pc != null && e.getSQLState () != null && e.getSQLState ().startsWith ("08")) {
+         pc.markBroken ();
+      }
+   }//end broken
+
+   private void recordWait (long nanos) {
+      long max;
+      while (nanos > (max = this._maxWaitNanos.get ())
+             && !this._maxWaitNanos.compareAndSet (max, nanos)) {
+         // retry until the maximum reflects this wait.
+      }
+   }//end recordWait
+}//end WriteBehind
@@ -9,6 +9,20 @@ DROP TABLE IF EXISTS Booking CASCADE;
 DROP TABLE IF EXISTS Repair CASCADE;
 DROP TABLE IF EXISTS Request CASCADE;
 DROP TABLE IF EXISTS Assigned CASCADE;
+DROP TABLE IF EXISTS CompanyRepairCount CASCADE;
+DROP TABLE IF EXISTS RoomRepairYear CASCADE;
+DROP TABLE IF EXISTS BookingChange CASCADE;
+DROP TABLE IF EXISTS BookingChangeHorizon CASCADE;
+DROP FUNCTION IF EXISTS countRepair() CASCADE;
+DROP FUNCTION IF EXISTS logBookingChange() CASCADE;
+DROP FUNCTION IF EXISTS logRoomChange() CASCADE;
+DROP FUNCTION IF EXISTS pruneBookingChanges(INTERVAL) CASCADE;
+DROP FUNCTION IF EXISTS addMonthPartition(TEXT, TEXT, DATE) CASCADE;
+
+-- The below sql statements drops of the key sequences if they exist
+DROP SEQUENCE IF EXISTS booking_seq;
+DROP SEQUENCE IF EXISTS assigned_seq;
+DROP SEQUENCE IF EXISTS request_seq;
 
 -- The below sql statements drops of the enum types if they exits
 DROP TYPE IF EXISTS StaffRole CASCADE;
@@ -57,7 +71,8 @@ CREATE TABLE Booking( bID Numeric NOT NULL,
 					  bookingDate Date NOT NULL,
 					  noOfPeople Numeric,
 					  price Numeric(6,2) NOT NULL,
-					  PRIMARY KEY(bID));
+					  PRIMARY KEY(bID, bookingDate))
+PARTITION BY RANGE (bookingDate);
 					  
 CREATE TABLE Repair( rID Numeric NOT NULL,
 					 hotelID Numeric NOT NULL DEFAULT 0,
@@ -81,6 +96,62 @@ CREATE TABLE Assigned( asgID Numeric NOT NULL,
 					   roomNo Numeric NOT NULL DEFAULT 0,
 					   PRIMARY KEY(asgID));
 
+-- The below sql statements partition Booking by month, so reports bounded by
+-- date only scan the months they cover. Dates outside every month partition go
+-- to the default partition. Partitioned tables can only enforce keys that
+-- include the partition key, so bID is unique through booking_seq and the Java
+-- client's key checks. Repair is left a plain table: its reports read the
+-- summary tables below, and its primary key keeps rID unique for Request.
+CREATE TABLE Booking_default PARTITION OF Booking DEFAULT;
+
+-- Adds the partition for the month holding the given day, moving any rows of
+-- that month out of the default partition first. PartitionManager calls it to
+-- create partitions ahead of time. Returns false if the partition exists.
+CREATE FUNCTION addMonthPartition(parent TEXT, keyColumn TEXT, day DATE) RETURNS BOOLEAN AS $$
+DECLARE
+	tbl TEXT := lower(parent);
+	monthStart DATE := date_trunc('month', day);
+	monthEnd DATE := date_trunc('month', day) + INTERVAL '1 month';
+	part TEXT := lower(parent) || '_' || to_char(day, 'YYYY_MM');
+	moved BOOLEAN;
+BEGIN
+	IF to_regclass(part) IS NOT NULL THEN
+		RETURN FALSE;
+	END IF;
+	EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', part, tbl);
+	EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE %I >= %L AND %I < %L)',
+				   tbl || '_default', keyColumn, monthStart, keyColumn, monthEnd) INTO moved;
+	IF moved THEN
+		-- the rows are deleted and inserted again, so any row triggers see
+		-- both and the counts they keep do not change.
+		EXECUTE format('CREATE TEMP TABLE movedRows ON COMMIT DROP AS SELECT * FROM %I WHERE FALSE', tbl);
+		EXECUTE format('WITH monthRows AS (DELETE FROM %I WHERE %I >= %L AND %I < %L RETURNING *) INSERT INTO movedRows SELECT * FROM monthRows',
+					   tbl || '_default', keyColumn, monthStart, keyColumn, monthEnd);
+	END IF;
+	EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)', tbl, part, monthStart, monthEnd);
+	IF moved THEN
+		EXECUTE format('INSERT INTO %I SELECT * FROM movedRows', tbl);
+		DROP TABLE movedRows;
+	END IF;
+	RETURN TRUE;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The below sql statements create the month partitions from January 2000, the
+-- first month of the shipped data and of DataGenerator's default range, to 12
+-- months after the current one before the data is copied, so the rows go
+-- straight to their partitions. Rows outside that range land in the default
+-- partition and are moved out after the copy.
+DO $$
+DECLARE
+	monthStart DATE;
+BEGIN
+	FOR monthStart IN SELECT generate_series(DATE '2000-01-01', date_trunc('month', now()) + INTERVAL '12 months', INTERVAL '1 month') LOOP
+		PERFORM addMonthPartition('Booking', 'bookingDate', monthStart);
+	END LOOP;
+END;
+$$;
+
 -- The below sql statments creates necessary Foreign Key Constraints on the above created tables
 ALTER TABLE Hotel
 ADD CONSTRAINT managerConstraint
@@ -227,5 +298,166 @@ COPY Assigned(asgID,
 			  hotelID,
 			  roomNo)
 FROM 'assigned.csv'
-WITH DELIMITER ',';		
-	
\ No newline at end of file
+WITH DELIMITER ',';
+
+-- The below sql statements create the partitions of the months that were
+-- copied into the default partition, moving their rows out of it. Only
+-- bookings dated outside the months created before the copy are moved.
+DO $$
+DECLARE
+	monthStart DATE;
+BEGIN
+	FOR monthStart IN SELECT DISTINCT date_trunc('month', bookingDate) FROM Booking_default LOOP
+		PERFORM addMonthPartition('Booking', 'bookingDate', monthStart);
+	END LOOP;
+END;
+$$;
+
+-- The below sql statements create the sequences new keys are allocated from.
+-- Each nextval() reserves a block of INCREMENT BY keys for one client; the
+-- Java client reads the increment from pg_sequence at startup, so it can be
+-- changed here alone. The sequences start one block past the largest loaded
+-- key.
+CREATE SEQUENCE booking_seq INCREMENT BY 50;
+CREATE SEQUENCE assigned_seq INCREMENT BY 50;
+CREATE SEQUENCE request_seq INCREMENT BY 50;
+
+SELECT setval('booking_seq', CAST(COALESCE(MAX(bID), 0) + 50 AS BIGINT), false) FROM Booking;
+SELECT setval('assigned_seq', CAST(COALESCE(MAX(asgID), 0) + 50 AS BIGINT), false) FROM Assigned;
+SELECT setval('request_seq', CAST(COALESCE(MAX(reqID), 0) + 50 AS BIGINT), false) FROM Request;
+
+-- The below sql statements make a room bookable once a day. Loaded data that
+-- books a room twice on a day is rejected, listing the first conflicts, rather
+-- than changed to fit. The constraint includes the partition key, so it is
+-- enforced across every month partition.
+DO $$
+DECLARE
+	conflicts TEXT;
+BEGIN
+	SELECT string_agg(format('hotel %s room %s on %s: bookings %s', hotelID, roomNo, bookingDate, bIDs), E'\n')
+	INTO conflicts
+	FROM (SELECT hotelID, roomNo, bookingDate, string_agg(CAST(bID AS TEXT), ', ' ORDER BY bID) AS bIDs
+		  FROM Booking
+		  GROUP BY hotelID, roomNo, bookingDate
+		  HAVING COUNT(*) > 1
+		  ORDER BY hotelID, roomNo, bookingDate
+		  LIMIT 20) D;
+	IF conflicts IS NOT NULL THEN
+		RAISE EXCEPTION 'booking.csv books a room more than once a day'
+		USING ERRCODE = 'unique_violation', DETAIL = conflicts;
+	END IF;
+END;
+$$;
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingRoomDateUnique
+UNIQUE (hotelID, roomNo, bookingDate);
+
+-- The below sql statements create the repair summary tables the maintenance
+-- reports read, fill them from the loaded repairs, and keep them current
+-- with a trigger on Repair. Every repair added for a company updates that
+-- company's single CompanyRepairCount row, so concurrent repairs for the same
+-- company wait on its row lock until the first one commits.
+CREATE TABLE CompanyRepairCount( cmpID Numeric NOT NULL,
+								 repairs Numeric NOT NULL DEFAULT 0,
+								 PRIMARY KEY(cmpID));
+
+CREATE TABLE RoomRepairYear( hotelID Numeric NOT NULL,
+							 roomNo Numeric NOT NULL,
+							 year Numeric NOT NULL,
+							 repairs Numeric NOT NULL DEFAULT 0,
+							 PRIMARY KEY(hotelID, roomNo, year));
+
+INSERT INTO CompanyRepairCount
+SELECT mCompany, COUNT(*) FROM Repair GROUP BY mCompany;
+
+INSERT INTO RoomRepairYear
+SELECT hotelID, roomNo, DATE_PART('year', repairDate), COUNT(*)
+FROM Repair
+GROUP BY hotelID, roomNo, DATE_PART('year', repairDate);
+
+CREATE FUNCTION countRepair() RETURNS TRIGGER AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE CompanyRepairCount SET repairs = repairs - 1 WHERE cmpID = OLD.mCompany;
+		UPDATE RoomRepairYear SET repairs = repairs - 1
+		WHERE hotelID = OLD.hotelID AND roomNo = OLD.roomNo AND year = DATE_PART('year', OLD.repairDate);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO CompanyRepairCount VALUES (NEW.mCompany, 1)
+		ON CONFLICT (cmpID) DO UPDATE SET repairs = CompanyRepairCount.repairs + 1;
+		INSERT INTO RoomRepairYear VALUES (NEW.hotelID, NEW.roomNo, DATE_PART('year', NEW.repairDate), 1)
+		ON CONFLICT (hotelID, roomNo, year) DO UPDATE SET repairs = RoomRepairYear.repairs + 1;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER repairCounter
+AFTER INSERT OR UPDATE OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE countRepair();
+
+-- The below sql statements log every booking and room added after the load
+-- to BookingChange, with the transaction that added it, so clients bring
+-- their in-memory copies of Booking up to date by reading only the entries
+-- of transactions they have not seen yet (see BookingSnapshots.java). A room
+-- is logged with no booking. pruneBookingChanges() deletes the entries older
+-- than the given interval, and records in BookingChangeHorizon the
+-- transaction below which entries may be gone, so a client that had not read
+-- them yet knows to read Booking again.
+CREATE TABLE BookingChange( txID BIGINT NOT NULL DEFAULT txid_current(),
+							bID Numeric,
+							customer Numeric,
+							hotelID Numeric NOT NULL,
+							roomNo Numeric NOT NULL,
+							bookingDate Date,
+							price Numeric(6,2),
+							loggedAt TIMESTAMPTZ NOT NULL DEFAULT clock_timestamp());
+
+CREATE INDEX bookingChangeTxID
+ON BookingChange
+USING BTREE
+(txID);
+
+CREATE TABLE BookingChangeHorizon( prunedBelow BIGINT NOT NULL);
+
+INSERT INTO BookingChangeHorizon VALUES (0);
+
+CREATE FUNCTION logBookingChange() RETURNS TRIGGER AS $$
+BEGIN
+	INSERT INTO BookingChange(bID, customer, hotelID, roomNo, bookingDate, price)
+	VALUES (NEW.bID, NEW.customer, NEW.hotelID, NEW.roomNo, NEW.bookingDate, NEW.price);
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER bookingChangeLog
+AFTER INSERT ON Booking
+FOR EACH ROW EXECUTE PROCEDURE logBookingChange();
+
+CREATE FUNCTION logRoomChange() RETURNS TRIGGER AS $$
+BEGIN
+	INSERT INTO BookingChange(hotelID, roomNo) VALUES (NEW.hotelID, NEW.roomNo);
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER roomChangeLog
+AFTER INSERT ON Room
+FOR EACH ROW EXECUTE PROCEDURE logRoomChange();
+
+CREATE FUNCTION pruneBookingChanges(keep INTERVAL) RETURNS BIGINT AS $$
+DECLARE
+	horizon BIGINT;
+	pruned BIGINT;
+BEGIN
+	SELECT MAX(txID) + 1 INTO horizon FROM BookingChange WHERE loggedAt < clock_timestamp() - keep;
+	IF horizon IS NULL THEN
+		RETURN 0;
+	END IF;
+	UPDATE BookingChangeHorizon SET prunedBelow = GREATEST(prunedBelow, horizon);
+	DELETE FROM BookingChange WHERE txID < horizon;
+	GET DIAGNOSTICS pruned = ROW_COUNT;
+	RETURN pruned;
+END;
+$$ LANGUAGE plpgsql;
@@ -4,7 +4,11 @@ DROP INDEX IF EXISTS room_index;
 DROP INDEX IF EXISTS customer_index;
 DROP INDEX IF EXISTS company_index;
 DROP INDEX IF EXISTS booking_index;
+DROP INDEX IF EXISTS booking_hotel_index;
+DROP INDEX IF EXISTS booking_customer_index;
+DROP INDEX IF EXISTS customer_name_index;
 DROP INDEX IF EXISTS repair_index;
+DROP INDEX IF EXISTS repair_room_index;
 DROP INDEX IF EXISTS request_index;
 DROP INDEX IF EXISTS assigned_index;
 
@@ -14,11 +18,11 @@ ON Hotel
 
 CREATE INDEX staff_index
 ON Staff
-(staffID);
+(SSN, role);
 
 CREATE INDEX room_index
 ON Room
-(roomID);
+(hotelID, roomNo);
 
 CREATE INDEX customer_index
 ON Customer
@@ -32,9 +36,25 @@ CREATE INDEX booking_index
 ON Booking
 (bookingDate);
 
+CREATE INDEX booking_hotel_index
+ON Booking
+(hotelID, bookingDate);
+
+CREATE INDEX booking_customer_index
+ON Booking
+(customer);
+
+CREATE INDEX customer_name_index
+ON Customer
+(fName, lName);
+
 CREATE INDEX repair_index
 ON Repair
-(mCompany);
+(mCompany, rID);
+
+CREATE INDEX repair_room_index
+ON Repair
+(hotelID, roomNo);
 
 CREATE INDEX request_index
 ON Request
@@ -1,12 +1,37 @@
 #!/bin/bash
-psql -h localhost -p $PGPORT $DB_NAME < create.sql > /dev/null
-sleep 5
+# Loads each dataset with BulkLoader, then times every DBProject operation
+# with the Java benchmark, without and then with the indexes in
+# create_indexes.sql.  The in-memory copies answer most reports without the
+# database, so these two runs turn them off; a last run with them on is
+# labelled "memory".  Set DATASETS to a list of folders of csv files to
+# repeat the runs for each dataset size; results are appended to $RESULTS.
+DATASETS=${DATASETS:-../data}
+RESULTS=${RESULTS:-$(pwd)/bench.csv}
+BENCH_OPTS=${BENCH_OPTS:-"-warmup 100 -iterations 1000"}
 
-echo "Query time without indexes"
-cat <(echo '\timing') queries.sql | psql -h localhost -p $PGPORT $DB_NAME | grep Time | awk -F "Time" '{print "Query" FNR $2;}'
+(cd ../java && javac -cp pg73jdbc3.jar *.java) || exit 1
 
-psql -h localhost -p $PGPORT $DB_NAME < create_indexes.sql > /dev/null
+DATABASE_ONLY="-Ddbproject.occupancyIndex=false -Ddbproject.priceIndex=false -Ddbproject.bookingColumns=false -Ddbproject.repairRanking=false -Ddbproject.keySets=false"
 
-echo "Query time with indexes"
-cat <(echo '\timing') queries.sql |psql -h localhost -p $PGPORT $DB_NAME | grep Time | awk -F "Time" '{print "Query" FNR $2;}'
+# bench <label> [java options]
+bench() {
+   (cd ../java && java $2 -cp .:pg73jdbc3.jar Benchmark $DB_NAME $PGPORT $USER $BENCH_OPTS -label "$1" -csv $RESULTS)
+}
 
+for dataset in $DATASETS; do
+   # streamed with COPY over the client connection; the loader prints how.
+   echo "Load time ($dataset)"
+   data=$(cd $dataset && pwd)
+   (cd ../java && java -cp .:pg73jdbc3.jar BulkLoader $DB_NAME $PGPORT $USER -schema ../sql/create.sql -data $data) || exit 1
+
+   echo "Operation times without indexes ($dataset)"
+   bench "$dataset,noindex,database" "$DATABASE_ONLY"
+
+   psql -h localhost -p $PGPORT $DB_NAME < create_indexes.sql > /dev/null
+
+   echo "Operation times with indexes ($dataset)"
+   bench "$dataset,index,database" "$DATABASE_ONLY"
+
+   echo "Operation times with the in-memory copies ($dataset)"
+   bench "$dataset,index,memory"
+done